@@ -0,0 +1,84 @@
+/*
+ * Copyright (C) 2024 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package vip.justlive.rabbit.benchmark;
+
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.amqp.core.Message;
+import org.springframework.amqp.support.converter.SimpleMessageConverter;
+import vip.justlive.rabbit.consumer.ConsumerDef;
+import vip.justlive.rabbit.converter.Codecs;
+import vip.justlive.rabbit.converter.ConversionPlan;
+import vip.justlive.rabbit.converter.FastjsonCodec;
+
+/**
+ * 消息转换基准，覆盖文本、字节、json和自定义转换器
+ *
+ * @author wubo
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ConverterBenchmark {
+
+  @Param({"text", "bytes", "json", "custom"})
+  private String type;
+
+  @Param({"small", "medium", "large"})
+  private String size;
+
+  private ConversionPlan plan;
+  private ConsumerDef consumer;
+  private Object value;
+  private Message message;
+
+  @Setup
+  public void setup() {
+    Class<?> target = switch (type) {
+      case "bytes" -> byte[].class;
+      case "json" -> Order.class;
+      default -> String.class;
+    };
+    plan = ConversionPlan.of("custom".equals(type) ? new SimpleMessageConverter() : null,
+        Codecs.lookup(FastjsonCodec.NAME), target);
+    consumer = ConsumerDef.lookup(Fixtures.queue(type), Fixtures.EXCHANGE,
+        Fixtures.routing(type));
+    value = Fixtures.payload(type, size);
+    message = Fixtures.delivery(type, size);
+  }
+
+  @Benchmark
+  public Message toMessage() {
+    return Fixtures.CONVERTER.toMessage(value, plan);
+  }
+
+  @Benchmark
+  public Object fromMessage() {
+    return Fixtures.CONVERTER.fromMessage(message, consumer);
+  }
+}
@@ -0,0 +1,256 @@
+/*
+ * Copyright (C) 2024 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package vip.justlive.rabbit.benchmark;
+
+import com.rabbitmq.client.Channel;
+import java.lang.reflect.Proxy;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import org.springframework.amqp.core.Message;
+import org.springframework.amqp.core.MessageProperties;
+import org.springframework.amqp.rabbit.connection.CachingConnectionFactory;
+import org.springframework.amqp.rabbit.connection.CorrelationData;
+import org.springframework.amqp.rabbit.core.RabbitTemplate;
+import org.springframework.amqp.support.converter.SimpleMessageConverter;
+import org.springframework.beans.factory.support.DefaultListableBeanFactory;
+import org.springframework.core.env.StandardEnvironment;
+import vip.justlive.rabbit.EasyRabbitProperties;
+import vip.justlive.rabbit.RabbitMeta;
+import vip.justlive.rabbit.annotation.Rqueue;
+import vip.justlive.rabbit.consumer.Consumer;
+import vip.justlive.rabbit.consumer.ConsumerDef;
+import vip.justlive.rabbit.consumer.ConsumerMeta;
+import vip.justlive.rabbit.converter.CustomMessageConverter;
+import vip.justlive.rabbit.converter.FastjsonCodec;
+import vip.justlive.rabbit.metrics.RabbitMetrics;
+import vip.justlive.rabbit.producer.BaseProducer;
+import vip.justlive.rabbit.producer.ProducerFactoryBean;
+
+/**
+ * 基准公共环境
+ * <p>
+ * 不连接broker：RabbitTemplate只保留最后一条消息，Channel的所有调用直接返回默认值
+ *
+ * @author wubo
+ */
+final class Fixtures {
+
+  static final String EXCHANGE = "bench.e";
+  static final String CUSTOM_CONVERTER = "benchCustomConverter";
+  /**
+   * 路由索引中额外注册的队列数，接近实际项目的规模
+   */
+  static final int FILLERS = 200;
+
+  static final CustomMessageConverter CONVERTER = new CustomMessageConverter();
+  static final NoopRabbitTemplate TEMPLATE = new NoopRabbitTemplate();
+  static final DefaultListableBeanFactory BEAN_FACTORY = new DefaultListableBeanFactory();
+  static final Channel CHANNEL = noopChannel();
+
+  /**
+   * 防止消费结果被JIT消除
+   */
+  static volatile Object sink;
+
+  static {
+    BEAN_FACTORY.registerSingleton(CUSTOM_CONVERTER, new SimpleMessageConverter());
+
+    RabbitMeta meta = new RabbitMeta();
+    meta.setConverter(CONVERTER);
+    meta.setRabbitTemplate(TEMPLATE);
+    RabbitMeta.regist(EasyRabbitProperties.PRIMARY, meta);
+
+    register("text", null, new TextConsumer());
+    register("bytes", null, new BytesConsumer());
+    register("json", null, new OrderConsumer());
+    register("custom", new SimpleMessageConverter(), new TextConsumer());
+    for (int i = 0; i < FILLERS; i++) {
+      register("filler." + i, null, new TextConsumer());
+    }
+    ConsumerDef.freeze();
+  }
+
+  private Fixtures() {
+  }
+
+  static String queue(String type) {
+    return "bench." + type;
+  }
+
+  static String routing(String type) {
+    return "bench.r." + type;
+  }
+
+  /**
+   * 测试数据，small约几十字节，medium约1KB，large约30~64KB
+   *
+   * @param type 消息类型
+   * @param size 大小
+   * @return payload
+   */
+  static Object payload(String type, String size) {
+    int n = switch (size) {
+      case "small" -> 1;
+      case "medium" -> 20;
+      default -> 500;
+    };
+    return switch (type) {
+      case "json" -> Order.of(n);
+      case "bytes" -> text(n).getBytes(StandardCharsets.UTF_8);
+      default -> text(n);
+    };
+  }
+
+  /**
+   * 模拟broker投递的消息
+   *
+   * @param type 消息类型
+   * @param size 大小
+   * @return message
+   */
+  static Message delivery(String type, String size) {
+    producer(type).send(payload(type, size));
+    Message message = TEMPLATE.last();
+    MessageProperties props = message.getMessageProperties();
+    props.setConsumerQueue(queue(type));
+    props.setReceivedExchange(EXCHANGE);
+    props.setReceivedRoutingKey(routing(type));
+    props.setDeliveryTag(1);
+    return message;
+  }
+
+  @SuppressWarnings("unchecked")
+  static BaseProducer<Object> producer(String type) {
+    Class<?> clazz = switch (type) {
+      case "text" -> TextProducer.class;
+      case "bytes" -> BytesProducer.class;
+      case "json" -> OrderProducer.class;
+      default -> CustomProducer.class;
+    };
+    ProducerFactoryBean<?> factoryBean = new ProducerFactoryBean<>(clazz);
+    factoryBean.setEnvironment(new StandardEnvironment());
+    factoryBean.setBeanFactory(BEAN_FACTORY);
+    return (BaseProducer<Object>) factoryBean.getObject();
+  }
+
+  private static void register(String type, SimpleMessageConverter custom,
+      Consumer<?> consumer) {
+    ConsumerMeta meta = ConsumerMeta.builder().queueName(queue(type)).exchangeName(EXCHANGE)
+        .exchangeType("direct").routing(routing(type)).group("")
+        .datasource(EasyRabbitProperties.PRIMARY).className(consumer.getClass().getName())
+        .codec(FastjsonCodec.NAME).build();
+    ConsumerDef.register(meta, custom, RabbitMetrics.NOOP, consumer);
+  }
+
+  private static String text(int n) {
+    char[] chars = new char[n * 60];
+    Arrays.fill(chars, 'x');
+    return new String(chars);
+  }
+
+  private static Channel noopChannel() {
+    return (Channel) Proxy.newProxyInstance(Fixtures.class.getClassLoader(),
+        new Class[]{Channel.class}, (proxy, method, args) -> switch (method.getName()) {
+          case "equals" -> proxy == args[0];
+          case "hashCode" -> System.identityHashCode(proxy);
+          case "toString" -> "NoopChannel";
+          default -> defaultValue(method.getReturnType());
+        });
+  }
+
+  private static Object defaultValue(Class<?> type) {
+    if (type == boolean.class) {
+      return false;
+    }
+    if (type == int.class) {
+      return 0;
+    }
+    if (type == long.class) {
+      return 0L;
+    }
+    if (type == double.class) {
+      return 0D;
+    }
+    return null;
+  }
+
+  /**
+   * 只保留最后一条消息的模板
+   */
+  static class NoopRabbitTemplate extends RabbitTemplate {
+
+    private volatile Message last;
+
+    NoopRabbitTemplate() {
+      // 只用于读取发布确认等配置，不会建立连接
+      super(new CachingConnectionFactory());
+    }
+
+    @Override
+    public void send(String exchange, String routingKey, Message message,
+        CorrelationData correlationData) {
+      this.last = message;
+    }
+
+    Message last() {
+      return last;
+    }
+  }
+
+  @Rqueue(queue = "bench.text", exchange = EXCHANGE, routing = "bench.r.text")
+  interface TextProducer extends BaseProducer<String> {
+
+  }
+
+  @Rqueue(queue = "bench.bytes", exchange = EXCHANGE, routing = "bench.r.bytes")
+  interface BytesProducer extends BaseProducer<byte[]> {
+
+  }
+
+  @Rqueue(queue = "bench.json", exchange = EXCHANGE, routing = "bench.r.json")
+  interface OrderProducer extends BaseProducer<Order> {
+
+  }
+
+  @Rqueue(queue = "bench.custom", exchange = EXCHANGE, routing = "bench.r.custom",
+      messageConverter = CUSTOM_CONVERTER)
+  interface CustomProducer extends BaseProducer<String> {
+
+  }
+
+  static class TextConsumer implements Consumer<String> {
+
+    @Override
+    public void accept(String msg) {
+      sink = msg;
+    }
+  }
+
+  static class BytesConsumer implements Consumer<byte[]> {
+
+    @Override
+    public void accept(byte[] msg) {
+      sink = msg;
+    }
+  }
+
+  static class OrderConsumer implements Consumer<Order> {
+
+    @Override
+    public void accept(Order msg) {
+      sink = msg;
+    }
+  }
+}
@@ -0,0 +1,55 @@
+/*
+ * Copyright (C) 2024 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package vip.justlive.rabbit.benchmark;
+
+import java.util.ArrayList;
+import java.util.List;
+import lombok.Data;
+
+/**
+ * 测试用消息体
+ *
+ * @author wubo
+ */
+@Data
+public class Order {
+
+  private long id;
+  private String customer;
+  private List<Item> items;
+
+  static Order of(int size) {
+    Order order = new Order();
+    order.setId(size);
+    order.setCustomer("customer-" + size);
+    order.setItems(new ArrayList<>(size));
+    for (int i = 0; i < size; i++) {
+      Item item = new Item();
+      item.setSku("sku-" + i);
+      item.setQuantity(i);
+      item.setPrice(i * 1.5);
+      order.getItems().add(item);
+    }
+    return order;
+  }
+
+  @Data
+  public static class Item {
+
+    private String sku;
+    private int quantity;
+    private double price;
+  }
+}
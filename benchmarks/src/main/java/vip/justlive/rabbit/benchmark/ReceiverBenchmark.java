@@ -0,0 +1,68 @@
+/*
+ * Copyright (C) 2024 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package vip.justlive.rabbit.benchmark;
+
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.amqp.core.Message;
+import vip.justlive.rabbit.EasyRabbitProperties;
+import vip.justlive.rabbit.consumer.Receiver;
+
+/**
+ * 消费端基准，从收到消息到ack的完整处理
+ *
+ * @author wubo
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ReceiverBenchmark {
+
+  @Param({"text", "bytes", "json", "custom"})
+  private String type;
+
+  @Param({"small", "medium", "large"})
+  private String size;
+
+  private Receiver receiver;
+  private Message message;
+
+  @Setup
+  public void setup() {
+    EasyRabbitProperties properties = new EasyRabbitProperties();
+    properties.setConsumer(new EasyRabbitProperties.ConsumerProperties());
+    receiver = new Receiver(Fixtures.CONVERTER, properties);
+    message = Fixtures.delivery(type, size);
+  }
+
+  @Benchmark
+  public Object onMessage() throws Exception {
+    receiver.onMessage(message, Fixtures.CHANNEL);
+    return Fixtures.sink;
+  }
+}
@@ -0,0 +1,69 @@
+/*
+ * Copyright (C) 2024 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package vip.justlive.rabbit.benchmark;
+
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import vip.justlive.rabbit.consumer.ConsumerDef;
+
+/**
+ * 路由索引查找基准
+ *
+ * @author wubo
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class RoutingBenchmark {
+
+  private String[] queues;
+  private String[] routings;
+  private int index;
+
+  @Setup
+  public void setup() {
+    queues = new String[Fixtures.FILLERS];
+    routings = new String[Fixtures.FILLERS];
+    for (int i = 0; i < Fixtures.FILLERS; i++) {
+      queues[i] = Fixtures.queue("filler." + i);
+      routings[i] = Fixtures.routing("filler." + i);
+    }
+  }
+
+  @Benchmark
+  public ConsumerDef hit() {
+    int i = index++ % queues.length;
+    return ConsumerDef.lookup(queues[i], Fixtures.EXCHANGE, routings[i]);
+  }
+
+  @Benchmark
+  public ConsumerDef miss() {
+    int i = index++ % queues.length;
+    return ConsumerDef.lookup(queues[i], Fixtures.EXCHANGE, "bench.r.unknown");
+  }
+}
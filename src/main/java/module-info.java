@@ -12,11 +12,21 @@ module easy.rabbitmq {
   requires org.slf4j;
 
   requires static lombok;
+  requires static java.compiler;
   requires static fastjson;
+  requires static com.fasterxml.jackson.databind;
+  requires static com.fasterxml.jackson.dataformat.cbor;
+  requires static com.fasterxml.jackson.dataformat.smile;
+  requires static micrometer.core;
 
   exports vip.justlive.rabbit;
   exports vip.justlive.rabbit.annotation;
   exports vip.justlive.rabbit.consumer;
   exports vip.justlive.rabbit.converter;
+  exports vip.justlive.rabbit.loopback;
+  exports vip.justlive.rabbit.metrics;
   exports vip.justlive.rabbit.producer;
+
+  uses vip.justlive.rabbit.converter.Codec;
+  uses vip.justlive.rabbit.converter.Compression;
 }
\ No newline at end of file
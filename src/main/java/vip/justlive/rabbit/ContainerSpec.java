@@ -0,0 +1,56 @@
+/*
+ * Copyright (C) 2024 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package vip.justlive.rabbit;
+
+import org.springframework.boot.autoconfigure.amqp.RabbitProperties.ContainerType;
+import vip.justlive.rabbit.consumer.ConsumerMeta;
+import vip.justlive.rabbit.consumer.ExecutionMode;
+
+/**
+ * 监听容器配置，同一分组内配置相同的消费者共用一个容器
+ *
+ * @param batch          是否批量消费
+ * @param async          是否异步确认(AsyncConsumer或分区消费)，不能与同步确认的消费共用channel
+ * @param container      容器类型，批量消费固定为simple
+ * @param execution      消费线程模式
+ * @param concurrency    消费者数量，为null时使用listener配置
+ * @param maxConcurrency 最大消费者数量，为null时使用listener配置
+ * @param prefetch       预取数量，为null时使用listener配置
+ * @param batchSize      每批最大条数，非批量时为0
+ * @param batchWait      批量等待时间(ms)，非批量时为0
+ * @author wubo
+ */
+record ContainerSpec(boolean batch, boolean async, ContainerType container,
+                     ExecutionMode execution, Integer concurrency, Integer maxConcurrency,
+                     Integer prefetch, int batchSize, long batchWait) {
+
+  static ContainerSpec of(ConsumerMeta meta) {
+    if (meta.isBatch()) {
+      return new ContainerSpec(true, false, ContainerType.SIMPLE, meta.getExecution(),
+          meta.getConcurrency(), meta.getMaxConcurrency(), meta.getPrefetch(),
+          meta.getBatchSize(), meta.getBatchWait());
+    }
+    ContainerType container =
+        meta.getContainer() == ContainerType.DIRECT ? ContainerType.DIRECT : ContainerType.SIMPLE;
+    boolean async = meta.isAsync() || meta.getPartitions() > 0;
+    // window按消费者各自计算，不影响容器共用
+    return new ContainerSpec(false, async, container, meta.getExecution(),
+        meta.getConcurrency(), meta.getMaxConcurrency(), meta.getPrefetch(), 0, 0);
+  }
+
+  boolean isDirect() {
+    return container == ContainerType.DIRECT;
+  }
+}
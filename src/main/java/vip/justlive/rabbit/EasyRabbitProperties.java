@@ -14,10 +14,20 @@
 
 package vip.justlive.rabbit;
 
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Map;
+import java.util.Set;
 import lombok.Data;
+import lombok.Getter;
+import lombok.Setter;
 import org.springframework.boot.autoconfigure.amqp.RabbitProperties;
+import org.springframework.boot.autoconfigure.amqp.RabbitProperties.ContainerType;
 import org.springframework.boot.context.properties.ConfigurationProperties;
+import vip.justlive.rabbit.consumer.ExecutionMode;
+import vip.justlive.rabbit.consumer.TopologyMode;
+import vip.justlive.rabbit.producer.PublishWindow;
 
 /**
  * rabbit 配置
@@ -33,14 +43,147 @@ public class EasyRabbitProperties {
 
 
   private String[] basePackages;
-  private Map<String, RabbitProperties> sources;
+  /**
+   * 优先使用编译期生成的@Rqueue索引，部分模块未生成索引时可关闭
+   */
+  private boolean index = true;
+  private Map<String, SourceProperties> sources;
+  /**
+   * 使用进程内loopback传输的数据源名称，无需broker即可端到端运行
+   */
+  private Set<String> loopback = new HashSet<>();
+  /**
+   * 默认消息编解码器
+   */
+  private String codec = "json";
   private ProducerProperties producer;
   private ConsumerProperties consumer;
 
+  /**
+   * 数据源配置，在springboot rabbit配置的基础上增加生产端连接配置
+   */
+  @Getter
+  @Setter
+  public static class SourceProperties extends RabbitProperties {
+
+    private PublisherProperties publisher = new PublisherProperties();
+  }
+
+  @Data
+  public static class PublisherProperties {
+
+    /**
+     * 生产端使用独立的连接，避免发送被消费端流量或流控阻塞
+     */
+    private boolean enabled = false;
+    /**
+     * 独立连接的channel缓存数，未配置时与cache.channel.size一致
+     */
+    private Integer channelCacheSize;
+    /**
+     * 独立连接获取channel的最长等待时间，配置后channel缓存数即为上限，未配置时与cache.channel.checkout-timeout一致
+     */
+    private Duration channelCheckoutTimeout;
+    /**
+     * sendAsync未确认消息数上限，0为不限制
+     */
+    private int maxOutstanding = 0;
+    /**
+     * 达到上限时的处理方式，block等待确认，fail立即返回失败的future
+     */
+    private PublishWindow.Overflow overflow = PublishWindow.Overflow.BLOCK;
+    /**
+     * block时的最长等待时间，未配置时一直等待
+     */
+    private Duration overflowTimeout;
+    /**
+     * 本地spool配置
+     */
+    private SpoolProperties spool = new SpoolProperties();
+  }
+
+  @Data
+  public static class SpoolProperties {
+
+    /**
+     * 是否开启，开启后send写入本地日志后立即返回，由后台线程带确认发送到broker
+     */
+    private boolean enabled = false;
+    /**
+     * 日志目录，每个数据源使用其中的同名子目录
+     */
+    private String directory = "easy-rabbit-spool";
+    /**
+     * 日志段大小(byte)
+     */
+    private int segmentSize = 64 * 1024 * 1024;
+    /**
+     * 每批重发的最大条数
+     */
+    private int batchSize = 100;
+    /**
+     * 等待broker确认的最长时间
+     */
+    private Duration confirmTimeout = Duration.ofSeconds(5);
+    /**
+     * 发送失败后的重试间隔
+     */
+    private Duration retryInterval = Duration.ofSeconds(1);
+    /**
+     * 日志总大小上限(byte)，0为不限制
+     */
+    private long maxSize = 1024L * 1024 * 1024;
+    /**
+     * 达到上限时的处理方式，block等待已确认的段删除，fail立即抛出异常
+     */
+    private PublishWindow.Overflow overflow = PublishWindow.Overflow.BLOCK;
+    /**
+     * block时的最长等待时间，未配置时一直等待
+     */
+    private Duration overflowTimeout;
+    /**
+     * 定期刷盘的间隔，未配置时只在段滚动和关闭时刷盘
+     */
+    private Duration forceInterval;
+  }
+
   @Data
   public static class ProducerProperties {
 
     private boolean enabled = false;
+    /**
+     * 消息打包配置
+     */
+    private PackingProperties packing = new PackingProperties();
+    /**
+     * 默认压缩算法，如gzip、deflate，为空时不压缩
+     */
+    private String compression;
+    /**
+     * 消息体不小于该值(byte)时才压缩
+     */
+    private int compressThreshold = 1024;
+  }
+
+  @Data
+  public static class PackingProperties {
+
+    /**
+     * 是否开启打包，开启后多次send合并为一条broker消息发送
+     */
+    private boolean enabled = false;
+    /**
+     * 每个打包消息最多包含的消息条数
+     */
+    private int batchSize = 100;
+    /**
+     * 每个打包消息最大字节数
+     */
+    private int bufferLimit = 64 * 1024;
+    /**
+     * 未凑满时最长等待时间(ms)
+     */
+    private long linger = 10;
   }
 
   @Data
@@ -50,5 +193,74 @@ public class EasyRabbitProperties {
     private boolean ackMultiple = false;
     private boolean nackMultiple = false;
     private boolean nackRequeue = true;
+    /**
+     * BatchConsumer默认每批最大条数
+     */
+    private int batchSize = 100;
+    /**
+     * BatchConsumer默认等待下一条消息的最长时间(ms)
+     */
+    private long batchWait = 1000;
+    /**
+     * 消费线程模式，virtual时监听器运行在虚拟线程上
+     */
+    private ExecutionMode execution = ExecutionMode.PLATFORM;
+    /**
+     * 监听容器类型，simple或direct，BatchConsumer只支持simple
+     */
+    private ContainerType container = ContainerType.SIMPLE;
+    /**
+     * AsyncConsumer每个channel允许未完成的最大消息数，0为与prefetch一致
+     */
+    private int asyncWindow = 0;
+    /**
+     * 失败后延迟重试次数，0为不重试，失败消息按nackRequeue处理
+     */
+    private int retries = 0;
+    /**
+     * 每次重试的延迟(ms)，次数超过配置的级数时使用最后一级
+     */
+    private long[] retryDelays = {1000, 10000, 60000};
+    /**
+     * 分组限流(每秒消息数)，key为分组名称，同一分组的消费者共享令牌桶
+     */
+    private Map<String, Double> groupRateLimits = new HashMap<>(4);
+    /**
+     * 背压信号检查间隔(ms)
+     */
+    private long backpressureInterval = 1000;
+    /**
+     * 启动时拓扑处理方式，declare批量声明，verify只检查已存在
+     */
+    private TopologyMode topology = TopologyMode.DECLARE;
+    /**
+     * 拓扑指纹缓存文件，配置后拓扑未变化的数据源跳过声明
+     */
+    private String topologyCache;
+    /**
+     * 重复消息过滤配置
+     */
+    private DedupProperties dedup = new DedupProperties();
+  }
+
+  @Data
+  public static class DedupProperties {
+
+    /**
+     * 是否默认开启，开启后已成功处理过的消息不再转换和处理，直接ack
+     */
+    private boolean enabled = false;
+    /**
+     * 作为消息key的消息头，为空时使用messageId，没有key的消息不过滤
+     */
+    private String header;
+    /**
+     * 最多记录的消息数，每条约12字节
+     */
+    private int capacity = 1_000_000;
+    /**
+     * 记录的有效时间
+     */
+    private Duration ttl = Duration.ofMinutes(10);
   }
 }
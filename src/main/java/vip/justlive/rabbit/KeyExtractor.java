@@ -0,0 +1,91 @@
+/*
+ * Copyright (C) 2024 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package vip.justlive.rabbit;
+
+import java.lang.reflect.Method;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import org.springframework.amqp.core.Message;
+import org.springframework.util.ClassUtils;
+import org.springframework.util.ReflectionUtils;
+import org.springframework.util.StringUtils;
+
+/**
+ * 从消息头或消息体字段中读取key，用于分区和分片
+ *
+ * @author wubo
+ */
+public final class KeyExtractor {
+
+  private static final Method NONE = ReflectionUtils.findMethod(Object.class, "hashCode");
+
+  private final String header;
+  private final String field;
+  private final Map<Class<?>, Method> readers = new ConcurrentHashMap<>(4);
+
+  /**
+   * @param header key所在的消息头，优先使用
+   * @param field  key所在的消息体字段，支持Map、getter和record访问方法
+   */
+  public KeyExtractor(String header, String field) {
+    this.header = StringUtils.hasText(header) ? header : null;
+    this.field = StringUtils.hasText(field) ? field : null;
+  }
+
+  /**
+   * 是否配置了key
+   *
+   * @return 未配置消息头和字段时为false
+   */
+  public boolean isPresent() {
+    return header != null || field != null;
+  }
+
+  /**
+   * 读取key
+   *
+   * @param message 消息
+   * @param payload 消息体对象
+   * @return 不存在时为null
+   */
+  public Object key(Message message, Object payload) {
+    if (header != null) {
+      return message == null ? null : message.getMessageProperties().getHeader(header);
+    }
+    if (field == null || payload == null) {
+      return null;
+    }
+    if (payload instanceof Map<?, ?> map) {
+      return map.get(field);
+    }
+    Method reader = readers.computeIfAbsent(payload.getClass(), this::reader);
+    if (reader == NONE) {
+      return null;
+    }
+    return ReflectionUtils.invokeMethod(reader, payload);
+  }
+
+  private Method reader(Class<?> clazz) {
+    // 先找getter，再找record的同名访问方法
+    String name = StringUtils.capitalize(field);
+    for (String candidate : new String[]{"get" + name, "is" + name, field}) {
+      Method method = ClassUtils.getMethodIfAvailable(clazz, candidate);
+      if (method != null && method.getReturnType() != void.class) {
+        return method;
+      }
+    }
+    return NONE;
+  }
+}
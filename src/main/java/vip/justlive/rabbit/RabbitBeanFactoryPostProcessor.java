@@ -14,26 +14,41 @@
 
 package vip.justlive.rabbit;
 
+import java.nio.file.Paths;
+import java.time.Duration;
 import java.util.Map;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.amqp.rabbit.batch.SimpleBatchingStrategy;
 import org.springframework.amqp.rabbit.connection.CachingConnectionFactory;
 import org.springframework.amqp.rabbit.connection.RabbitConnectionFactoryBean;
+import org.springframework.amqp.rabbit.core.BatchingRabbitTemplate;
 import org.springframework.amqp.rabbit.core.RabbitAdmin;
 import org.springframework.amqp.rabbit.core.RabbitMessagingTemplate;
 import org.springframework.amqp.rabbit.core.RabbitTemplate;
 import org.springframework.beans.BeansException;
 import org.springframework.beans.factory.config.BeanFactoryPostProcessor;
 import org.springframework.beans.factory.config.ConfigurableListableBeanFactory;
+import org.springframework.beans.factory.support.DefaultListableBeanFactory;
 import org.springframework.boot.autoconfigure.amqp.CachingConnectionFactoryConfigurer;
 import org.springframework.boot.autoconfigure.amqp.RabbitConnectionFactoryBeanConfigurer;
-import org.springframework.boot.autoconfigure.amqp.RabbitProperties;
 import org.springframework.boot.autoconfigure.amqp.RabbitTemplateConfigurer;
 import org.springframework.boot.context.properties.bind.Binder;
 import org.springframework.context.EnvironmentAware;
 import org.springframework.context.ResourceLoaderAware;
 import org.springframework.core.env.Environment;
 import org.springframework.core.io.ResourceLoader;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskScheduler;
+import org.springframework.util.StringUtils;
+import vip.justlive.rabbit.converter.Codecs;
+import vip.justlive.rabbit.converter.Compression;
+import vip.justlive.rabbit.converter.Compressions;
 import vip.justlive.rabbit.converter.CustomMessageConverter;
+import vip.justlive.rabbit.loopback.LoopbackBroker;
+import vip.justlive.rabbit.loopback.LoopbackConnectionFactory;
+import vip.justlive.rabbit.metrics.RabbitMetrics;
+import vip.justlive.rabbit.producer.PackingRabbitTemplate;
+import vip.justlive.rabbit.producer.PublishWindow;
+import vip.justlive.rabbit.producer.Spool;
 
 /**
  * rabbit动态注册bean
@@ -67,15 +82,31 @@ public class RabbitBeanFactoryPostProcessor implements BeanFactoryPostProcessor,
     }
 
     CustomMessageConverter converter = new CustomMessageConverter();
+    converter.setDefaultCodec(Codecs.lookup(props.getCodec()));
+    if (props.getProducer() != null) {
+      if (StringUtils.hasText(props.getProducer().getCompression())) {
+        converter.setDefaultCompression(Compressions.lookup(props.getProducer().getCompression()));
+      }
+      converter.setCompressThreshold(props.getProducer().getCompressThreshold());
+    }
     beanFactory.registerSingleton("customMessageConverter", converter);
 
-    for (Map.Entry<String, RabbitProperties> entry : props.getSources().entrySet()) {
-      processRabbitAutoConfiguration(entry.getKey(), entry.getValue(), converter, beanFactory);
+    EasyRabbitProperties.PackingProperties packing = null;
+    if (props.getProducer() != null && props.getProducer().getPacking().isEnabled()) {
+      packing = props.getProducer().getPacking();
+    }
+
+    for (Map.Entry<String, EasyRabbitProperties.SourceProperties> entry
+        : props.getSources().entrySet()) {
+      processRabbitAutoConfiguration(entry.getKey(), entry.getValue(), converter, packing,
+          props.getLoopback().contains(entry.getKey()), beanFactory);
     }
   }
 
-  private void processRabbitAutoConfiguration(String sourceName, RabbitProperties properties,
-      CustomMessageConverter converter, ConfigurableListableBeanFactory beanFactory) {
+  private void processRabbitAutoConfiguration(String sourceName,
+      EasyRabbitProperties.SourceProperties properties,
+      CustomMessageConverter converter, EasyRabbitProperties.PackingProperties packing,
+      boolean loopback, ConfigurableListableBeanFactory beanFactory) {
     RabbitMeta rabbitMeta = new RabbitMeta();
     rabbitMeta.setConverter(converter);
 
@@ -90,15 +121,19 @@ public class RabbitBeanFactoryPostProcessor implements BeanFactoryPostProcessor,
     beanFactory.registerSingleton("rabbitConnectionFactoryConfigurer" + suffix,
         cachingConnectionFactoryConfigurer);
 
-    RabbitConnectionFactoryBean connectionFactoryBean = new RabbitConnectionFactoryBean();
-    rabbitConnectionFactoryBeanConfigurer.configure(connectionFactoryBean);
-    connectionFactoryBean.afterPropertiesSet();
-
     com.rabbitmq.client.ConnectionFactory connectionFactory;
-    try {
-      connectionFactory = connectionFactoryBean.getObject();
-    } catch (Exception e) {
-      throw new RuntimeException(e);
+    if (loopback) {
+      connectionFactory = new LoopbackConnectionFactory(LoopbackBroker.of(sourceName));
+      log.info("rabbit source [{}] is using in-jvm loopback transport", sourceName);
+    } else {
+      RabbitConnectionFactoryBean connectionFactoryBean = new RabbitConnectionFactoryBean();
+      rabbitConnectionFactoryBeanConfigurer.configure(connectionFactoryBean);
+      connectionFactoryBean.afterPropertiesSet();
+      try {
+        connectionFactory = connectionFactoryBean.getObject();
+      } catch (Exception e) {
+        throw new RuntimeException(e);
+      }
     }
     if (connectionFactory == null) {
       throw new RuntimeException("connectionFactory getObject is null");
@@ -115,10 +150,28 @@ public class RabbitBeanFactoryPostProcessor implements BeanFactoryPostProcessor,
     beanFactory.registerSingleton("rabbitTemplateConfigurer" + suffix,
         rabbitTemplateConfigurer);
 
-    RabbitTemplate rabbitTemplate = new RabbitTemplate();
+    RabbitTemplate rabbitTemplate;
+    if (packing != null) {
+      rabbitTemplate = packingRabbitTemplate(suffix, packing, converter, beanFactory);
+    } else {
+      rabbitTemplate = new RabbitTemplate();
+    }
     rabbitTemplateConfigurer.configure(rabbitTemplate, cachingConnectionFactory);
+    CachingConnectionFactory publisherConnectionFactory = publisherConnectionFactory(sourceName,
+        properties.getPublisher(), cachingConnectionFactory);
+    if (publisherConnectionFactory != null) {
+      rabbitTemplate.setUsePublisherConnection(true);
+    }
+    Object cacheMetrics = RabbitMetrics.cacheBinder(sourceName, cachingConnectionFactory,
+        publisherConnectionFactory);
+    if (cacheMetrics != null) {
+      beanFactory.registerSingleton("rabbitChannelCacheMetrics" + suffix, cacheMetrics);
+    }
     beanFactory.registerSingleton("rabbitTemplate" + suffix, rabbitTemplate);
     rabbitMeta.setRabbitTemplate(rabbitTemplate);
+    rabbitMeta.setPublishWindow(publishWindow(properties.getPublisher()));
+    rabbitMeta.setSpool(spool(sourceName, properties.getPublisher().getSpool(), rabbitTemplate,
+        cachingConnectionFactory, beanFactory));
 
     RabbitAdmin rabbitAdmin = new RabbitAdmin(cachingConnectionFactory);
     beanFactory.registerSingleton("amqpAdmin" + suffix, rabbitAdmin);
@@ -132,6 +185,88 @@ public class RabbitBeanFactoryPostProcessor implements BeanFactoryPostProcessor,
     RabbitMeta.regist(sourceName, rabbitMeta);
   }
 
+  private PublishWindow publishWindow(EasyRabbitProperties.PublisherProperties publisher) {
+    if (publisher.getMaxOutstanding() <= 0) {
+      return PublishWindow.UNBOUNDED;
+    }
+    Duration timeout = publisher.getOverflowTimeout();
+    return new PublishWindow(publisher.getMaxOutstanding(), publisher.getOverflow(),
+        timeout == null ? 0 : timeout.toMillis());
+  }
+
+  private Spool spool(String sourceName, EasyRabbitProperties.SpoolProperties spool,
+      RabbitTemplate rabbitTemplate, CachingConnectionFactory connectionFactory,
+      ConfigurableListableBeanFactory beanFactory) {
+    if (!spool.isEnabled()) {
+      return null;
+    }
+    if (rabbitTemplate instanceof BatchingRabbitTemplate
+        || !connectionFactory.isPublisherConfirms()) {
+      log.warn("rabbit source [{}] spool needs publisher-confirm-type=correlated without packing,"
+          + " spool is disabled", sourceName);
+      return null;
+    }
+    Spool result = Spool.open(sourceName, Paths.get(spool.getDirectory(), sourceName), spool,
+        rabbitTemplate);
+    // registerSingleton注册的bean不会执行销毁回调，需要手动注册，关闭时停止重发线程
+    if (beanFactory instanceof DefaultListableBeanFactory registry) {
+      registry.registerDisposableBean("rabbitSpool" + getSuffix(sourceName), result::close);
+    }
+    return result;
+  }
+
+  private CachingConnectionFactory publisherConnectionFactory(String sourceName,
+      EasyRabbitProperties.PublisherProperties publisher,
+      CachingConnectionFactory connectionFactory) {
+    if (!publisher.isEnabled()) {
+      return null;
+    }
+    // 独立连接由CachingConnectionFactory创建，已继承主连接的配置
+    if (!(connectionFactory.getPublisherConnectionFactory()
+        instanceof CachingConnectionFactory publisherConnectionFactory)) {
+      log.warn("rabbit source [{}] has no publisher connection factory", sourceName);
+      return null;
+    }
+    if (publisher.getChannelCacheSize() != null) {
+      publisherConnectionFactory.setChannelCacheSize(publisher.getChannelCacheSize());
+    }
+    if (publisher.getChannelCheckoutTimeout() != null) {
+      publisherConnectionFactory.setChannelCheckoutTimeout(
+          publisher.getChannelCheckoutTimeout().toMillis());
+    }
+    log.info("rabbit source [{}] publishes on a dedicated connection with [{}] channels",
+        sourceName, publisherConnectionFactory.getChannelCacheSize());
+    return publisherConnectionFactory;
+  }
+
+  private RabbitTemplate packingRabbitTemplate(String suffix,
+      EasyRabbitProperties.PackingProperties packing, CustomMessageConverter converter,
+      ConfigurableListableBeanFactory beanFactory) {
+    ThreadPoolTaskScheduler scheduler = new ThreadPoolTaskScheduler();
+    scheduler.setThreadNamePrefix("easy-rabbit-packing" + suffix + "-");
+    scheduler.initialize();
+
+    SimpleBatchingStrategy strategy = new SimpleBatchingStrategy(packing.getBatchSize(),
+        packing.getBufferLimit(), packing.getLinger());
+    PackingRabbitTemplate template = new PackingRabbitTemplate(strategy, scheduler);
+    Compression compression = converter.getDefaultCompression();
+    if (compression != null) {
+      // 打包模式下压缩整个打包消息，单条消息不再压缩
+      int threshold = converter.getCompressThreshold();
+      template.addBeforePublishPostProcessors(
+          message -> Compressions.compress(message, compression, threshold));
+    }
+
+    // registerSingleton注册的bean不会执行销毁回调，需要手动注册，保证关闭前发出缓冲中的消息
+    if (beanFactory instanceof DefaultListableBeanFactory registry) {
+      registry.registerDisposableBean("rabbitPackingScheduler" + suffix, scheduler::destroy);
+      registry.registerDisposableBean("rabbitTemplate" + suffix, template::flush);
+    }
+    log.info("rabbit message packing is enabled for source [{}] with [{}][{}][{}ms]", suffix,
+        packing.getBatchSize(), packing.getBufferLimit(), packing.getLinger());
+    return template;
+  }
+
   @Override
   public void setEnvironment(Environment environment) {
     this.environment = environment;
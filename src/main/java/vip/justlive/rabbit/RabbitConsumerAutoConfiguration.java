@@ -21,6 +21,8 @@ import org.springframework.boot.autoconfigure.AutoConfigureAfter;
 import org.springframework.boot.autoconfigure.condition.ConditionalOnMissingBean;
 import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
 import org.springframework.context.annotation.Bean;
+import vip.justlive.rabbit.consumer.AsyncConsumer;
+import vip.justlive.rabbit.consumer.BatchConsumer;
 import vip.justlive.rabbit.consumer.Consumer;
 import vip.justlive.rabbit.consumer.ConsumerInitializer;
 import vip.justlive.rabbit.producer.ProducerRegistryPostProcessor;
@@ -55,8 +57,10 @@ public class RabbitConsumerAutoConfiguration {
 
   @Bean
   public ConsumerInitializer consumerInitializer(
-      @Autowired(required = false) List<Consumer<?>> list) {
-    return new ConsumerInitializer(list);
+      @Autowired(required = false) List<Consumer<?>> list,
+      @Autowired(required = false) List<BatchConsumer<?>> batchList,
+      @Autowired(required = false) List<AsyncConsumer<?>> asyncList) {
+    return new ConsumerInitializer(list, batchList, asyncList);
   }
 
 
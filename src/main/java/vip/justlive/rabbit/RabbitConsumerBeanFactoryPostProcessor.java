@@ -14,28 +14,46 @@
 
 package vip.justlive.rabbit;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.stream.Collectors;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.amqp.core.AcknowledgeMode;
+import org.springframework.amqp.rabbit.config.DirectRabbitListenerContainerFactory;
 import org.springframework.amqp.rabbit.config.SimpleRabbitListenerContainerFactory;
 import org.springframework.amqp.rabbit.connection.ConnectionFactory;
+import org.springframework.amqp.rabbit.listener.AbstractMessageListenerContainer;
+import org.springframework.amqp.rabbit.listener.DirectMessageListenerContainer;
 import org.springframework.amqp.rabbit.listener.SimpleMessageListenerContainer;
 import org.springframework.amqp.rabbit.listener.adapter.MessageListenerAdapter;
 import org.springframework.beans.BeansException;
 import org.springframework.beans.factory.config.BeanFactoryPostProcessor;
 import org.springframework.beans.factory.config.ConfigurableListableBeanFactory;
+import org.springframework.boot.autoconfigure.amqp.DirectRabbitListenerContainerFactoryConfigurer;
 import org.springframework.boot.autoconfigure.amqp.RabbitProperties;
+import org.springframework.boot.autoconfigure.amqp.RabbitProperties.ContainerType;
 import org.springframework.boot.autoconfigure.amqp.SimpleRabbitListenerContainerFactoryConfigurer;
 import org.springframework.boot.context.properties.bind.Binder;
 import org.springframework.context.EnvironmentAware;
 import org.springframework.core.env.Environment;
+import org.springframework.core.task.SimpleAsyncTaskExecutor;
+import org.springframework.util.StringUtils;
 import vip.justlive.rabbit.annotation.Rqueue;
+import vip.justlive.rabbit.annotation.RqueueIndex;
+import vip.justlive.rabbit.consumer.AsyncConsumer;
+import vip.justlive.rabbit.consumer.BackpressureMonitor;
+import vip.justlive.rabbit.consumer.BackpressureSignal;
+import vip.justlive.rabbit.consumer.BatchConsumer;
 import vip.justlive.rabbit.consumer.Consumer;
 import vip.justlive.rabbit.consumer.ConsumerMeta;
+import vip.justlive.rabbit.consumer.ExecutionMode;
 import vip.justlive.rabbit.consumer.Receiver;
+import vip.justlive.rabbit.converter.Compressions;
 
 /**
  * rabbit消费者动态注册bean
@@ -72,20 +90,29 @@ public class RabbitConsumerBeanFactoryPostProcessor implements BeanFactoryPostPr
       return;
     }
 
-    processRabbitConsumerMeta(beanFactory);
+    RqueueIndex index = props.isIndex() ? RqueueIndex.load(beanFactory.getBeanClassLoader())
+        : null;
+    processRabbitConsumerMeta(props, beanFactory, index, Consumer.class);
+    processRabbitConsumerMeta(props, beanFactory, index, BatchConsumer.class);
+    processRabbitConsumerMeta(props, beanFactory, index, AsyncConsumer.class);
     processRabbitAutoConfiguration(props, beanFactory);
   }
 
 
-  private void processRabbitConsumerMeta(ConfigurableListableBeanFactory beanFactory) {
+  private void processRabbitConsumerMeta(EasyRabbitProperties props,
+      ConfigurableListableBeanFactory beanFactory, RqueueIndex index, Class<?> consumerType) {
 
-    for (String name : beanFactory.getBeanNamesForType(Consumer.class)) {
+    boolean batch = consumerType == BatchConsumer.class;
+    boolean async = consumerType == AsyncConsumer.class;
+    for (String name : beanFactory.getBeanNamesForType(consumerType)) {
       String className = beanFactory.getBeanDefinition(name).getBeanClassName();
-      Rqueue rqueue;
-      try {
-        rqueue = Class.forName(className).getAnnotation(Rqueue.class);
-      } catch (ClassNotFoundException e) {
-        throw new RuntimeException(e);
+      Rqueue rqueue = index == null ? null : index.lookup(className);
+      if (rqueue == null) {
+        try {
+          rqueue = Class.forName(className).getAnnotation(Rqueue.class);
+        } catch (ClassNotFoundException e) {
+          throw new RuntimeException(e);
+        }
       }
       if (rqueue == null) {
         log.warn("{} should be annotated by @Rqueue", className);
@@ -99,9 +126,74 @@ public class RabbitConsumerBeanFactoryPostProcessor implements BeanFactoryPostPr
       String messageConverter = environment.resolvePlaceholders(rqueue.messageConverter());
       String group = environment.resolvePlaceholders(rqueue.group());
       String datasource = environment.resolvePlaceholders(rqueue.datasource());
+      if (datasource.indexOf(',') >= 0) {
+        // 多数据源分片只用于生产端，消费端每个数据源单独声明消费者
+        String[] datasources = StringUtils.tokenizeToStringArray(datasource, ",");
+        log.warn("{} consumer only supports one datasource, use [{}]", className,
+            datasources[0]);
+        datasource = datasources[0];
+      }
+      int batchSize = resolveInt(rqueue.batchSize(), props.getConsumer().getBatchSize());
+      long batchWait = resolveLong(rqueue.batchWait(), props.getConsumer().getBatchWait());
+      String codec = environment.resolvePlaceholders(rqueue.codec());
+      if (codec.isEmpty()) {
+        codec = props.getCodec();
+      }
+      ExecutionMode execution = ExecutionMode.of(environment.resolvePlaceholders(
+          rqueue.execution()), props.getConsumer().getExecution());
+      ContainerType container = resolveContainer(rqueue.container(),
+          props.getConsumer().getContainer());
+      Integer concurrency = resolveInteger(rqueue.concurrency());
+      Integer maxConcurrency = resolveInteger(rqueue.maxConcurrency());
+      Integer prefetch = resolveInteger(rqueue.prefetch());
+      String partitionHeader = environment.resolvePlaceholders(rqueue.partitionHeader());
+      String partitionField = environment.resolvePlaceholders(rqueue.partitionField());
+      int partitions = resolveInt(rqueue.partitions(), 0);
+      if (partitions > 0 && consumerType != Consumer.class) {
+        log.warn("{} partitions only support Consumer, ignored", className);
+        partitions = 0;
+      }
+      if (partitions > 0) {
+        // 多个消费者并发取同一队列时相同key会乱序进入通道，分区消费固定为单个消费者
+        if ((concurrency != null && concurrency != 1)
+            || (maxConcurrency != null && maxConcurrency != 1)) {
+          log.warn("{} partitions need a single consumer, concurrency [{}][{}] is set to 1",
+              className, concurrency, maxConcurrency);
+        }
+        concurrency = 1;
+        maxConcurrency = 1;
+      }
+      int retries = resolveInt(rqueue.retries(), props.getConsumer().getRetries());
+      long[] retryDelays = props.getConsumer().getRetryDelays();
+      String delays = environment.resolvePlaceholders(rqueue.retryDelays());
+      if (!delays.isEmpty()) {
+        retryDelays = Arrays.stream(delays.split(",")).map(String::trim)
+            .mapToLong(Long::parseLong).toArray();
+      }
+      String parkingLot = environment.resolvePlaceholders(rqueue.parkingLot());
+      String rateLimit = environment.resolvePlaceholders(rqueue.rateLimit());
+      Double groupRateLimit = props.getConsumer().getGroupRateLimits().get(group);
+      String dedup = environment.resolvePlaceholders(rqueue.dedup());
+      int window = 0;
+      if (async || partitions > 0) {
+        window = resolveInt(rqueue.window(), props.getConsumer().getAsyncWindow());
+        if (window <= 0) {
+          window = prefetch(props.getSources().get(datasource), container, prefetch);
+        }
+      }
 
-      ConsumerMeta meta = new ConsumerMeta(queueName, exchangeName, exchangeType, routing,
-          messageConverter, group, datasource, className);
+      ConsumerMeta meta = ConsumerMeta.builder().queueName(queueName).exchangeName(exchangeName)
+          .exchangeType(exchangeType).routing(routing).messageConverter(messageConverter)
+          .group(group).datasource(datasource).className(className).batch(batch).async(async)
+          .batchSize(batchSize).batchWait(batchWait).codec(codec).execution(execution)
+          .container(container).concurrency(concurrency).maxConcurrency(maxConcurrency)
+          .prefetch(prefetch).window(window).partitions(partitions)
+          .partitionHeader(partitionHeader).partitionField(partitionField).retries(retries)
+          .retryDelays(retryDelays).parkingLot(parkingLot)
+          .rateLimit(rateLimit.isEmpty() ? 0 : Double.parseDouble(rateLimit))
+          .groupRateLimit(groupRateLimit == null ? 0 : groupRateLimit)
+          .dedup(dedup.isEmpty() ? props.getConsumer().getDedup().isEnabled()
+              : Boolean.parseBoolean(dedup)).build();
       ConsumerMeta.regist(meta);
 
       log.info("find Rqueue meta: {} ", meta);
@@ -119,6 +211,10 @@ public class RabbitConsumerBeanFactoryPostProcessor implements BeanFactoryPostPr
 
     Receiver receiver = new Receiver(rabbitMeta.getConverter(), props);
     beanFactory.registerSingleton("easyRabbitReceiver", receiver);
+    BackpressureMonitor monitor = new BackpressureMonitor(
+        beanFactory.getBeanProvider(BackpressureSignal.class),
+        props.getConsumer().getBackpressureInterval());
+    beanFactory.registerSingleton("easyRabbitBackpressureMonitor", monitor);
 
     Map<String, Map<String, List<ConsumerMeta>>> groups = ConsumerMeta.group();
     for (Map.Entry<String, Map<String, List<ConsumerMeta>>> entry : groups.entrySet()) {
@@ -132,14 +228,50 @@ public class RabbitConsumerBeanFactoryPostProcessor implements BeanFactoryPostPr
           return;
         }
 
-        SimpleMessageListenerContainer container = simpleMessageListenerContainer(entry.getKey(),
-            properties, rabbitMeta.getConnectionFactory(), receiver, entry2.getValue());
-        String beanName = "rabbitListenerContainerFactory";
-        if (groups.size() > 1 && !EasyRabbitProperties.PRIMARY.equals(entry.getKey())) {
-          beanName = String.format("SMLContainer_%s_%s", entry.getKey(), entry2.getKey());
+        // 同一分组内按容器配置拆分，配置不同的消费者使用各自的容器
+        Map<ContainerSpec, List<ConsumerMeta>> specs = new LinkedHashMap<>(4);
+        for (ConsumerMeta meta : entry2.getValue()) {
+          if (meta.isBatch() && meta.getContainer() == ContainerType.DIRECT) {
+            log.warn("batch consumer {} only supports simple container", meta.getClassName());
+          }
+          specs.computeIfAbsent(ContainerSpec.of(meta), k -> new ArrayList<>()).add(meta);
+        }
+
+        Map<String, Integer> counter = new HashMap<>(4);
+        for (Map.Entry<ContainerSpec, List<ConsumerMeta>> entry3 : specs.entrySet()) {
+          ContainerSpec spec = entry3.getKey();
+          AbstractMessageListenerContainer container;
+          String beanName;
+          if (spec.batch()) {
+            container = batchMessageListenerContainer(entry.getKey(), properties,
+                rabbitMeta.getConnectionFactory(), receiver, spec, entry3.getValue());
+            beanName = String.format("SMLContainer_%s_%s_batch", entry.getKey(),
+                entry2.getKey());
+          } else if (spec.isDirect()) {
+            container = directMessageListenerContainer(entry.getKey(), properties,
+                rabbitMeta.getConnectionFactory(), receiver, spec, entry3.getValue());
+            beanName = String.format("DMLContainer_%s_%s", entry.getKey(), entry2.getKey());
+          } else {
+            container = simpleMessageListenerContainer(entry.getKey(), properties,
+                rabbitMeta.getConnectionFactory(), receiver, spec, entry3.getValue());
+            beanName = String.format("SMLContainer_%s_%s", entry.getKey(), entry2.getKey());
+          }
+          if (spec.async()) {
+            beanName = beanName + "_async";
+          }
+
+          int index = counter.merge(beanName, 1, Integer::sum);
+          if (index > 1) {
+            beanName = beanName + "_" + index;
+          } else if (!spec.batch() && !spec.async() && !beanFactory.containsSingleton(
+              "rabbitListenerContainerFactory") && (groups.size() == 1
+              || EasyRabbitProperties.PRIMARY.equals(entry.getKey()))) {
+            beanName = "rabbitListenerContainerFactory";
+          }
+          container.setBeanName(beanName);
+          beanFactory.registerSingleton(beanName, container);
+          monitor.add(container, entry.getKey(), entry2.getKey());
         }
-        container.setBeanName(beanName);
-        beanFactory.registerSingleton(beanName, container);
       }
     }
 
@@ -148,12 +280,13 @@ public class RabbitConsumerBeanFactoryPostProcessor implements BeanFactoryPostPr
 
   public SimpleMessageListenerContainer simpleMessageListenerContainer(String datasource,
       RabbitProperties properties, ConnectionFactory connectionFactory, Receiver receiver,
-      List<ConsumerMeta> consumerMetas) {
+      ContainerSpec spec, List<ConsumerMeta> consumerMetas) {
 
     SimpleRabbitListenerContainerFactoryConfigurer configurer = new SimpleRabbitListenerContainerFactoryConfigurer(
         properties);
     SimpleRabbitListenerContainerFactory factory = new SimpleRabbitListenerContainerFactory();
     configurer.configure(factory, connectionFactory);
+    applySpec(factory, properties, spec);
     SimpleMessageListenerContainer container = factory.createListenerContainer();
 
     Set<String> queueNames = consumerMetas.stream().map(ConsumerMeta::getQueueName)
@@ -162,8 +295,159 @@ public class RabbitConsumerBeanFactoryPostProcessor implements BeanFactoryPostPr
     container.setMessageListener(new MessageListenerAdapter(receiver));
     container.setQueueNames(queueNames.toArray(new String[0]));
     container.setAcknowledgeMode(AcknowledgeMode.MANUAL);
+    // 打包消息由Receiver拆分，拆分后的消息共享deliveryTag，不能由容器逐条交付
+    container.setDeBatchingEnabled(false);
+    applyExecution(container, datasource, spec);
+
+    log.info("init message listener for queue(s) {} -> {} with {}", queueNames, datasource,
+        spec);
+    return container;
+  }
+
+  public DirectMessageListenerContainer directMessageListenerContainer(String datasource,
+      RabbitProperties properties, ConnectionFactory connectionFactory, Receiver receiver,
+      ContainerSpec spec, List<ConsumerMeta> consumerMetas) {
+
+    DirectRabbitListenerContainerFactoryConfigurer configurer = new DirectRabbitListenerContainerFactoryConfigurer(
+        properties);
+    DirectRabbitListenerContainerFactory factory = new DirectRabbitListenerContainerFactory();
+    configurer.configure(factory, connectionFactory);
+    // direct容器按队列扩展消费者，concurrency对应consumers-per-queue
+    if (spec.concurrency() != null) {
+      factory.setConsumersPerQueue(spec.concurrency());
+    }
+    if (spec.prefetch() != null) {
+      factory.setPrefetchCount(spec.prefetch());
+    }
+    DirectMessageListenerContainer container = factory.createListenerContainer();
+
+    Set<String> queueNames = consumerMetas.stream().map(ConsumerMeta::getQueueName)
+        .collect(Collectors.toSet());
+
+    // 监听器直接运行在客户端的分发线程上
+    container.setMessageListener(new MessageListenerAdapter(receiver));
+    container.setQueueNames(queueNames.toArray(new String[0]));
+    container.setAcknowledgeMode(AcknowledgeMode.MANUAL);
+    container.setDeBatchingEnabled(false);
+    if (spec.execution() == ExecutionMode.VIRTUAL || spec.maxConcurrency() != null) {
+      log.warn("direct container of queue(s) {} runs on the client dispatch threads, "
+          + "execution and maxConcurrency are ignored", queueNames);
+    }
+
+    log.info("init direct message listener for queue(s) {} -> {} with {}", queueNames,
+        datasource, spec);
+    return container;
+  }
+
+  public SimpleMessageListenerContainer batchMessageListenerContainer(String datasource,
+      RabbitProperties properties, ConnectionFactory connectionFactory, Receiver receiver,
+      ContainerSpec spec, List<ConsumerMeta> consumerMetas) {
+
+    SimpleRabbitListenerContainerFactoryConfigurer configurer = new SimpleRabbitListenerContainerFactoryConfigurer(
+        properties);
+    SimpleRabbitListenerContainerFactory factory = new SimpleRabbitListenerContainerFactory();
+    configurer.configure(factory, connectionFactory);
+    applySpec(factory, properties, spec);
+    SimpleMessageListenerContainer container = factory.createListenerContainer();
+
+    Set<String> queueNames = consumerMetas.stream().map(ConsumerMeta::getQueueName)
+        .collect(Collectors.toSet());
+
+    // 批量监听器不经过MessageListenerAdapter，直接交给Receiver处理整批消息
+    container.setMessageListener(receiver);
+    container.setQueueNames(queueNames.toArray(new String[0]));
+    container.setAcknowledgeMode(AcknowledgeMode.MANUAL);
+    container.setConsumerBatchEnabled(true);
+    container.setBatchSize(spec.batchSize());
+    container.setReceiveTimeout(spec.batchWait());
+    // 批量容器会在交付前拆分打包消息，需要先解压
+    container.setAfterReceivePostProcessors(Compressions::decompress);
+    applyExecution(container, datasource, spec);
 
-    log.info("init message listener for queue(s) {} -> {}", queueNames, datasource);
+    log.info("init batch message listener for queue(s) {} -> {} with {}", queueNames,
+        datasource, spec);
     return container;
   }
+
+  private void applySpec(SimpleRabbitListenerContainerFactory factory,
+      RabbitProperties properties, ContainerSpec spec) {
+    // 在工厂上覆盖listener.simple配置，由createListenerContainer按顺序设置到新容器上
+    Integer maxConcurrency = spec.maxConcurrency();
+    if (maxConcurrency == null && spec.concurrency() != null) {
+      // 只配置了concurrency时，全局max-concurrency小于它会导致容器启动失败
+      Integer configured = properties.getListener().getSimple().getMaxConcurrency();
+      if (configured != null && configured < spec.concurrency()) {
+        maxConcurrency = spec.concurrency();
+      }
+    }
+    if (maxConcurrency != null) {
+      factory.setMaxConcurrentConsumers(maxConcurrency);
+    }
+    if (spec.concurrency() != null) {
+      factory.setConcurrentConsumers(spec.concurrency());
+    }
+    if (spec.prefetch() != null) {
+      factory.setPrefetchCount(spec.prefetch());
+    }
+  }
+
+  private void applyExecution(SimpleMessageListenerContainer container, String datasource,
+      ContainerSpec spec) {
+    if (spec.execution() != ExecutionMode.VIRTUAL) {
+      return;
+    }
+    // 每个消费者独占一个线程阻塞等待投递，换成虚拟线程后并发数不再受平台线程数限制
+    SimpleAsyncTaskExecutor executor = new SimpleAsyncTaskExecutor(
+        String.format("easy-rabbit-%s-", datasource));
+    executor.setVirtualThreads(true);
+    container.setTaskExecutor(executor);
+  }
+
+  private ContainerType resolveContainer(String value, ContainerType defaultValue) {
+    String resolved = environment.resolvePlaceholders(value);
+    if (resolved.isEmpty()) {
+      return defaultValue;
+    }
+    return ContainerType.valueOf(resolved.trim().toUpperCase());
+  }
+
+  private int prefetch(RabbitProperties properties, ContainerType container, Integer prefetch) {
+    if (prefetch != null) {
+      return prefetch;
+    }
+    Integer configured = null;
+    if (properties != null) {
+      configured = container == ContainerType.DIRECT
+          ? properties.getListener().getDirect().getPrefetch()
+          : properties.getListener().getSimple().getPrefetch();
+    }
+    if (configured == null) {
+      return AbstractMessageListenerContainer.DEFAULT_PREFETCH_COUNT;
+    }
+    return configured;
+  }
+
+  private Integer resolveInteger(String value) {
+    String resolved = environment.resolvePlaceholders(value);
+    if (resolved.isEmpty()) {
+      return null;
+    }
+    return Integer.valueOf(resolved);
+  }
+
+  private int resolveInt(String value, int defaultValue) {
+    String resolved = environment.resolvePlaceholders(value);
+    if (resolved.isEmpty()) {
+      return defaultValue;
+    }
+    return Integer.parseInt(resolved);
+  }
+
+  private long resolveLong(String value, long defaultValue) {
+    String resolved = environment.resolvePlaceholders(value);
+    if (resolved.isEmpty()) {
+      return defaultValue;
+    }
+    return Long.parseLong(resolved);
+  }
 }
@@ -22,6 +22,8 @@ import org.springframework.amqp.rabbit.connection.ConnectionFactory;
 import org.springframework.amqp.rabbit.core.RabbitMessagingTemplate;
 import org.springframework.amqp.rabbit.core.RabbitTemplate;
 import vip.justlive.rabbit.converter.CustomMessageConverter;
+import vip.justlive.rabbit.producer.PublishWindow;
+import vip.justlive.rabbit.producer.Spool;
 
 /**
  * rabbit相关信息
@@ -38,6 +40,14 @@ public class RabbitMeta {
   private RabbitTemplate rabbitTemplate;
   private AmqpAdmin rabbitAdmin;
   private RabbitMessagingTemplate rabbitMessagingTemplate;
+  /**
+   * sendAsync未确认消息数上限
+   */
+  private PublishWindow publishWindow;
+  /**
+   * 本地spool，未开启时为null
+   */
+  private Spool spool;
 
   public static void regist(String source, RabbitMeta meta) {
     METAS.put(source, meta);
@@ -68,6 +68,27 @@ public @interface Rqueue {
    */
   String messageConverter() default "";
 
+  /**
+   * 消息编解码器名称，如json、cbor、smile，默认使用全局配置，设置messageConverter时不生效
+   *
+   * @return codec
+   */
+  String codec() default "";
+
+  /**
+   * 生产端压缩算法，如gzip、deflate，none为不压缩，默认使用全局配置
+   *
+   * @return compression
+   */
+  String compression() default "";
+
+  /**
+   * 生产端压缩阈值(byte)，消息体不小于该值时才压缩，默认使用全局配置
+   *
+   * @return compressThreshold
+   */
+  String compressThreshold() default "";
+
   /**
    * 消息处理分组
    *
@@ -76,11 +97,145 @@ public @interface Rqueue {
   String group() default "";
 
   /**
-   * 数据源，默认使用primary数据源
+   * 数据源，默认使用primary数据源；生产端可以逗号分隔配置多个，按sharding分片发送
    *
    * @return datasource
    */
   String datasource() default EasyRabbitProperties.PRIMARY;
 
+  /**
+   * 生产端多数据源的分片策略，round-robin、hash或least-outstanding，默认round-robin
+   *
+   * @return sharding
+   */
+  String sharding() default "";
+
+  /**
+   * hash分片key所在的消息头
+   *
+   * @return shardHeader
+   */
+  String shardHeader() default "";
+
+  /**
+   * hash分片key所在的消息体字段，shardHeader为空时生效
+   *
+   * @return shardField
+   */
+  String shardField() default "";
+
+  /**
+   * 批量消费每批最大条数，仅对BatchConsumer生效，默认使用全局配置
+   *
+   * @return batchSize
+   */
+  String batchSize() default "";
+
+  /**
+   * 批量消费等待下一条消息的最长时间(ms)，超时则提交当前批次，默认使用全局配置
+   *
+   * @return batchWait
+   */
+  String batchWait() default "";
+
+  /**
+   * 消费线程模式，platform或virtual，默认使用全局配置
+   *
+   * @return execution
+   */
+  String execution() default "";
+
+  /**
+   * 监听容器类型，simple或direct，默认使用全局配置
+   *
+   * @return container
+   */
+  String container() default "";
+
+  /**
+   * 消费者数量，direct容器为每个队列的消费者数量，默认使用listener配置
+   *
+   * @return concurrency
+   */
+  String concurrency() default "";
+
+  /**
+   * 最大消费者数量，不小于concurrency，仅simple容器生效，默认使用listener配置
+   *
+   * @return maxConcurrency
+   */
+  String maxConcurrency() default "";
+
+  /**
+   * 每个消费者的预取数量，默认使用listener配置
+   *
+   * @return prefetch
+   */
+  String prefetch() default "";
+
+  /**
+   * 异步消费时每个channel未完成的最大消息数，对AsyncConsumer和分区消费生效，0为与prefetch一致，默认使用全局配置
+   *
+   * @return window
+   */
+  String window() default "";
+
+  /**
+   * 分区通道数，大于0时按partitionHeader或partitionField的值分配到串行通道，相同key保证顺序，仅对Consumer生效
+   * <p>
+   * 分区消费固定使用单个消费者；nack重新入队的消息回到队列后再投递，会排在同一key的后续消息之后
+   *
+   * @return partitions
+   */
+  String partitions() default "";
+
+  /**
+   * 分区key所在的消息头
+   *
+   * @return partitionHeader
+   */
+  String partitionHeader() default "";
+
+  /**
+   * 分区key所在的消息体字段，partitionHeader为空时生效
+   *
+   * @return partitionField
+   */
+  String partitionField() default "";
+
+  /**
+   * 失败后延迟重试次数，用尽后进入停车队列，0为不重试，默认使用全局配置
+   *
+   * @return retries
+   */
+  String retries() default "";
+
+  /**
+   * 每次重试的延迟(ms)，逗号分隔，如1000,10000,60000，次数超过级数时使用最后一级，默认使用全局配置
+   *
+   * @return retryDelays
+   */
+  String retryDelays() default "";
+
+  /**
+   * 停车队列名称，默认为 queue.parking
+   *
+   * @return parkingLot
+   */
+  String parkingLot() default "";
+
+  /**
+   * 限流(每秒消息数)，超过时在消费线程上等待，消息留在broker中，默认不限流
+   *
+   * @return rateLimit
+   */
+  String rateLimit() default "";
+
+  /**
+   * 是否过滤已成功处理过的重复消息，true或false，默认使用全局配置
+   *
+   * @return dedup
+   */
+  String dedup() default "";
 
 }
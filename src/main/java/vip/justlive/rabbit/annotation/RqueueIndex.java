@@ -0,0 +1,170 @@
+/*
+ * Copyright (C) 2024 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package vip.justlive.rabbit.annotation;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.core.annotation.MergedAnnotation;
+import org.springframework.core.io.Resource;
+import org.springframework.core.io.support.ResourcePatternResolver;
+import org.springframework.util.ClassUtils;
+
+/**
+ * 编译期生成的{@link Rqueue}索引，由{@link RqueueIndexProcessor}生成
+ * <p>
+ * 文件格式为properties，类名对应类型，类名#属性名对应注解上显式配置的属性值，占位符在启动时解析
+ *
+ * @author wubo
+ */
+@Slf4j
+public final class RqueueIndex {
+
+  public static final String LOCATION = "META-INF/easy-rabbit/rqueue.index";
+  public static final String SEPARATOR = "#";
+  public static final String PRODUCER = "producer";
+  public static final String CONSUMER = "consumer";
+  public static final String BATCH = "batch";
+  public static final String ASYNC = "async";
+
+  private final Map<String, String> kinds;
+  private final Map<String, Map<String, Object>> attributes;
+  /**
+   * 包含索引文件的类路径根
+   */
+  private final Set<String> roots;
+
+  private RqueueIndex(Map<String, String> kinds, Map<String, Map<String, Object>> attributes,
+      Set<String> roots) {
+    this.kinds = kinds;
+    this.attributes = attributes;
+    this.roots = roots;
+  }
+
+  /**
+   * 加载类路径上所有的索引文件
+   *
+   * @param classLoader 类加载器
+   * @return 没有索引文件时返回null
+   */
+  public static RqueueIndex load(ClassLoader classLoader) {
+    ClassLoader loader = classLoader == null ? RqueueIndex.class.getClassLoader() : classLoader;
+    Map<String, String> kinds = new HashMap<>(16);
+    Map<String, Map<String, Object>> attributes = new HashMap<>(16);
+    Set<String> roots = new HashSet<>(4);
+    try {
+      Enumeration<URL> urls = loader.getResources(LOCATION);
+      while (urls.hasMoreElements()) {
+        URL url = urls.nextElement();
+        String location = url.toString();
+        roots.add(location.substring(0, location.length() - LOCATION.length()));
+        Properties properties = new Properties();
+        try (InputStream in = url.openStream()) {
+          properties.load(in);
+        }
+        for (String key : properties.stringPropertyNames()) {
+          int idx = key.indexOf(SEPARATOR);
+          if (idx < 0) {
+            kinds.put(key, properties.getProperty(key));
+          } else {
+            attributes.computeIfAbsent(key.substring(0, idx), k -> new HashMap<>(8))
+                .put(key.substring(idx + 1), properties.getProperty(key));
+          }
+        }
+      }
+    } catch (IOException e) {
+      log.warn("load {} failed, fallback to classpath scanning", LOCATION, e);
+      return null;
+    }
+    if (roots.isEmpty()) {
+      return null;
+    }
+    log.info("loaded @Rqueue index with [{}] types", kinds.size());
+    return new RqueueIndex(kinds, attributes, roots);
+  }
+
+  /**
+   * 包下的生产者接口
+   *
+   * @param basePackage 包名
+   * @return 生产者类名
+   */
+  public List<String> producers(String basePackage) {
+    String prefix = basePackage + ".";
+    List<String> list = new ArrayList<>();
+    for (Map.Entry<String, String> entry : kinds.entrySet()) {
+      if (PRODUCER.equals(entry.getValue()) && entry.getKey().startsWith(prefix)) {
+        list.add(entry.getKey());
+      }
+    }
+    list.sort(null);
+    return list;
+  }
+
+  /**
+   * 包下的类是否都来自带索引的类路径根，有未生成索引的模块时需要扫描整个包
+   *
+   * @param resolver    资源解析
+   * @param basePackage 包名
+   * @return true为索引完整覆盖该包
+   */
+  public boolean covers(ResourcePatternResolver resolver, String basePackage) {
+    String path = ClassUtils.convertClassNameToResourcePath(basePackage);
+    try {
+      for (Resource resource : resolver.getResources(
+          ResourcePatternResolver.CLASSPATH_ALL_URL_PREFIX + path + "/**/*.class")) {
+        if (!roots.contains(root(resource.getURL().toString(), path))) {
+          return false;
+        }
+      }
+    } catch (IOException e) {
+      log.warn("list classes of [{}] failed, fallback to classpath scanning", basePackage, e);
+      return false;
+    }
+    return true;
+  }
+
+  private static String root(String url, String path) {
+    int idx = url.lastIndexOf("!/");
+    if (idx >= 0) {
+      return url.substring(0, idx + 2);
+    }
+    idx = url.lastIndexOf("/" + path + "/");
+    return idx < 0 ? url : url.substring(0, idx + 1);
+  }
+
+  /**
+   * 获取类上的注解，属性来自索引，未配置的属性使用默认值
+   *
+   * @param className 类名
+   * @return 不在索引中时返回null
+   */
+  public Rqueue lookup(String className) {
+    if (!kinds.containsKey(className)) {
+      return null;
+    }
+    return MergedAnnotation.of(Rqueue.class,
+        attributes.getOrDefault(className, Map.of())).synthesize();
+  }
+}
@@ -0,0 +1,186 @@
+/*
+ * Copyright (C) 2024 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package vip.justlive.rabbit.annotation;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+import javax.annotation.processing.AbstractProcessor;
+import javax.annotation.processing.RoundEnvironment;
+import javax.lang.model.SourceVersion;
+import javax.lang.model.element.AnnotationMirror;
+import javax.lang.model.element.AnnotationValue;
+import javax.lang.model.element.Element;
+import javax.lang.model.element.ElementKind;
+import javax.lang.model.element.ExecutableElement;
+import javax.lang.model.element.TypeElement;
+import javax.lang.model.type.TypeMirror;
+import javax.tools.Diagnostic;
+import javax.tools.FileObject;
+import javax.tools.StandardLocation;
+
+/**
+ * 编译期生成{@link Rqueue}索引，启动时读取索引代替类路径扫描和Class.forName
+ * <p>
+ * 引入easy-rabbitmq后在类路径上自动生效，配置了annotationProcessorPaths时需要加入easy-rabbitmq
+ *
+ * @author wubo
+ */
+public class RqueueIndexProcessor extends AbstractProcessor {
+
+  private static final String RQUEUE = "vip.justlive.rabbit.annotation.Rqueue";
+  private static final String PRODUCER = "vip.justlive.rabbit.producer.BaseProducer";
+  private static final String BATCH = "vip.justlive.rabbit.consumer.BatchConsumer";
+  private static final String ASYNC = "vip.justlive.rabbit.consumer.AsyncConsumer";
+  private static final String CONSUMER = "vip.justlive.rabbit.consumer.Consumer";
+
+  private final Properties index = new Properties();
+  private boolean loaded;
+  /**
+   * 已有的索引文件非空，全部类都移除注解后也需要重写
+   */
+  private boolean existed;
+
+  @Override
+  public Set<String> getSupportedAnnotationTypes() {
+    // 只移除了注解的增量编译中没有@Rqueue，只声明Rqueue时处理器不会被调用，无法移除过期条目
+    return Set.of("*");
+  }
+
+  @Override
+  public SourceVersion getSupportedSourceVersion() {
+    return SourceVersion.latestSupported();
+  }
+
+  @Override
+  public boolean process(Set<? extends TypeElement> annotations, RoundEnvironment roundEnv) {
+    if (!loaded) {
+      loaded = true;
+      loadExisting();
+    }
+    TypeElement rqueue = processingEnv.getElementUtils().getTypeElement(RQUEUE);
+    if (rqueue != null) {
+      for (Element element : roundEnv.getElementsAnnotatedWith(rqueue)) {
+        if (element instanceof TypeElement type) {
+          add(type, rqueue);
+        }
+      }
+    }
+    if (roundEnv.processingOver() && (existed || !index.isEmpty())) {
+      write();
+    }
+    return false;
+  }
+
+  private void add(TypeElement type, TypeElement rqueue) {
+    String kind = kind(type);
+    String className = processingEnv.getElementUtils().getBinaryName(type).toString();
+    if (kind == null) {
+      processingEnv.getMessager().printMessage(Diagnostic.Kind.WARNING,
+          "@Rqueue type is neither a BaseProducer interface nor a consumer class", type);
+      return;
+    }
+    index.keySet().removeIf(key -> key.toString().startsWith(className + RqueueIndex.SEPARATOR));
+    index.setProperty(className, kind);
+    for (AnnotationMirror mirror : type.getAnnotationMirrors()) {
+      if (!mirror.getAnnotationType().asElement().equals(rqueue)) {
+        continue;
+      }
+      for (Map.Entry<? extends ExecutableElement, ? extends AnnotationValue> entry
+          : mirror.getElementValues().entrySet()) {
+        index.setProperty(className + RqueueIndex.SEPARATOR + entry.getKey().getSimpleName(),
+            String.valueOf(entry.getValue().getValue()));
+      }
+    }
+  }
+
+  private String kind(TypeElement type) {
+    if (type.getKind() == ElementKind.INTERFACE) {
+      return isA(type, PRODUCER) ? RqueueIndex.PRODUCER : null;
+    }
+    if (type.getKind() != ElementKind.CLASS) {
+      return null;
+    }
+    if (isA(type, BATCH)) {
+      return RqueueIndex.BATCH;
+    }
+    if (isA(type, ASYNC)) {
+      return RqueueIndex.ASYNC;
+    }
+    return isA(type, CONSUMER) ? RqueueIndex.CONSUMER : null;
+  }
+
+  private boolean isA(TypeElement type, String superType) {
+    TypeElement element = processingEnv.getElementUtils().getTypeElement(superType);
+    if (element == null) {
+      return false;
+    }
+    TypeMirror erasure = processingEnv.getTypeUtils().erasure(element.asType());
+    return processingEnv.getTypeUtils()
+        .isAssignable(processingEnv.getTypeUtils().erasure(type.asType()), erasure);
+  }
+
+  /**
+   * 增量编译时只处理变化的源文件，保留上次索引中仍然存在且仍带有注解的类
+   */
+  private void loadExisting() {
+    Properties existing = new Properties();
+    try {
+      FileObject file = processingEnv.getFiler()
+          .getResource(StandardLocation.CLASS_OUTPUT, "", RqueueIndex.LOCATION);
+      try (InputStream in = file.openInputStream()) {
+        existing.load(in);
+      }
+    } catch (IOException | IllegalArgumentException e) {
+      return;
+    }
+    existed = !existing.isEmpty();
+    TypeElement rqueue = processingEnv.getElementUtils().getTypeElement(RQUEUE);
+    for (String key : existing.stringPropertyNames()) {
+      int idx = key.indexOf(RqueueIndex.SEPARATOR);
+      String className = idx < 0 ? key : key.substring(0, idx);
+      TypeElement type = processingEnv.getElementUtils()
+          .getTypeElement(className.replace('$', '.'));
+      if (type != null && annotated(type, rqueue)) {
+        index.setProperty(key, existing.getProperty(key));
+      }
+    }
+  }
+
+  private boolean annotated(TypeElement type, TypeElement rqueue) {
+    for (AnnotationMirror mirror : type.getAnnotationMirrors()) {
+      if (mirror.getAnnotationType().asElement().equals(rqueue)) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  private void write() {
+    try {
+      FileObject file = processingEnv.getFiler()
+          .createResource(StandardLocation.CLASS_OUTPUT, "", RqueueIndex.LOCATION);
+      try (OutputStream out = file.openOutputStream()) {
+        index.store(out, "generated by " + getClass().getName());
+      }
+    } catch (IOException e) {
+      processingEnv.getMessager().printMessage(Diagnostic.Kind.WARNING,
+          "unable to write " + RqueueIndex.LOCATION + ": " + e.getMessage());
+    }
+  }
+}
@@ -0,0 +1,37 @@
+/*
+ * Copyright (C) 2024 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package vip.justlive.rabbit.consumer;
+
+import java.util.concurrent.CompletionStage;
+
+/**
+ * 异步消息处理器
+ * <p>
+ * 返回的stage完成后才确认消息，同一channel上未完成的消息数受window限制
+ *
+ * @param <T> 泛型
+ * @author wubo
+ */
+@FunctionalInterface
+public interface AsyncConsumer<T> {
+
+  /**
+   * 异步处理
+   *
+   * @param msg 消息
+   * @return 处理结果，异常完成时nack
+   */
+  CompletionStage<Void> accept(T msg);
+}
@@ -0,0 +1,120 @@
+/*
+ * Copyright (C) 2024 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package vip.justlive.rabbit.consumer;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.amqp.rabbit.listener.AbstractMessageListenerContainer;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.context.SmartLifecycle;
+
+/**
+ * 背压监控
+ * <p>
+ * 定时检查BackpressureSignal，饱和时停止容器，消息留在broker中；恢复后只重新启动由本监控暂停的容器
+ *
+ * @author wubo
+ */
+@Slf4j
+public class BackpressureMonitor implements SmartLifecycle {
+
+  private final ObjectProvider<BackpressureSignal> signals;
+  private final long interval;
+  private final List<Target> targets = new ArrayList<>();
+
+  private ScheduledExecutorService scheduler;
+  private volatile boolean running;
+
+  public BackpressureMonitor(ObjectProvider<BackpressureSignal> signals, long interval) {
+    this.signals = signals;
+    this.interval = interval;
+  }
+
+  /**
+   * 添加受控容器
+   *
+   * @param container  容器
+   * @param datasource 数据源
+   * @param group      消息处理分组
+   */
+  public void add(AbstractMessageListenerContainer container, String datasource, String group) {
+    targets.add(new Target(container, datasource, group));
+  }
+
+  @Override
+  public void start() {
+    if (targets.isEmpty() || signals.stream().findAny().isEmpty()) {
+      return;
+    }
+    scheduler = Executors.newSingleThreadScheduledExecutor(
+        Thread.ofPlatform().name("easy-rabbit-backpressure").daemon(true).factory());
+    scheduler.scheduleWithFixedDelay(this::check, interval, interval, TimeUnit.MILLISECONDS);
+    running = true;
+  }
+
+  @Override
+  public void stop() {
+    running = false;
+    if (scheduler != null) {
+      scheduler.shutdownNow();
+      scheduler = null;
+    }
+  }
+
+  @Override
+  public boolean isRunning() {
+    return running;
+  }
+
+  private void check() {
+    for (Target target : targets) {
+      try {
+        boolean saturated = signals.stream()
+            .anyMatch(s -> s.isSaturated(target.datasource, target.group));
+        if (saturated && !target.paused && target.container.isRunning()) {
+          log.warn("[{}][{}] is saturated, pause listener container {}", target.datasource,
+              target.group, target.container.getListenerId());
+          target.paused = true;
+          target.container.stop();
+        } else if (!saturated && target.paused) {
+          log.info("[{}][{}] recovered, resume listener container {}", target.datasource,
+              target.group, target.container.getListenerId());
+          target.paused = false;
+          target.container.start();
+        }
+      } catch (Exception e) {
+        log.error("check backpressure of [{}][{}] error", target.datasource, target.group, e);
+      }
+    }
+  }
+
+  private static class Target {
+
+    private final AbstractMessageListenerContainer container;
+    private final String datasource;
+    private final String group;
+    private boolean paused;
+
+    Target(AbstractMessageListenerContainer container, String datasource, String group) {
+      this.container = container;
+      this.datasource = datasource;
+      this.group = group;
+    }
+  }
+}
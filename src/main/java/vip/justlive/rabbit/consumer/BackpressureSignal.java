@@ -0,0 +1,33 @@
+/*
+ * Copyright (C) 2024 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package vip.justlive.rabbit.consumer;
+
+/**
+ * 背压信号，由使用方提供，报告下游饱和时暂停对应的监听容器
+ *
+ * @author wubo
+ */
+@FunctionalInterface
+public interface BackpressureSignal {
+
+  /**
+   * 下游是否饱和
+   *
+   * @param datasource 数据源
+   * @param group      消息处理分组
+   * @return true时暂停该分组的容器，恢复为false后重新启动
+   */
+  boolean isSaturated(String datasource, String group);
+}
@@ -0,0 +1,36 @@
+/*
+ * Copyright (C) 2024 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package vip.justlive.rabbit.consumer;
+
+import java.util.List;
+
+/**
+ * 批量消息处理器
+ * <p>
+ * 一次拉取的消息按批交付，整批处理成功后只ack一次
+ *
+ * @param <T> 泛型
+ * @author wubo
+ */
+@FunctionalInterface
+public interface BatchConsumer<T> {
+
+  /**
+   * 批量处理
+   *
+   * @param msgs 消息列表
+   */
+  void accept(List<T> msgs);
+}
@@ -15,12 +15,22 @@
 package vip.justlive.rabbit.consumer;
 
 import lombok.Getter;
+import org.springframework.amqp.core.MessageProperties;
+import org.springframework.amqp.support.converter.MessageConverter;
+import org.springframework.util.ClassUtils;
+import vip.justlive.rabbit.converter.Codecs;
+import vip.justlive.rabbit.converter.ConversionPlan;
+import vip.justlive.rabbit.metrics.ConsumerMetrics;
+import vip.justlive.rabbit.metrics.RabbitMetrics;
 import vip.justlive.rabbit.producer.QueueProperties;
 
-import java.lang.reflect.ParameterizedType;
 import java.lang.reflect.Type;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CompletionStage;
 
 /**
  * consumer定义类
@@ -30,17 +40,80 @@ import java.util.Map;
 @Getter
 public class ConsumerDef implements Consumer<Object> {
   
-  private static final Map<String, ConsumerDef> CONSUMERS = new HashMap<>(4);
+  /**
+   * 注册阶段使用的可变索引 queue -> exchange -> routing
+   */
+  private static final Map<String, Map<String, Map<String, ConsumerDef>>> PENDING =
+      new HashMap<>(4);
+  /**
+   * 冻结后的只读索引，通过volatile安全发布给消费线程
+   */
+  private static volatile Map<String, Map<String, Map<String, ConsumerDef>>> index =
+      Collections.emptyMap();
   
   private final QueueProperties queueProperties;
   private final Consumer<Object> delegate;
+  private final BatchConsumer<Object> batchDelegate;
+  private final AsyncConsumer<Object> asyncDelegate;
+  private final ConversionPlan plan;
+  /**
+   * 异步消费时每个channel允许未确认的最大消息数
+   */
+  private final int window;
+  /**
+   * 分区串行执行，为null时在消费线程上直接处理
+   */
+  private final Partitioner partitioner;
+  /**
+   * 延迟重试策略，为null时按nackRequeue处理失败消息
+   */
+  private final RetryPolicy retry;
   
-  private Type type;
+  /**
+   * 限流，自身和分组共享的令牌桶，未配置时为空数组
+   */
+  private final RateLimiter[] limiters;
+  /**
+   * 是否过滤重复消息
+   */
+  private final boolean dedup;
+  /**
+   * 预先创建的指标
+   */
+  private final ConsumerMetrics metrics;
   
   @SuppressWarnings("unchecked")
-  private ConsumerDef(QueueProperties queueProperties, Consumer<?> delegate) {
-    this.queueProperties = queueProperties;
+  private ConsumerDef(ConsumerMeta meta, MessageConverter converter, RabbitMetrics metrics,
+                      Consumer<?> delegate, BatchConsumer<?> batchDelegate,
+                      AsyncConsumer<?> asyncDelegate) {
+    this.queueProperties = queueProperties(meta);
     this.delegate = (Consumer<Object>) delegate;
+    this.batchDelegate = (BatchConsumer<Object>) batchDelegate;
+    this.asyncDelegate = (AsyncConsumer<Object>) asyncDelegate;
+    this.window = meta.getWindow();
+    this.retry = retry(meta);
+    this.limiters = limiters(meta);
+    this.dedup = meta.isDedup();
+    this.metrics = metrics.consumer(meta.getDatasource(), meta.getGroup(), meta.getQueueName(),
+        meta.getExchangeName());
+    Type type;
+    if (batchDelegate != null) {
+      type = ConversionPlan.resolveType(ClassUtils.getUserClass(batchDelegate),
+          BatchConsumer.class);
+    } else if (asyncDelegate != null) {
+      type = ConversionPlan.resolveType(ClassUtils.getUserClass(asyncDelegate),
+          AsyncConsumer.class);
+    } else {
+      type = ConversionPlan.resolveType(ClassUtils.getUserClass(delegate), Consumer.class);
+    }
+    this.plan = ConversionPlan.of(converter, Codecs.lookup(meta.getCodec()), type);
+    if (delegate != null && meta.getPartitions() > 0) {
+      this.partitioner = new Partitioner(meta.getQueueName(), meta.getPartitions(),
+          meta.getPartitionHeader(), meta.getPartitionField(),
+          meta.getExecution() == ExecutionMode.VIRTUAL);
+    } else {
+      this.partitioner = null;
+    }
   }
   
   @Override
@@ -48,34 +121,151 @@ public class ConsumerDef implements Consumer<Object> {
     this.delegate.accept(msg);
   }
   
+  public void acceptBatch(List<Object> msgs) {
+    this.batchDelegate.accept(msgs);
+  }
+  
+  public CompletionStage<Void> acceptAsync(Object msg) {
+    return this.asyncDelegate.accept(msg);
+  }
+  
+  public boolean isBatch() {
+    return batchDelegate != null;
+  }
+  
+  public boolean isAsync() {
+    return asyncDelegate != null;
+  }
+  
+  public boolean isPartitioned() {
+    return partitioner != null;
+  }
+  
+  /**
+   * 获取令牌，超过限流速率时在当前线程等待
+   *
+   * @param permits 消息条数
+   */
+  public void acquire(int permits) {
+    for (RateLimiter limiter : limiters) {
+      limiter.acquire(permits);
+    }
+  }
+  
   public Type getType() {
-    if (type != null) {
-      return type;
+    return plan.type();
+  }
+  
+  public static void register(ConsumerMeta meta, MessageConverter converter,
+                              RabbitMetrics metrics, Consumer<?> delegate) {
+    put(new ConsumerDef(meta, converter, metrics, delegate, null, null));
+  }
+  
+  public static void register(ConsumerMeta meta, MessageConverter converter,
+                              RabbitMetrics metrics, BatchConsumer<?> delegate) {
+    put(new ConsumerDef(meta, converter, metrics, null, delegate, null));
+  }
+  
+  public static void register(ConsumerMeta meta, MessageConverter converter,
+                              RabbitMetrics metrics, AsyncConsumer<?> delegate) {
+    put(new ConsumerDef(meta, converter, metrics, null, null, delegate));
+  }
+  
+  /**
+   * 创建重试策略
+   *
+   * @param meta 消费者元信息
+   * @return 未开启重试时为null
+   */
+  public static RetryPolicy retry(ConsumerMeta meta) {
+    if (meta.getRetries() <= 0) {
+      return null;
     }
-    Type[] types = delegate.getClass().getGenericInterfaces();
-    for (Type t : types) {
-      if (t instanceof ParameterizedType) {
-        ParameterizedType tt = (ParameterizedType) t;
-        if (tt.getRawType() == Consumer.class) {
-          type = tt.getActualTypeArguments()[0];
-          break;
-        }
+    return new RetryPolicy(meta.getQueueName(), meta.getRetries(), meta.getRetryDelays(),
+        meta.getParkingLot());
+  }
+  
+  private static RateLimiter[] limiters(ConsumerMeta meta) {
+    List<RateLimiter> list = new ArrayList<>(2);
+    if (meta.getRateLimit() > 0) {
+      list.add(new RateLimiter(meta.getRateLimit()));
+    }
+    if (meta.getGroupRateLimit() > 0) {
+      list.add(RateLimiter.group(meta.getDatasource(), meta.getGroup(),
+          meta.getGroupRateLimit()));
+    }
+    return list.toArray(new RateLimiter[0]);
+  }
+  
+  private static QueueProperties queueProperties(ConsumerMeta meta) {
+    return new QueueProperties(meta.getQueueName(), meta.getExchangeName(), meta.getRouting(),
+        meta.getMessageConverter());
+  }
+  
+  private static synchronized void put(ConsumerDef def) {
+    QueueProperties queueProperties = def.queueProperties;
+    PENDING.computeIfAbsent(queueProperties.queue(), k -> new HashMap<>(4))
+        .computeIfAbsent(queueProperties.exchange(), k -> new HashMap<>(4))
+        .put(queueProperties.routing(), def);
+  }
+  
+  /**
+   * 冻结路由索引，注册完成后调用，之后的lookup只读取不可变的快照
+   */
+  public static synchronized void freeze() {
+    Map<String, Map<String, Map<String, ConsumerDef>>> queues = new HashMap<>(PENDING.size());
+    for (Map.Entry<String, Map<String, Map<String, ConsumerDef>>> entry : PENDING.entrySet()) {
+      Map<String, Map<String, ConsumerDef>> exchanges = new HashMap<>(entry.getValue().size());
+      for (Map.Entry<String, Map<String, ConsumerDef>> entry2 : entry.getValue().entrySet()) {
+        exchanges.put(entry2.getKey(),
+            Collections.unmodifiableMap(new HashMap<>(entry2.getValue())));
       }
+      queues.put(entry.getKey(), Collections.unmodifiableMap(exchanges));
     }
-    return type;
+    index = Collections.unmodifiableMap(queues);
   }
   
-  public static void register(String queue, String exchange, String routing, String messageConverter,
-                              Consumer<?> delegate) {
-    QueueProperties queueProperties = new QueueProperties(queue, exchange, routing, messageConverter);
-    CONSUMERS.put(key(queue, exchange, routing), new ConsumerDef(queueProperties, delegate));
+  /**
+   * 关闭所有分区通道，清除分组限流器
+   */
+  public static synchronized void shutdown() {
+    RateLimiter.clearGroups();
+    for (Map<String, Map<String, ConsumerDef>> exchanges : PENDING.values()) {
+      for (Map<String, ConsumerDef> routings : exchanges.values()) {
+        for (ConsumerDef def : routings.values()) {
+          if (def.partitioner != null) {
+            def.partitioner.shutdown();
+          }
+        }
+      }
+    }
   }
   
-  public static ConsumerDef lookup(String queue, String exchange, String routing) {
-    return CONSUMERS.get(key(queue, exchange, routing));
+  /**
+   * 根据消息属性查找，重试消息经死信回到原队列后使用记录的原始路由
+   *
+   * @param props 消息属性
+   * @return consumer
+   */
+  public static ConsumerDef lookup(MessageProperties props) {
+    Object exchange = props.getHeader(RetryPolicy.EXCHANGE);
+    if (exchange != null) {
+      return lookup(props.getConsumerQueue(), exchange.toString(),
+          String.valueOf(props.<Object>getHeader(RetryPolicy.ROUTING)));
+    }
+    return lookup(props.getConsumerQueue(), props.getReceivedExchange(),
+        props.getReceivedRoutingKey());
   }
   
-  private static String key(String queue, String exchange, String routing) {
-    return String.join("|", queue, exchange, routing);
+  public static ConsumerDef lookup(String queue, String exchange, String routing) {
+    Map<String, Map<String, ConsumerDef>> exchanges = index.get(queue);
+    if (exchanges == null) {
+      return null;
+    }
+    Map<String, ConsumerDef> routings = exchanges.get(exchange);
+    if (routings == null) {
+      return null;
+    }
+    return routings.get(routing);
   }
 }
@@ -15,18 +15,19 @@
 package vip.justlive.rabbit.consumer;
 
 import jakarta.annotation.PostConstruct;
-import java.util.HashSet;
+import jakarta.annotation.PreDestroy;
 import java.util.List;
-import java.util.Set;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
-import org.springframework.amqp.core.AmqpAdmin;
-import org.springframework.amqp.core.BindingBuilder;
-import org.springframework.amqp.core.Exchange;
-import org.springframework.amqp.core.ExchangeBuilder;
-import org.springframework.amqp.core.Queue;
+import org.springframework.amqp.support.converter.MessageConverter;
+import org.springframework.beans.factory.BeanFactory;
+import org.springframework.beans.factory.BeanFactoryAware;
+import org.springframework.boot.context.properties.bind.Binder;
+import org.springframework.context.EnvironmentAware;
+import org.springframework.core.env.Environment;
 import org.springframework.util.StringUtils;
-import vip.justlive.rabbit.RabbitMeta;
+import vip.justlive.rabbit.EasyRabbitProperties;
+import vip.justlive.rabbit.metrics.RabbitMetrics;
 
 /**
  * 消费者初始化执行器
@@ -35,50 +36,95 @@ import vip.justlive.rabbit.RabbitMeta;
  */
 @Slf4j
 @RequiredArgsConstructor
-public class ConsumerInitializer {
+public class ConsumerInitializer implements BeanFactoryAware, EnvironmentAware {
 
   private final List<Consumer<?>> consumers;
+  private final List<BatchConsumer<?>> batchConsumers;
+  private final List<AsyncConsumer<?>> asyncConsumers;
+
+  private BeanFactory beanFactory;
+  private Environment environment;
+
+  @Override
+  public void setBeanFactory(BeanFactory beanFactory) {
+    this.beanFactory = beanFactory;
+  }
+
+  @Override
+  public void setEnvironment(Environment environment) {
+    this.environment = environment;
+  }
 
   @PostConstruct
   public void initialize() {
 
-    if (consumers == null) {
-      return;
-    }
+    RabbitMetrics metrics = RabbitMetrics.of(beanFactory);
+    TopologyDeclarer declarer = declarer();
 
-    Set<String> queueNames = new HashSet<>();
-
-    for (Consumer<?> consumer : consumers) {
-      ConsumerMeta meta = ConsumerMeta.lookup(consumer.getClass());
-      if (meta == null) {
-        continue;
+    if (consumers != null) {
+      for (Consumer<?> consumer : consumers) {
+        ConsumerMeta meta = declare(declarer, consumer);
+        if (meta != null) {
+          ConsumerDef.register(meta, converter(meta), metrics, consumer);
+        }
       }
+    }
 
-      RabbitMeta rabbitMeta = RabbitMeta.lookup(meta.getDatasource());
-      if (rabbitMeta == null) {
-        continue;
+    if (batchConsumers != null) {
+      for (BatchConsumer<?> consumer : batchConsumers) {
+        ConsumerMeta meta = declare(declarer, consumer);
+        if (meta != null) {
+          ConsumerDef.register(meta, converter(meta), metrics, consumer);
+        }
       }
+    }
 
-      AmqpAdmin amqpAdmin = rabbitMeta.getRabbitAdmin();
-      Queue queue = new Queue(meta.getQueueName());
-      if (queueNames.add(meta.getQueueName())) {
-        amqpAdmin.declareQueue(queue);
+    if (asyncConsumers != null) {
+      for (AsyncConsumer<?> consumer : asyncConsumers) {
+        ConsumerMeta meta = declare(declarer, consumer);
+        if (meta != null) {
+          ConsumerDef.register(meta, converter(meta), metrics, consumer);
+        }
       }
+    }
 
-      if (StringUtils.hasText(meta.getExchangeName())) {
-        Exchange exchange = new ExchangeBuilder(meta.getExchangeName(),
-            meta.getExchangeType()).build();
-        amqpAdmin.declareExchange(exchange);
-        amqpAdmin.declareBinding(
-            BindingBuilder.bind(queue).to(exchange).with(meta.getRouting()).noargs());
-      }
-      log.info("register consumer for [{}][{}][{}] -> [{}] using [{}][{}]", meta.getQueueName(),
-          meta.getExchangeName(), meta.getRouting(), meta.getDatasource(),
-          meta.getMessageConverter(), consumer);
-      ConsumerDef.register(meta.getQueueName(), meta.getExchangeName(), meta.getRouting(),
-          meta.getMessageConverter(), consumer);
+    declarer.declare();
+    ConsumerDef.freeze();
+  }
+
+  @PreDestroy
+  public void destroy() {
+    ConsumerDef.shutdown();
+  }
+
+  private MessageConverter converter(ConsumerMeta meta) {
+    if (beanFactory == null || !StringUtils.hasText(meta.getMessageConverter())) {
+      return null;
+    }
+    return beanFactory.getBean(meta.getMessageConverter(), MessageConverter.class);
+  }
+
+  private TopologyDeclarer declarer() {
+    EasyRabbitProperties.ConsumerProperties props = null;
+    if (environment != null) {
+      props = Binder.get(environment).bindOrCreate(EasyRabbitProperties.PREFIX,
+          EasyRabbitProperties.class).getConsumer();
+    }
+    if (props == null) {
+      return new TopologyDeclarer(TopologyMode.DECLARE, null);
     }
+    return new TopologyDeclarer(props.getTopology(), props.getTopologyCache());
   }
 
+  private ConsumerMeta declare(TopologyDeclarer declarer, Object consumer) {
+    ConsumerMeta meta = ConsumerMeta.lookup(consumer.getClass());
+    if (meta == null || !declarer.add(meta)) {
+      return null;
+    }
+    log.info("register consumer for [{}][{}][{}] -> [{}] using [{}][{}]", meta.getQueueName(),
+        meta.getExchangeName(), meta.getRouting(), meta.getDatasource(),
+        meta.getMessageConverter(), consumer);
+    return meta;
+  }
 
 }
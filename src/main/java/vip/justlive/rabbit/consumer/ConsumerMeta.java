@@ -18,7 +18,9 @@ import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import lombok.Builder;
 import lombok.Data;
+import org.springframework.boot.autoconfigure.amqp.RabbitProperties.ContainerType;
 
 /**
  * 消费者元信息
@@ -26,6 +28,7 @@ import lombok.Data;
  * @author wubo
  */
 @Data
+@Builder
 public class ConsumerMeta {
 
   private static final Map<String, ConsumerMeta> METAS = new HashMap<>(4);
@@ -38,6 +41,26 @@ public class ConsumerMeta {
   private final String group;
   private final String datasource;
   private final String className;
+  private final boolean batch;
+  private final boolean async;
+  private final int batchSize;
+  private final long batchWait;
+  private final String codec;
+  private final ExecutionMode execution;
+  private final ContainerType container;
+  private final Integer concurrency;
+  private final Integer maxConcurrency;
+  private final Integer prefetch;
+  private final int window;
+  private final int partitions;
+  private final String partitionHeader;
+  private final String partitionField;
+  private final int retries;
+  private final long[] retryDelays;
+  private final String parkingLot;
+  private final double rateLimit;
+  private final double groupRateLimit;
+  private final boolean dedup;
 
 
   public static void regist(ConsumerMeta meta) {
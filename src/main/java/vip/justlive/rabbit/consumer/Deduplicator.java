@@ -0,0 +1,181 @@
+/*
+ * Copyright (C) 2024 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package vip.justlive.rabbit.consumer;
+
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+import org.springframework.amqp.core.MessageProperties;
+import vip.justlive.rabbit.EasyRabbitProperties;
+
+/**
+ * 重复消息过滤，记录已成功处理的消息key
+ * <p>
+ * key为 队列+messageId(或指定的消息头) 的64位hash，分段的组相联表，每条记录占12字节(hash和写入时间)，
+ * 组满时淘汰最早写入的记录，超过ttl的记录视为不存在
+ *
+ * @author wubo
+ */
+final class Deduplicator {
+
+  private static final int STRIPES = 64;
+  private static final int WAYS = 8;
+  private static final long SEED = 0xcbf29ce484222325L;
+  private static final long PRIME = 0x100000001b3L;
+
+  private final String header;
+  private final int ttl;
+  private final int sets;
+  private final long base = System.nanoTime();
+  private final Stripe[] stripes = new Stripe[STRIPES];
+
+  Deduplicator(EasyRabbitProperties.DedupProperties properties) {
+    this.header = properties.getHeader();
+    this.ttl = (int) Math.max(1, properties.getTtl().toSeconds());
+    this.sets = Math.max(1, (properties.getCapacity() + STRIPES * WAYS - 1) / (STRIPES * WAYS));
+    for (int i = 0; i < STRIPES; i++) {
+      stripes[i] = new Stripe();
+    }
+  }
+
+  /**
+   * 计算消息的key
+   *
+   * @param queue 队列
+   * @param props 消息属性
+   * @return 消息没有key时返回0
+   */
+  long key(String queue, MessageProperties props) {
+    Object id = header == null || header.isEmpty() ? props.getMessageId()
+        : props.getHeader(header);
+    if (id == null) {
+      return 0;
+    }
+    long hash = hash(SEED, queue);
+    hash = (hash ^ '\n') * PRIME;
+    if (id instanceof byte[] bytes) {
+      for (byte b : bytes) {
+        hash = (hash ^ (b & 0xff)) * PRIME;
+      }
+    } else {
+      hash = hash(hash, id.toString());
+    }
+    hash = mix(hash);
+    return hash == 0 ? 1 : hash;
+  }
+
+  /**
+   * 是否已处理过
+   *
+   * @param key key
+   * @return true为重复消息
+   */
+  boolean seen(long key) {
+    return key != 0 && stripe(key).seen(key, now());
+  }
+
+  /**
+   * 记录处理成功的消息
+   *
+   * @param key key
+   */
+  void remember(long key) {
+    if (key != 0) {
+      stripe(key).remember(key, now());
+    }
+  }
+
+  private Stripe stripe(long key) {
+    return stripes[(int) (key >>> 58)];
+  }
+
+  private int now() {
+    // 0表示空位，时间从1开始
+    return (int) TimeUnit.NANOSECONDS.toSeconds(System.nanoTime() - base) + 1;
+  }
+
+  private static long hash(long hash, String value) {
+    byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+    for (byte b : bytes) {
+      hash = (hash ^ (b & 0xff)) * PRIME;
+    }
+    return hash;
+  }
+
+  private static long mix(long hash) {
+    hash ^= hash >>> 33;
+    hash *= 0xff51afd7ed558ccdL;
+    hash ^= hash >>> 33;
+    hash *= 0xc4ceb9fe1a85ec53L;
+    return hash ^ (hash >>> 33);
+  }
+
+  /**
+   * 一个分段，数组在首次写入时分配；使用ReentrantLock，虚拟线程下不会pin住载体线程
+   */
+  private final class Stripe {
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private long[] keys;
+    private int[] stamps;
+
+    boolean seen(long key, int now) {
+      lock.lock();
+      try {
+        if (keys == null) {
+          return false;
+        }
+        int from = offset(key);
+        for (int i = from; i < from + WAYS; i++) {
+          if (keys[i] == key) {
+            return now - stamps[i] <= ttl;
+          }
+        }
+        return false;
+      } finally {
+        lock.unlock();
+      }
+    }
+
+    void remember(long key, int now) {
+      lock.lock();
+      try {
+        if (keys == null) {
+          keys = new long[sets * WAYS];
+          stamps = new int[sets * WAYS];
+        }
+        int from = offset(key);
+        int victim = from;
+        for (int i = from; i < from + WAYS; i++) {
+          if (keys[i] == key || stamps[i] == 0) {
+            victim = i;
+            break;
+          }
+          if (stamps[i] < stamps[victim]) {
+            victim = i;
+          }
+        }
+        keys[victim] = key;
+        stamps[victim] = now;
+      } finally {
+        lock.unlock();
+      }
+    }
+
+    private int offset(long key) {
+      return (int) Long.remainderUnsigned(key, sets) * WAYS;
+    }
+  }
+}
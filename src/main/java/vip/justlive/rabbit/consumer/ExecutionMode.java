@@ -0,0 +1,46 @@
+/*
+ * Copyright (C) 2024 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package vip.justlive.rabbit.consumer;
+
+/**
+ * 消费线程模式
+ *
+ * @author wubo
+ */
+public enum ExecutionMode {
+
+  /**
+   * 平台线程，容器默认
+   */
+  PLATFORM,
+  /**
+   * 虚拟线程，适合IO密集的消费者
+   */
+  VIRTUAL;
+
+  /**
+   * 解析模式，忽略大小写
+   *
+   * @param value        配置值
+   * @param defaultValue 默认值
+   * @return mode
+   */
+  public static ExecutionMode of(String value, ExecutionMode defaultValue) {
+    if (value == null || value.isEmpty()) {
+      return defaultValue;
+    }
+    return valueOf(value.trim().toUpperCase());
+  }
+}
@@ -0,0 +1,69 @@
+/*
+ * Copyright (C) 2024 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package vip.justlive.rabbit.consumer;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import org.springframework.amqp.core.Message;
+import vip.justlive.rabbit.KeyExtractor;
+
+/**
+ * 按key分区的串行执行通道
+ * <p>
+ * 相同key的消息总是进入同一个单线程通道，保证顺序；不同key在多个通道间并行
+ *
+ * @author wubo
+ */
+public final class Partitioner {
+
+  private final ExecutorService[] lanes;
+  private final KeyExtractor extractor;
+
+  Partitioner(String name, int partitions, String header, String field, boolean virtual) {
+    this.extractor = new KeyExtractor(header, field);
+    this.lanes = new ExecutorService[partitions];
+    for (int i = 0; i < partitions; i++) {
+      String threadName = String.format("easy-rabbit-%s-lane-%d", name, i);
+      ThreadFactory factory = virtual ? Thread.ofVirtual().name(threadName).factory()
+          : Thread.ofPlatform().name(threadName).daemon(true).factory();
+      lanes[i] = Executors.newSingleThreadExecutor(factory);
+    }
+  }
+
+  /**
+   * 选择消息所属的通道
+   *
+   * @param message 消息
+   * @param payload 转换后的消息体
+   * @return lane
+   */
+  public ExecutorService lane(Message message, Object payload) {
+    Object key = extractor.key(message, payload);
+    if (key == null) {
+      return lanes[0];
+    }
+    return lanes[Math.floorMod(key.hashCode(), lanes.length)];
+  }
+
+  /**
+   * 关闭所有通道，已提交的消息会继续执行完
+   */
+  public void shutdown() {
+    for (ExecutorService lane : lanes) {
+      lane.shutdown();
+    }
+  }
+}
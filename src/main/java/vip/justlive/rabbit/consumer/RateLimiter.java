@@ -0,0 +1,112 @@
+/*
+ * Copyright (C) 2024 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package vip.justlive.rabbit.consumer;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * 令牌桶限流
+ * <p>
+ * 桶容量为1秒的令牌数，令牌不足时在消费线程上等待，消息留在broker中；无锁实现，虚拟线程下不会pin住载体线程
+ *
+ * @author wubo
+ */
+public final class RateLimiter {
+
+  private static final Map<String, RateLimiter> GROUPS = new ConcurrentHashMap<>(4);
+
+  /**
+   * 每秒令牌数
+   */
+  private final double rate;
+  /**
+   * 每个令牌的间隔(ns)
+   */
+  private final long interval;
+  /**
+   * 桶满时可以提前消费的时长(ns)
+   */
+  private final long capacity;
+  /**
+   * 令牌已消费到的时间点，与当前时间的差值即为桶内剩余令牌
+   */
+  private final AtomicLong next;
+
+  public RateLimiter(double permitsPerSecond) {
+    if (permitsPerSecond <= 0) {
+      throw new IllegalArgumentException("permitsPerSecond must be positive");
+    }
+    this.rate = permitsPerSecond;
+    this.interval = Math.max(1, (long) (TimeUnit.SECONDS.toNanos(1) / permitsPerSecond));
+    this.capacity = Math.max(interval, TimeUnit.SECONDS.toNanos(1));
+    this.next = new AtomicLong(System.nanoTime() - capacity);
+  }
+
+  /**
+   * 获取分组共享的限流器，不同数据源的同名分组互不影响
+   *
+   * @param datasource       数据源
+   * @param group            分组
+   * @param permitsPerSecond 每秒令牌数
+   * @return limiter
+   */
+  public static RateLimiter group(String datasource, String group, double permitsPerSecond) {
+    RateLimiter limiter = GROUPS.computeIfAbsent(datasource + '/' + group,
+        k -> new RateLimiter(permitsPerSecond));
+    if (limiter.rate != permitsPerSecond) {
+      throw new IllegalStateException(String.format(
+          "group [%s] of datasource [%s] is already limited to %s/s, cannot change to %s/s", group,
+          datasource, limiter.rate, permitsPerSecond));
+    }
+    return limiter;
+  }
+
+  /**
+   * 清除分组限流器，容器关闭时调用，同一jvm中再次启动的上下文重新创建
+   */
+  static void clearGroups() {
+    GROUPS.clear();
+  }
+
+  /**
+   * 获取令牌，不足时等待
+   *
+   * @param permits 令牌数
+   */
+  public void acquire(int permits) {
+    long cost = interval * permits;
+    long now;
+    long prev;
+    long start;
+    do {
+      now = System.nanoTime();
+      prev = next.get();
+      // 空闲期间累积的令牌不超过桶容量
+      start = Math.max(prev, now - capacity);
+    } while (!next.compareAndSet(prev, start + cost));
+
+    // 透支的令牌按时间偿还
+    long deadline = start + cost;
+    long wait = deadline - now;
+    while (wait > 0 && !Thread.currentThread().isInterrupted()) {
+      LockSupport.parkNanos(this, wait);
+      wait = deadline - System.nanoTime();
+    }
+  }
+}
@@ -15,13 +15,27 @@
 package vip.justlive.rabbit.consumer;
 
 import com.rabbitmq.client.Channel;
-import lombok.RequiredArgsConstructor;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Semaphore;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.amqp.core.Message;
 import org.springframework.amqp.core.MessageProperties;
-import org.springframework.amqp.rabbit.listener.api.ChannelAwareMessageListener;
-import org.springframework.amqp.support.converter.MessageConverter;
+import org.springframework.amqp.rabbit.listener.api.ChannelAwareBatchMessageListener;
+import org.springframework.amqp.rabbit.support.DefaultMessagePropertiesConverter;
+import org.springframework.amqp.rabbit.support.MessagePropertiesConverter;
 import vip.justlive.rabbit.EasyRabbitProperties;
+import vip.justlive.rabbit.converter.Compressions;
+import vip.justlive.rabbit.converter.CustomMessageConverter;
+import vip.justlive.rabbit.metrics.ConsumerMetrics;
 
 /**
  * 接收处理器
@@ -29,36 +43,389 @@ import vip.justlive.rabbit.EasyRabbitProperties;
  * @author wubo
  */
 @Slf4j
-@RequiredArgsConstructor
-public class Receiver implements ChannelAwareMessageListener {
+public class Receiver implements ChannelAwareBatchMessageListener {
 
-  private final MessageConverter converter;
+  private static final MessagePropertiesConverter PROPERTIES_CONVERTER =
+      new DefaultMessagePropertiesConverter();
+
+  private final CustomMessageConverter converter;
   private final EasyRabbitProperties properties;
+  /**
+   * 异步消费每个channel上每个消费者未完成消息的许可，同一容器的消费者window可以不同
+   */
+  private final Map<Channel, Map<ConsumerDef, Semaphore>> windows = new ConcurrentHashMap<>();
+  /**
+   * 已成功处理的消息key
+   */
+  private final Deduplicator deduplicator;
+
+  public Receiver(CustomMessageConverter converter, EasyRabbitProperties properties) {
+    this.converter = converter;
+    this.properties = properties;
+    this.deduplicator = new Deduplicator(properties.getConsumer().getDedup());
+  }
 
   @Override
   public void onMessage(Message message, Channel channel) throws Exception {
+    long start = System.nanoTime();
+    ConsumerDef consumer = null;
+    ConsumerMetrics metrics = ConsumerMetrics.NOOP;
     try {
       MessageProperties prop = message.getMessageProperties();
-      ConsumerDef consumer = ConsumerDef.lookup(prop.getConsumerQueue(), prop.getReceivedExchange(),
-          prop.getReceivedRoutingKey());
+      consumer = ConsumerDef.lookup(prop);
       if (consumer == null) {
         log.error("consumer not found {}", prop);
         channel.basicNack(message.getMessageProperties().getDeliveryTag(), false, false);
         return;
       }
+      metrics = consumer.getMetrics();
+      metrics.received(message.getBody().length);
 
-      Object msg = converter.fromMessage(message);
-
-      if (log.isDebugEnabled()) {
-        log.debug("receive msg {}", msg);
+      long key = key(consumer, prop);
+      if (duplicate(consumer, key, channel, prop.getDeliveryTag())) {
+        return;
       }
-      consumer.accept(msg);
+      message = Compressions.decompress(message);
+      if (consumer.isAsync() || consumer.isPartitioned()) {
+        dispatch(consumer, message, channel, start, key);
+        return;
+      }
+      metrics.inflight(1);
+      try {
+        if (converter.isPacked(message)) {
+          // 打包消息拆分后逐条处理，整体只ack一次
+          List<Message> fragments = converter.unpack(message);
+          consumer.acquire(fragments.size());
+          for (Message fragment : fragments) {
+            accept(consumer, fragment);
+          }
+        } else {
+          consumer.acquire(1);
+          accept(consumer, message);
+        }
+      } finally {
+        metrics.inflight(-1);
+      }
+      deduplicator.remember(key);
       channel.basicAck(message.getMessageProperties().getDeliveryTag(),
           properties.getConsumer().isAckMultiple());
+      metrics.acked(1);
     } catch (Exception e) {
       log.error("receive msg error {}", message, e);
-      channel.basicNack(message.getMessageProperties().getDeliveryTag(),
-          properties.getConsumer().isNackMultiple(), properties.getConsumer().isNackRequeue());
+      fail(channel, consumer, message, properties.getConsumer().isNackMultiple());
+    }
+    metrics.consumed(System.nanoTime() - start);
+  }
+
+  private long key(ConsumerDef consumer, MessageProperties props) {
+    if (!consumer.isDedup()) {
+      return 0;
+    }
+    return deduplicator.key(consumer.getQueueProperties().queue(), props);
+  }
+
+  private boolean duplicate(ConsumerDef consumer, long key, Channel channel, long tag)
+      throws IOException {
+    if (!deduplicator.seen(key)) {
+      return false;
+    }
+    // 已成功处理过的重复投递，不转换不处理直接确认
+    channel.basicAck(tag, false);
+    consumer.getMetrics().duplicated(1);
+    if (log.isDebugEnabled()) {
+      log.debug("drop duplicate msg of [{}], tag {}", consumer.getQueueProperties().queue(), tag);
+    }
+    return true;
+  }
+
+  private void fail(Channel channel, ConsumerDef consumer, Message message, boolean multiple)
+      throws IOException {
+    long tag = message.getMessageProperties().getDeliveryTag();
+    if (consumer != null) {
+      consumer.getMetrics().nacked(1);
+    }
+    if (consumer != null && consumer.getRetry() != null && retry(channel, consumer, message)) {
+      channel.basicAck(tag, false);
+      return;
+    }
+    channel.basicNack(tag, multiple, properties.getConsumer().isNackRequeue());
+  }
+
+  private boolean retry(Channel channel, ConsumerDef consumer, Message message) {
+    MessageProperties props = message.getMessageProperties();
+    int attempt = RetryPolicy.mark(props);
+    String target = consumer.getRetry().route(attempt);
+    if (props.getDeliveryMode() == null) {
+      props.setDeliveryMode(props.getReceivedDeliveryMode());
+    }
+    try {
+      // 经默认交换空间投递到延迟队列或停车队列，成功后再确认原消息
+      channel.basicPublish("", target,
+          PROPERTIES_CONVERTER.fromMessageProperties(props, StandardCharsets.UTF_8.name()),
+          message.getBody());
+      log.warn("msg of [{}] failed {} time(s), routed to [{}]", props.getConsumerQueue(),
+          attempt, target);
+      return true;
+    } catch (IOException | RuntimeException e) {
+      log.error("route failed msg to [{}] error", target, e);
+      return false;
+    }
+  }
+
+  private Object convert(ConsumerDef consumer, Message message) {
+    long start = System.nanoTime();
+    Object msg = converter.fromMessage(message, consumer);
+    consumer.getMetrics().converted(System.nanoTime() - start);
+    return msg;
+  }
+
+  private void accept(ConsumerDef consumer, Message message) {
+    Object msg = convert(consumer, message);
+
+    if (log.isDebugEnabled()) {
+      log.debug("receive msg {}", msg);
+    }
+    consumer.accept(msg);
+  }
+
+  private void dispatch(ConsumerDef consumer, Message message, Channel channel, long start,
+      long key) throws IOException {
+    long tag = message.getMessageProperties().getDeliveryTag();
+    Semaphore window = window(channel, consumer);
+    try {
+      // 未完成的消息达到window时阻塞消费线程，不再从容器取新消息
+      window.acquire();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      channel.basicNack(tag, false, true);
+      return;
+    }
+    ConsumerMetrics metrics = consumer.getMetrics();
+    metrics.inflight(1);
+
+    CompletableFuture<Void> stage;
+    try {
+      if (converter.isPacked(message)) {
+        List<Message> fragments = converter.unpack(message);
+        consumer.acquire(fragments.size());
+        CompletableFuture<?>[] stages = new CompletableFuture[fragments.size()];
+        for (int i = 0; i < stages.length; i++) {
+          stages[i] = acceptAsync(consumer, fragments.get(i));
+        }
+        stage = CompletableFuture.allOf(stages);
+      } else {
+        consumer.acquire(1);
+        stage = acceptAsync(consumer, message);
+      }
+    } catch (Exception e) {
+      stage = CompletableFuture.failedFuture(e);
+    }
+
+    // 完成顺序与投递顺序无关，只能逐条确认
+    stage.whenComplete((r, e) -> {
+      try {
+        if (e == null) {
+          deduplicator.remember(key);
+          channel.basicAck(tag, false);
+          metrics.acked(1);
+        } else {
+          log.error("receive msg error {}", message, e);
+          fail(channel, consumer, message, false);
+        }
+      } catch (IOException | RuntimeException ex) {
+        log.error("ack async msg error, tag {}", tag, ex);
+      } finally {
+        window.release();
+        metrics.inflight(-1);
+        metrics.consumed(System.nanoTime() - start);
+      }
+    });
+  }
+
+  private CompletableFuture<Void> acceptAsync(ConsumerDef consumer, Message message) {
+    Object msg = convert(consumer, message);
+
+    if (log.isDebugEnabled()) {
+      log.debug("receive async msg {}", msg);
+    }
+    if (consumer.isPartitioned()) {
+      // 相同key进入同一个串行通道，按投递顺序执行
+      return CompletableFuture.runAsync(() -> consumer.accept(msg),
+          consumer.getPartitioner().lane(message, msg));
+    }
+    CompletionStage<Void> stage = consumer.acceptAsync(msg);
+    if (stage == null) {
+      return CompletableFuture.completedFuture(null);
+    }
+    return stage.toCompletableFuture();
+  }
+
+  private Semaphore window(Channel channel, ConsumerDef consumer) {
+    Map<ConsumerDef, Semaphore> consumers = windows.get(channel);
+    if (consumers == null) {
+      consumers = windows.computeIfAbsent(channel, k -> {
+        // channel关闭后未完成的消息由broker重新投递，移除对应的window
+        k.addShutdownListener(cause -> windows.remove(k));
+        return new ConcurrentHashMap<>(4);
+      });
+    }
+    Semaphore window = consumers.get(consumer);
+    if (window != null) {
+      return window;
+    }
+    return consumers.computeIfAbsent(consumer, k -> new Semaphore(k.getWindow()));
+  }
+
+  @Override
+  public void onMessageBatch(List<Message> messages, Channel channel) {
+    // 打包消息拆分出的多条消息共享同一个deliveryTag，按tag汇总处理结果
+    Map<Long, Outcome> outcomes = new LinkedHashMap<>(messages.size());
+    Map<ConsumerDef, Batch> batches = new LinkedHashMap<>(4);
+    Map<Long, Delivery> deliveries = new HashMap<>(4);
+    for (Message message : messages) {
+      MessageProperties prop = message.getMessageProperties();
+      long tag = prop.getDeliveryTag();
+      try {
+        ConsumerDef consumer = ConsumerDef.lookup(prop);
+        if (consumer == null || !consumer.isBatch()) {
+          log.error("batch consumer not found {}", prop);
+          outcomes.merge(tag, Outcome.REJECT, Outcome::worse);
+          continue;
+        }
+        consumer.getMetrics().received(message.getBody().length);
+        long key = key(consumer, prop);
+        if (deduplicator.seen(key)) {
+          consumer.getMetrics().duplicated(1);
+          outcomes.merge(tag, Outcome.ACK, Outcome::worse);
+          continue;
+        }
+        Batch batch = batches.computeIfAbsent(consumer, k -> new Batch(messages.size()));
+        Message decompressed = Compressions.decompress(message);
+        if (consumer.getRetry() != null) {
+          deliveries.computeIfAbsent(tag, k -> new Delivery(consumer, new ArrayList<>(1)))
+              .messages().add(decompressed);
+        }
+        if (converter.isPacked(decompressed)) {
+          for (Message fragment : converter.unpack(decompressed)) {
+            batch.add(convert(consumer, fragment), tag);
+          }
+        } else {
+          batch.add(convert(consumer, decompressed), tag);
+        }
+        if (key != 0) {
+          batch.keys.add(key);
+        }
+        outcomes.merge(tag, Outcome.ACK, Outcome::worse);
+      } catch (Exception e) {
+        log.error("receive msg error {}", message, e);
+        outcomes.merge(tag, Outcome.NACK, Outcome::worse);
+      }
+    }
+
+    for (Map.Entry<ConsumerDef, Batch> entry : batches.entrySet()) {
+      Batch batch = entry.getValue();
+      if (log.isDebugEnabled()) {
+        log.debug("receive batch msg {}", batch.msgs);
+      }
+      ConsumerMetrics metrics = entry.getKey().getMetrics();
+      long start = System.nanoTime();
+      metrics.inflight(batch.msgs.size());
+      try {
+        entry.getKey().acquire(batch.msgs.size());
+        entry.getKey().acceptBatch(batch.msgs);
+        metrics.acked(batch.msgs.size());
+        for (long key : batch.keys) {
+          deduplicator.remember(key);
+        }
+      } catch (Exception e) {
+        log.error("receive batch msg error, size {}", batch.msgs.size(), e);
+        metrics.nacked(batch.msgs.size());
+        for (Long tag : batch.tags) {
+          outcomes.merge(tag, Outcome.NACK, Outcome::worse);
+        }
+      } finally {
+        metrics.inflight(-batch.msgs.size());
+        metrics.consumed(System.nanoTime() - start);
+      }
+    }
+
+    // 配置了重试的消费者，失败消息转入延迟队列后按成功确认
+    for (Map.Entry<Long, Delivery> entry : deliveries.entrySet()) {
+      if (outcomes.get(entry.getKey()) == Outcome.NACK && retry(channel, entry.getValue())) {
+        outcomes.put(entry.getKey(), Outcome.ACK);
+      }
+    }
+
+    settle(channel, outcomes);
+  }
+
+  private boolean retry(Channel channel, Delivery delivery) {
+    for (Message message : delivery.messages()) {
+      if (!retry(channel, delivery.consumer(), message)) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  private void settle(Channel channel, Map<Long, Outcome> outcomes) {
+    long lastTag = -1;
+    boolean allAck = true;
+    for (Map.Entry<Long, Outcome> entry : outcomes.entrySet()) {
+      lastTag = Math.max(lastTag, entry.getKey());
+      allAck &= entry.getValue() == Outcome.ACK;
+    }
+    try {
+      if (allAck) {
+        if (lastTag >= 0) {
+          channel.basicAck(lastTag, true);
+        }
+        return;
+      }
+      // 部分消息失败时逐条确认，避免multiple确认覆盖失败的消息
+      for (Map.Entry<Long, Outcome> entry : outcomes.entrySet()) {
+        switch (entry.getValue()) {
+          case ACK -> channel.basicAck(entry.getKey(), false);
+          case NACK -> channel.basicNack(entry.getKey(), false,
+              properties.getConsumer().isNackRequeue());
+          case REJECT -> channel.basicNack(entry.getKey(), false, false);
+        }
+      }
+    } catch (IOException e) {
+      log.error("ack batch msg error, lastTag {}", lastTag, e);
+    }
+  }
+
+  private enum Outcome {
+    ACK, NACK, REJECT;
+
+    static Outcome worse(Outcome a, Outcome b) {
+      return a.ordinal() >= b.ordinal() ? a : b;
+    }
+  }
+
+  private record Delivery(ConsumerDef consumer, List<Message> messages) {
+
+  }
+
+  private static class Batch {
+
+    private final List<Object> msgs;
+    private final List<Long> tags;
+    /**
+     * 开启重复过滤时每条broker消息的key
+     */
+    private final List<Long> keys;
+
+    Batch(int size) {
+      this.msgs = new ArrayList<>(size);
+      this.tags = new ArrayList<>(size);
+      this.keys = new ArrayList<>(size);
+    }
+
+    void add(Object msg, long tag) {
+      msgs.add(msg);
+      tags.add(tag);
     }
   }
 }
@@ -0,0 +1,110 @@
+/*
+ * Copyright (C) 2024 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package vip.justlive.rabbit.consumer;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import org.springframework.amqp.core.MessageProperties;
+import org.springframework.amqp.core.Queue;
+
+/**
+ * 延迟重试策略
+ * <p>
+ * 失败消息按次数进入 queue.retry.n 延迟队列，ttl到期后经默认交换空间死信回原队列；超过重试次数后进入停车队列
+ *
+ * @author wubo
+ */
+public final class RetryPolicy {
+
+  /**
+   * 已失败次数
+   */
+  public static final String ATTEMPT = "x-easy-attempt";
+  /**
+   * 原始交换空间，死信回原队列后用于查找消费者
+   */
+  public static final String EXCHANGE = "x-easy-exchange";
+  /**
+   * 原始路由
+   */
+  public static final String ROUTING = "x-easy-routing";
+
+  private final String queue;
+  private final int attempts;
+  private final long[] delays;
+  private final String parkingLot;
+
+  RetryPolicy(String queue, int attempts, long[] delays, String parkingLot) {
+    this.queue = queue;
+    this.attempts = attempts;
+    this.delays = delays.length == 0 ? new long[]{1000} : delays.clone();
+    this.parkingLot = parkingLot == null || parkingLot.isEmpty() ? queue + ".parking" : parkingLot;
+  }
+
+  /**
+   * 失败消息的去向，次数用尽后为停车队列
+   *
+   * @param attempt 本次是第几次失败，从1开始
+   * @return 目标队列
+   */
+  public String route(int attempt) {
+    if (attempt > attempts) {
+      return parkingLot;
+    }
+    return tier(Math.min(attempt, delays.length));
+  }
+
+  /**
+   * 需要声明的重试拓扑
+   *
+   * @return queues
+   */
+  public List<Queue> topology() {
+    List<Queue> queues = new ArrayList<>(delays.length + 1);
+    for (int i = 1; i <= delays.length; i++) {
+      Map<String, Object> args = new HashMap<>(4);
+      args.put("x-message-ttl", delays[i - 1]);
+      args.put("x-dead-letter-exchange", "");
+      args.put("x-dead-letter-routing-key", queue);
+      queues.add(new Queue(tier(i), true, false, false, args));
+    }
+    queues.add(new Queue(parkingLot));
+    return queues;
+  }
+
+  /**
+   * 记录失败次数和原始路由
+   *
+   * @param props 消息属性
+   * @return 本次是第几次失败
+   */
+  public static int mark(MessageProperties props) {
+    Object value = props.getHeader(ATTEMPT);
+    int attempt = (value instanceof Number number ? number.intValue() : 0) + 1;
+    props.setHeader(ATTEMPT, attempt);
+    if (props.getHeader(EXCHANGE) == null) {
+      props.setHeader(EXCHANGE, Objects.toString(props.getReceivedExchange(), ""));
+      props.setHeader(ROUTING, Objects.toString(props.getReceivedRoutingKey(), ""));
+    }
+    return attempt;
+  }
+
+  private String tier(int n) {
+    return queue + ".retry." + n;
+  }
+}
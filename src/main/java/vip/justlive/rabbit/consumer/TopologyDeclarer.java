@@ -0,0 +1,282 @@
+/*
+ * Copyright (C) 2024 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package vip.justlive.rabbit.consumer;
+
+import com.rabbitmq.client.Channel;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.HexFormat;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.TreeMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.amqp.core.Binding;
+import org.springframework.amqp.core.BindingBuilder;
+import org.springframework.amqp.core.Exchange;
+import org.springframework.amqp.core.ExchangeBuilder;
+import org.springframework.amqp.core.Queue;
+import org.springframework.amqp.rabbit.connection.ConnectionFactory;
+import org.springframework.util.StringUtils;
+import vip.justlive.rabbit.RabbitMeta;
+
+/**
+ * 消费者拓扑声明
+ * <p>
+ * 按数据源收集队列、交换器和绑定，每个数据源在一个channel上用nowait方式批量声明，多个数据源并行；
+ * 配置了指纹缓存时，拓扑和上次成功声明时一致的数据源跳过声明
+ *
+ * @author wubo
+ */
+@Slf4j
+final class TopologyDeclarer {
+
+  private final TopologyMode mode;
+  private final Path cache;
+  private final Map<String, Topology> topologies = new LinkedHashMap<>(4);
+
+  TopologyDeclarer(TopologyMode mode, String cache) {
+    this.mode = mode == null ? TopologyMode.DECLARE : mode;
+    this.cache = StringUtils.hasText(cache) ? Path.of(cache) : null;
+  }
+
+  /**
+   * 收集消费者的拓扑
+   *
+   * @param meta 消费者元信息
+   * @return 数据源不存在时返回false
+   */
+  boolean add(ConsumerMeta meta) {
+    RabbitMeta rabbitMeta = RabbitMeta.lookup(meta.getDatasource());
+    if (rabbitMeta == null) {
+      return false;
+    }
+    Topology topology = topologies.computeIfAbsent(meta.getDatasource(),
+        k -> new Topology(rabbitMeta));
+    Queue queue = new Queue(meta.getQueueName());
+    if (topology.queues.putIfAbsent(queue.getName(), queue) == null) {
+      RetryPolicy retry = ConsumerDef.retry(meta);
+      if (retry != null) {
+        for (Queue retryQueue : retry.topology()) {
+          topology.queues.putIfAbsent(retryQueue.getName(), retryQueue);
+        }
+      }
+    }
+    if (StringUtils.hasText(meta.getExchangeName())) {
+      Exchange exchange = new ExchangeBuilder(meta.getExchangeName(),
+          meta.getExchangeType()).build();
+      topology.exchanges.putIfAbsent(exchange.getName(), exchange);
+      Binding binding = BindingBuilder.bind(queue).to(exchange).with(meta.getRouting()).noargs();
+      topology.bindings.putIfAbsent(
+          binding.getDestination() + "|" + binding.getExchange() + "|" + binding.getRoutingKey(),
+          binding);
+    }
+    return true;
+  }
+
+  /**
+   * 声明或检查所有数据源的拓扑，失败时抛出异常中止启动
+   */
+  void declare() {
+    if (topologies.isEmpty()) {
+      return;
+    }
+    Properties fingerprints = load();
+    Map<String, String> declared = new LinkedHashMap<>(topologies.size());
+    List<Future<String>> futures = new ArrayList<>(topologies.size());
+    try (ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor()) {
+      for (Map.Entry<String, Topology> entry : topologies.entrySet()) {
+        String datasource = entry.getKey();
+        Topology topology = entry.getValue();
+        futures.add(executor.submit(() -> process(datasource, topology, fingerprints)));
+      }
+      int i = 0;
+      for (String datasource : topologies.keySet()) {
+        String fingerprint = futures.get(i++).get();
+        if (fingerprint != null) {
+          declared.put(datasource, fingerprint);
+        }
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IllegalStateException("interrupted while declaring rabbit topology", e);
+    } catch (ExecutionException e) {
+      if (e.getCause() instanceof RuntimeException re) {
+        throw re;
+      }
+      throw new IllegalStateException(e.getCause());
+    }
+    if (!declared.isEmpty()) {
+      declared.forEach(fingerprints::setProperty);
+      store(fingerprints);
+    }
+  }
+
+  /**
+   * @return 新声明的拓扑指纹，跳过或只检查时返回null
+   */
+  private String process(String datasource, Topology topology, Properties fingerprints) {
+    long start = System.nanoTime();
+    if (mode == TopologyMode.VERIFY) {
+      topology.execute(datasource, this::verify);
+      log.info("verified rabbit topology of [{}] with [{}] queues [{}] exchanges in [{}]ms",
+          datasource, topology.queues.size(), topology.exchanges.size(),
+          (System.nanoTime() - start) / 1_000_000);
+      return null;
+    }
+    String fingerprint = cache == null ? null : topology.fingerprint();
+    if (fingerprint != null && fingerprint.equals(fingerprints.getProperty(datasource))) {
+      log.info("rabbit topology of [{}] is unchanged, skip declaration", datasource);
+      return null;
+    }
+    topology.execute(datasource, this::declare);
+    log.info("declared rabbit topology of [{}] with [{}] queues [{}] exchanges [{}] bindings "
+            + "in [{}]ms", datasource, topology.queues.size(), topology.exchanges.size(),
+        topology.bindings.size(), (System.nanoTime() - start) / 1_000_000);
+    return fingerprint;
+  }
+
+  private void declare(Channel channel, Topology topology) throws IOException {
+    for (Exchange exchange : topology.exchanges.values()) {
+      channel.exchangeDeclareNoWait(exchange.getName(), exchange.getType(),
+          exchange.isDurable(), exchange.isAutoDelete(), exchange.isInternal(),
+          exchange.getArguments());
+    }
+    Queue last = null;
+    for (Queue queue : topology.queues.values()) {
+      channel.queueDeclareNoWait(queue.getName(), queue.isDurable(), queue.isExclusive(),
+          queue.isAutoDelete(), queue.getArguments());
+      last = queue;
+    }
+    for (Binding binding : topology.bindings.values()) {
+      channel.queueBindNoWait(binding.getDestination(), binding.getExchange(),
+          binding.getRoutingKey(), binding.getArguments());
+    }
+    // nowait的声明没有响应，最后一次同步调用等待broker处理完前面的命令，出错时channel已被关闭会在这里抛出
+    if (last != null) {
+      channel.queueDeclarePassive(last.getName());
+    }
+  }
+
+  private void verify(Channel channel, Topology topology) throws IOException {
+    // 绑定无法被动检查，queueBind会修改broker上的拓扑，只检查交换器和队列
+    for (Exchange exchange : topology.exchanges.values()) {
+      channel.exchangeDeclarePassive(exchange.getName());
+    }
+    for (Queue queue : topology.queues.values()) {
+      channel.queueDeclarePassive(queue.getName());
+    }
+  }
+
+  private Properties load() {
+    Properties properties = new Properties();
+    if (cache == null || mode == TopologyMode.VERIFY || !Files.isRegularFile(cache)) {
+      return properties;
+    }
+    try (InputStream in = Files.newInputStream(cache)) {
+      properties.load(in);
+    } catch (IOException e) {
+      log.warn("load rabbit topology cache [{}] failed, redeclare all", cache, e);
+    }
+    return properties;
+  }
+
+  private void store(Properties properties) {
+    if (cache == null) {
+      return;
+    }
+    try {
+      if (cache.getParent() != null) {
+        Files.createDirectories(cache.getParent());
+      }
+      try (OutputStream out = Files.newOutputStream(cache)) {
+        properties.store(out, "easy-rabbit topology fingerprints");
+      }
+    } catch (IOException e) {
+      log.warn("store rabbit topology cache [{}] failed", cache, e);
+    }
+  }
+
+  @FunctionalInterface
+  private interface ChannelAction {
+
+    void apply(Channel channel, Topology topology) throws IOException;
+  }
+
+  private static final class Topology {
+
+    private final RabbitMeta rabbitMeta;
+    private final Map<String, Exchange> exchanges = new LinkedHashMap<>();
+    private final Map<String, Queue> queues = new LinkedHashMap<>();
+    private final Map<String, Binding> bindings = new LinkedHashMap<>();
+
+    private Topology(RabbitMeta rabbitMeta) {
+      this.rabbitMeta = rabbitMeta;
+    }
+
+    private void execute(String datasource, ChannelAction action) {
+      try {
+        rabbitMeta.getRabbitTemplate().execute(channel -> {
+          action.apply(channel, this);
+          return null;
+        });
+      } catch (RuntimeException e) {
+        throw new IllegalStateException("rabbit topology of [" + datasource + "] is invalid", e);
+      }
+    }
+
+    /**
+     * 拓扑和broker地址的摘要，任一队列参数、绑定或地址变化都会重新声明
+     */
+    private String fingerprint() {
+      StringBuilder sb = new StringBuilder(256);
+      ConnectionFactory connectionFactory = rabbitMeta.getConnectionFactory();
+      sb.append(connectionFactory.getHost()).append(':').append(connectionFactory.getPort())
+          .append('/').append(connectionFactory.getVirtualHost()).append('\n');
+      for (Exchange exchange : exchanges.values()) {
+        sb.append("E|").append(exchange.getName()).append('|').append(exchange.getType())
+            .append('|').append(exchange.isDurable()).append('|').append(exchange.isAutoDelete())
+            .append('|').append(new TreeMap<>(exchange.getArguments())).append('\n');
+      }
+      for (Queue queue : queues.values()) {
+        sb.append("Q|").append(queue.getName()).append('|').append(queue.isDurable())
+            .append('|').append(queue.isExclusive()).append('|').append(queue.isAutoDelete())
+            .append('|').append(new TreeMap<>(queue.getArguments())).append('\n');
+      }
+      for (Map.Entry<String, Binding> entry : bindings.entrySet()) {
+        sb.append("B|").append(entry.getKey()).append('\n');
+      }
+      try {
+        MessageDigest digest = MessageDigest.getInstance("SHA-256");
+        return HexFormat.of().formatHex(digest.digest(sb.toString()
+            .getBytes(StandardCharsets.UTF_8)));
+      } catch (NoSuchAlgorithmException e) {
+        throw new IllegalStateException(e);
+      }
+    }
+  }
+}
@@ -0,0 +1,34 @@
+/*
+ * Copyright (C) 2024 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package vip.justlive.rabbit.consumer;
+
+/**
+ * 启动时队列、交换器和绑定的处理方式
+ *
+ * @author wubo
+ */
+public enum TopologyMode {
+
+  /**
+   * 声明拓扑，每个数据源在一个channel上批量发送
+   */
+  DECLARE,
+  /**
+   * 只被动检查队列和交换器存在，用于拓扑已预先创建的部署
+   * <p>
+   * AMQP没有被动检查绑定的命令，绑定不做检查，缺少绑定时消息由broker按无法路由处理
+   */
+  VERIFY
+}
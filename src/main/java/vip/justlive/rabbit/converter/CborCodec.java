@@ -0,0 +1,32 @@
+/*
+ * Copyright (C) 2024 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package vip.justlive.rabbit.converter;
+
+import com.fasterxml.jackson.dataformat.cbor.databind.CBORMapper;
+
+/**
+ * CBOR编解码器，需要引入jackson-dataformat-cbor
+ *
+ * @author wubo
+ */
+public class CborCodec extends JacksonCodec {
+
+  public static final String NAME = "cbor";
+  public static final String CONTENT_TYPE = "application/cbor";
+
+  public CborCodec() {
+    super(NAME, CONTENT_TYPE, new CBORMapper());
+  }
+}
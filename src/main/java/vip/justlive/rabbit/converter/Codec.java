@@ -0,0 +1,58 @@
+/*
+ * Copyright (C) 2024 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package vip.justlive.rabbit.converter;
+
+import java.lang.reflect.Type;
+
+/**
+ * 消息编解码器
+ * <p>
+ * 通过ServiceLoader扩展，名称用于@Rqueue和全局配置选择，contentType用于消费端按消息头选择解码器
+ *
+ * @author wubo
+ */
+public interface Codec {
+
+  /**
+   * 名称
+   *
+   * @return name
+   */
+  String name();
+
+  /**
+   * 对应的content-type
+   *
+   * @return contentType
+   */
+  String contentType();
+
+  /**
+   * 编码
+   *
+   * @param value 对象
+   * @return bytes
+   */
+  byte[] encode(Object value);
+
+  /**
+   * 解码
+   *
+   * @param body 消息体
+   * @param type 目标类型
+   * @return 对象
+   */
+  Object decode(byte[] body, Type type);
+}
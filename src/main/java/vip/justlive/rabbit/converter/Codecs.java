@@ -0,0 +1,99 @@
+/*
+ * Copyright (C) 2024 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package vip.justlive.rabbit.converter;
+
+import java.util.Map;
+import java.util.ServiceLoader;
+import java.util.concurrent.ConcurrentHashMap;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.util.ClassUtils;
+
+/**
+ * 编解码器注册表
+ * <p>
+ * 内置json，classpath中存在jackson对应数据格式时内置cbor和smile，其余通过ServiceLoader加载
+ *
+ * @author wubo
+ */
+@Slf4j
+public final class Codecs {
+
+  private static final Map<String, Codec> NAMES = new ConcurrentHashMap<>(8);
+  private static final Map<String, Codec> CONTENT_TYPES = new ConcurrentHashMap<>(8);
+
+  static {
+    ClassLoader classLoader = Codecs.class.getClassLoader();
+    register(new FastjsonCodec());
+    if (ClassUtils.isPresent("com.fasterxml.jackson.dataformat.cbor.databind.CBORMapper",
+        classLoader)) {
+      register(new CborCodec());
+    }
+    if (ClassUtils.isPresent("com.fasterxml.jackson.dataformat.smile.databind.SmileMapper",
+        classLoader)) {
+      register(new SmileCodec());
+    }
+    for (Codec codec : ServiceLoader.load(Codec.class, classLoader)) {
+      register(codec);
+    }
+  }
+
+  private Codecs() {
+  }
+
+  /**
+   * 注册编解码器，同名覆盖
+   *
+   * @param codec 编解码器
+   */
+  public static void register(Codec codec) {
+    NAMES.put(codec.name(), codec);
+    CONTENT_TYPES.put(codec.contentType(), codec);
+    log.info("register rabbit codec [{}][{}] -> {}", codec.name(), codec.contentType(), codec);
+  }
+
+  /**
+   * 按名称获取编解码器
+   *
+   * @param name 名称
+   * @return codec
+   */
+  public static Codec lookup(String name) {
+    Codec codec = NAMES.get(name);
+    if (codec == null) {
+      throw new IllegalArgumentException("rabbit codec not found: " + name);
+    }
+    return codec;
+  }
+
+  /**
+   * 按content-type获取编解码器
+   *
+   * @param contentType content-type，可带参数
+   * @return codec，不存在时返回null
+   */
+  public static Codec forContentType(String contentType) {
+    if (contentType == null) {
+      return null;
+    }
+    Codec codec = CONTENT_TYPES.get(contentType);
+    if (codec == null) {
+      int index = contentType.indexOf(';');
+      if (index > 0) {
+        codec = CONTENT_TYPES.get(contentType.substring(0, index).trim());
+      }
+    }
+    return codec;
+  }
+}
@@ -0,0 +1,48 @@
+/*
+ * Copyright (C) 2024 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package vip.justlive.rabbit.converter;
+
+/**
+ * 消息压缩算法
+ * <p>
+ * 名称写入content-encoding，格式为 {@code 算法[:原始编码]}，与spring-amqp的压缩后处理器兼容
+ *
+ * @author wubo
+ */
+public interface Compression {
+
+  /**
+   * 名称
+   *
+   * @return name
+   */
+  String name();
+
+  /**
+   * 压缩
+   *
+   * @param data 原始数据
+   * @return 压缩后的数据
+   */
+  byte[] compress(byte[] data);
+
+  /**
+   * 解压
+   *
+   * @param data 压缩数据
+   * @return 原始数据
+   */
+  byte[] decompress(byte[] data);
+}
@@ -0,0 +1,140 @@
+/*
+ * Copyright (C) 2024 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package vip.justlive.rabbit.converter;
+
+import java.nio.charset.Charset;
+import java.nio.charset.IllegalCharsetNameException;
+import java.util.Map;
+import java.util.ServiceLoader;
+import java.util.concurrent.ConcurrentHashMap;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.amqp.core.Message;
+import org.springframework.amqp.core.MessageProperties;
+import org.springframework.amqp.support.converter.MessageConversionException;
+
+/**
+ * 压缩算法注册表
+ * <p>
+ * 内置gzip和deflate，lz4、zstd等算法通过ServiceLoader注册Compression实现
+ *
+ * @author wubo
+ */
+@Slf4j
+public final class Compressions {
+
+  private static final Map<String, Compression> NAMES = new ConcurrentHashMap<>(8);
+
+  static {
+    register(new ZipCompression.Gzip());
+    register(new ZipCompression.Deflate());
+    for (Compression compression : ServiceLoader.load(Compression.class,
+        Compressions.class.getClassLoader())) {
+      register(compression);
+    }
+  }
+
+  private Compressions() {
+  }
+
+  /**
+   * 注册压缩算法，同名覆盖
+   *
+   * @param compression 压缩算法
+   */
+  public static void register(Compression compression) {
+    NAMES.put(compression.name(), compression);
+    log.info("register rabbit compression [{}] -> {}", compression.name(), compression);
+  }
+
+  /**
+   * 按名称获取压缩算法
+   *
+   * @param name 名称
+   * @return compression
+   */
+  public static Compression lookup(String name) {
+    Compression compression = NAMES.get(name);
+    if (compression == null) {
+      throw new IllegalArgumentException("rabbit compression not found: " + name);
+    }
+    return compression;
+  }
+
+  /**
+   * 消息体不小于阈值时压缩，并在content-encoding中记录算法
+   *
+   * @param message     消息
+   * @param compression 压缩算法，为null时不压缩
+   * @param threshold   阈值(byte)
+   * @return 处理后的消息
+   */
+  public static Message compress(Message message, Compression compression, int threshold) {
+    if (compression == null || message.getBody().length < threshold) {
+      return message;
+    }
+    MessageProperties props = message.getMessageProperties();
+    String encoding = props.getContentEncoding();
+    if (encoding != null && NAMES.containsKey(name(encoding))) {
+      // 已压缩
+      return message;
+    }
+    byte[] body = compression.compress(message.getBody());
+    props.setContentEncoding(
+        encoding == null ? compression.name() : compression.name() + ":" + encoding);
+    props.setContentLength(body.length);
+    return new Message(body, props);
+  }
+
+  /**
+   * 按content-encoding解压消息，未压缩的消息原样返回
+   *
+   * @param message 消息
+   * @return 解压后的消息
+   * @throws MessageConversionException content-encoding既不是已注册的压缩算法也不是字符集
+   */
+  public static Message decompress(Message message) {
+    MessageProperties props = message.getMessageProperties();
+    String encoding = props.getContentEncoding();
+    if (encoding == null) {
+      return message;
+    }
+    Compression compression = NAMES.get(name(encoding));
+    if (compression == null) {
+      // content-encoding同时用于文本字符集，其余未注册的压缩算法无法解压
+      if (!isCharset(encoding)) {
+        throw new MessageConversionException("unsupported content-encoding: " + encoding);
+      }
+      return message;
+    }
+    byte[] body = compression.decompress(message.getBody());
+    int index = encoding.indexOf(':');
+    props.setContentEncoding(index < 0 ? null : encoding.substring(index + 1));
+    props.setContentLength(body.length);
+    return new Message(body, props);
+  }
+
+  private static boolean isCharset(String encoding) {
+    try {
+      return Charset.isSupported(encoding);
+    } catch (IllegalCharsetNameException e) {
+      return false;
+    }
+  }
+
+  private static String name(String encoding) {
+    int index = encoding.indexOf(':');
+    return index < 0 ? encoding : encoding.substring(0, index);
+  }
+}
@@ -0,0 +1,159 @@
+/*
+ * Copyright (C) 2024 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package vip.justlive.rabbit.converter;
+
+import java.lang.reflect.Type;
+import java.lang.reflect.TypeVariable;
+import java.nio.charset.Charset;
+import java.nio.charset.IllegalCharsetNameException;
+import java.nio.charset.StandardCharsets;
+import java.nio.charset.UnsupportedCharsetException;
+import org.springframework.amqp.core.Message;
+import org.springframework.amqp.core.MessageProperties;
+import org.springframework.amqp.support.converter.MessageConversionException;
+import org.springframework.amqp.support.converter.MessageConverter;
+import org.springframework.core.ResolvableType;
+
+/**
+ * 转换计划
+ * <p>
+ * 注册时确定转换器实例、目标类型和反序列化方式，消息处理时直接调用
+ *
+ * @param converter    自定义转换器，为null时使用默认转换
+ * @param codec        默认编解码器
+ * @param type         目标类型
+ * @param deserializer 预绑定的反序列化方式
+ * @param charset      默认字符集
+ * @param compression  生产端压缩算法，为null时不压缩
+ * @param threshold    生产端压缩阈值(byte)
+ * @author wubo
+ */
+public record ConversionPlan(MessageConverter converter, Codec codec, Type type,
+                             Deserializer deserializer, Charset charset,
+                             Compression compression, int threshold) {
+
+  /**
+   * 创建转换计划
+   *
+   * @param converter 自定义转换器，可以为null
+   * @param codec     默认编解码器
+   * @param type      目标类型
+   * @return plan
+   */
+  public static ConversionPlan of(MessageConverter converter, Codec codec, Type type) {
+    Type target = type == null || type instanceof TypeVariable ? Object.class : type;
+    Charset charset = StandardCharsets.UTF_8;
+    return new ConversionPlan(converter, codec, target, deserializer(target, codec, charset),
+        charset, null, 0);
+  }
+
+  /**
+   * 设置压缩算法
+   *
+   * @param compression 压缩算法，为null时不压缩
+   * @param threshold   阈值(byte)，消息体不小于该值时才压缩
+   * @return 新的plan
+   */
+  public ConversionPlan withCompression(Compression compression, int threshold) {
+    return new ConversionPlan(converter, codec, type, deserializer, charset, compression,
+        threshold);
+  }
+
+  /**
+   * 解析实现类上泛型接口的类型参数
+   *
+   * @param clazz   实现类
+   * @param rawType 泛型接口
+   * @return 类型参数，无法解析时为Object
+   */
+  public static Type resolveType(Class<?> clazz, Class<?> rawType) {
+    ResolvableType generic = ResolvableType.forClass(clazz).as(rawType).getGeneric(0);
+    if (generic == ResolvableType.NONE) {
+      return Object.class;
+    }
+    return generic.getType();
+  }
+
+  /**
+   * 是否使用自定义转换器
+   *
+   * @return true为自定义
+   */
+  public boolean isCustom() {
+    return converter != null;
+  }
+
+  /**
+   * 反序列化消息体
+   *
+   * @param message 消息
+   * @return 对象
+   */
+  public Object deserialize(Message message) {
+    return deserializer.deserialize(message.getBody(), message.getMessageProperties());
+  }
+
+  private static Deserializer deserializer(Type type, Codec codec, Charset charset) {
+    if (type == byte[].class) {
+      return (body, props) -> body;
+    }
+    if (type == String.class) {
+      return (body, props) -> {
+        String contentType = props.getContentType();
+        if (contentType != null && contentType.startsWith("text")) {
+          return new String(body, charset(props, charset));
+        }
+        return negotiate(contentType, codec).decode(body, type);
+      };
+    }
+    return (body, props) -> negotiate(props.getContentType(), codec).decode(body, type);
+  }
+
+  private static Codec negotiate(String contentType, Codec defaultCodec) {
+    Codec codec = Codecs.forContentType(contentType);
+    if (codec == null) {
+      return defaultCodec;
+    }
+    return codec;
+  }
+
+  private static Charset charset(MessageProperties props, Charset defaultCharset) {
+    String encoding = props.getContentEncoding();
+    if (encoding == null) {
+      return defaultCharset;
+    }
+    try {
+      return Charset.forName(encoding);
+    } catch (IllegalCharsetNameException | UnsupportedCharsetException e) {
+      throw new MessageConversionException("failed to convert text-based Message content", e);
+    }
+  }
+
+  /**
+   * 反序列化
+   */
+  @FunctionalInterface
+  public interface Deserializer {
+
+    /**
+     * 反序列化消息体
+     *
+     * @param body  消息体
+     * @param props 消息属性
+     * @return 对象
+     */
+    Object deserialize(byte[] body, MessageProperties props);
+  }
+}
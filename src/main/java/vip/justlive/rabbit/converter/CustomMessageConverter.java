@@ -14,83 +14,134 @@
 
 package vip.justlive.rabbit.converter;
 
-import com.alibaba.fastjson.JSON;
-import java.io.UnsupportedEncodingException;
-import java.lang.reflect.Type;
 import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import lombok.Getter;
+import lombok.Setter;
 import org.springframework.amqp.core.Message;
 import org.springframework.amqp.core.MessageProperties;
+import org.springframework.amqp.rabbit.batch.BatchingStrategy;
+import org.springframework.amqp.rabbit.batch.SimpleBatchingStrategy;
 import org.springframework.amqp.support.converter.AbstractMessageConverter;
-import org.springframework.amqp.support.converter.MessageConversionException;
-import org.springframework.amqp.support.converter.MessageConverter;
-import org.springframework.context.ApplicationContext;
-import org.springframework.context.ApplicationContextAware;
-import org.springframework.util.StringUtils;
+import org.springframework.beans.BeanUtils;
 import vip.justlive.rabbit.consumer.ConsumerDef;
-import vip.justlive.rabbit.producer.QueueProperties;
 
 /**
  * 自定义转换器，处理类名不相同json转换报错问题
  *
  * @author wubo
  */
-public class CustomMessageConverter extends AbstractMessageConverter implements
-    ApplicationContextAware {
+public class CustomMessageConverter extends AbstractMessageConverter {
+
+  private static final BatchingStrategy UNPACKER = new SimpleBatchingStrategy(0, 0, 0L);
+
+  /**
+   * 未指定编解码器时使用的默认编解码器
+   */
+  @Getter
+  @Setter
+  private Codec defaultCodec = Codecs.lookup(FastjsonCodec.NAME);
+  /**
+   * 生产端默认压缩算法，为null时不压缩
+   */
+  @Getter
+  @Setter
+  private Compression defaultCompression;
+  /**
+   * 生产端默认压缩阈值(byte)
+   */
+  @Getter
+  @Setter
+  private int compressThreshold;
+
+  /**
+   * 是否为生产端打包的消息
+   *
+   * @param message 消息
+   * @return true为打包消息
+   */
+  public boolean isPacked(Message message) {
+    return UNPACKER.canDebatch(message.getMessageProperties());
+  }
 
-  private ApplicationContext applicationContext;
+  /**
+   * 拆分打包消息
+   *
+   * @param message 打包消息
+   * @return 拆分后的消息
+   */
+  public List<Message> unpack(Message message) {
+    // deBatch会修改消息属性，拆分副本，处理失败转入重试时原消息仍保留打包标识
+    MessageProperties original = message.getMessageProperties();
+    MessageProperties props = new MessageProperties();
+    BeanUtils.copyProperties(original, props);
+    props.getHeaders().putAll(original.getHeaders());
+    List<Message> fragments = new ArrayList<>();
+    UNPACKER.deBatch(new Message(message.getBody(), props), fragments::add);
+    return fragments;
+  }
 
   @Override
   public Object fromMessage(Message message) {
-
     MessageProperties prop = message.getMessageProperties();
-    ConsumerDef consumer = ConsumerDef.lookup(prop.getConsumerQueue(), prop.getReceivedExchange(),
-        prop.getReceivedRoutingKey());
+    ConsumerDef consumer = ConsumerDef.lookup(prop);
+    return fromMessage(message, consumer);
+  }
+
+  /**
+   * 使用已解析的consumer转换消息，避免重复查找路由索引
+   *
+   * @param message  消息
+   * @param consumer consumer定义
+   * @return 转换后的对象
+   */
+  public Object fromMessage(Message message, ConsumerDef consumer) {
+
+    message = Compressions.decompress(message);
+    if (isPacked(message)) {
+      List<Message> fragments = unpack(message);
+      List<Object> msgs = new ArrayList<>(fragments.size());
+      for (Message fragment : fragments) {
+        msgs.add(fromMessage(fragment, consumer));
+      }
+      return msgs;
+    }
+
     if (consumer == null) {
       return message.getBody();
     }
 
-    if (applicationContext != null && StringUtils.hasText(
-        consumer.getQueueProperties().messageConverter())) {
-      return applicationContext.getBean(consumer.getQueueProperties().messageConverter(),
-              MessageConverter.class)
-          .fromMessage(message);
-    }
-
-    Object msg = message.getBody();
-    Type type = consumer.getType();
-
-    String contentType = prop.getContentType();
-    if (contentType != null && contentType.startsWith("text")) {
-      String encoding = prop.getContentEncoding();
-      if (encoding == null) {
-        encoding = StandardCharsets.UTF_8.name();
-      }
-      if (type == String.class) {
-        try {
-          return new String((byte[]) msg, encoding);
-        } catch (UnsupportedEncodingException e) {
-          throw new MessageConversionException("failed to convert text-based Message content", e);
-        }
-      }
+    ConversionPlan plan = consumer.getPlan();
+    if (plan.isCustom()) {
+      return plan.converter().fromMessage(message);
     }
+    return plan.deserialize(message);
+  }
 
-    if (type != byte[].class) {
-      msg = JSON.parseObject((byte[]) msg, type);
+  /**
+   * 按生产端转换计划创建消息
+   *
+   * @param object 对象
+   * @param plan   转换计划
+   * @return 消息
+   */
+  public Message toMessage(Object object, ConversionPlan plan) {
+    Message message;
+    if (plan.isCustom()) {
+      message = plan.converter().toMessage(object, new MessageProperties());
+    } else {
+      MessageProperties props = new MessageProperties();
+      // content-type作为编解码器的选择依据，createMessage中按其选择编码器
+      props.setContentType(plan.codec().contentType());
+      message = toMessage(object, props);
     }
-    return msg;
+    return Compressions.compress(message, plan.compression(), plan.threshold());
   }
 
   @Override
   protected Message createMessage(Object object, MessageProperties props) {
 
-    QueueProperties queueProperties = QueueProperties.get();
-    if (applicationContext != null && queueProperties != null &&
-        StringUtils.hasText(queueProperties.messageConverter())) {
-      return applicationContext.getBean(queueProperties.messageConverter(),
-              MessageConverter.class)
-          .toMessage(object, props);
-    }
-
     byte[] bytes;
     if (object instanceof byte[]) {
       bytes = (byte[]) object;
@@ -99,17 +150,16 @@ public class CustomMessageConverter extends AbstractMessageConverter implements
       bytes = ((String) object).getBytes(StandardCharsets.UTF_8);
       props.setContentType(MessageProperties.CONTENT_TYPE_TEXT_PLAIN);
     } else {
-      bytes = JSON.toJSONBytes(object);
-      props.setContentType(MessageProperties.CONTENT_TYPE_JSON);
+      Codec codec = Codecs.forContentType(props.getContentType());
+      if (codec == null) {
+        codec = defaultCodec;
+      }
+      bytes = codec.encode(object);
+      props.setContentType(codec.contentType());
     }
     props.setContentLength(bytes.length);
     return new Message(bytes, props);
   }
 
-  @Override
-  public void setApplicationContext(ApplicationContext applicationContext) {
-    this.applicationContext = applicationContext;
-  }
-
 }
 
@@ -0,0 +1,49 @@
+/*
+ * Copyright (C) 2024 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package vip.justlive.rabbit.converter;
+
+import com.alibaba.fastjson.JSON;
+import java.lang.reflect.Type;
+import org.springframework.amqp.core.MessageProperties;
+
+/**
+ * fastjson编解码器
+ *
+ * @author wubo
+ */
+public class FastjsonCodec implements Codec {
+
+  public static final String NAME = "json";
+
+  @Override
+  public String name() {
+    return NAME;
+  }
+
+  @Override
+  public String contentType() {
+    return MessageProperties.CONTENT_TYPE_JSON;
+  }
+
+  @Override
+  public byte[] encode(Object value) {
+    return JSON.toJSONBytes(value);
+  }
+
+  @Override
+  public Object decode(byte[] body, Type type) {
+    return JSON.parseObject(body, type);
+  }
+}
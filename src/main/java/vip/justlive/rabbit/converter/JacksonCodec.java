@@ -0,0 +1,69 @@
+/*
+ * Copyright (C) 2024 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package vip.justlive.rabbit.converter;
+
+import com.fasterxml.jackson.databind.DeserializationFeature;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import java.io.IOException;
+import java.lang.reflect.Type;
+import org.springframework.amqp.support.converter.MessageConversionException;
+
+/**
+ * 基于jackson数据格式的二进制编解码器
+ *
+ * @author wubo
+ */
+public abstract class JacksonCodec implements Codec {
+
+  private final String name;
+  private final String contentType;
+  private final ObjectMapper mapper;
+
+  protected JacksonCodec(String name, String contentType, ObjectMapper mapper) {
+    this.name = name;
+    this.contentType = contentType;
+    this.mapper = mapper;
+    this.mapper.findAndRegisterModules();
+    this.mapper.configure(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES, false);
+  }
+
+  @Override
+  public String name() {
+    return name;
+  }
+
+  @Override
+  public String contentType() {
+    return contentType;
+  }
+
+  @Override
+  public byte[] encode(Object value) {
+    try {
+      return mapper.writeValueAsBytes(value);
+    } catch (IOException e) {
+      throw new MessageConversionException("failed to encode message with " + name, e);
+    }
+  }
+
+  @Override
+  public Object decode(byte[] body, Type type) {
+    try {
+      return mapper.readValue(body, mapper.getTypeFactory().constructType(type));
+    } catch (IOException e) {
+      throw new MessageConversionException("failed to decode message with " + name, e);
+    }
+  }
+}
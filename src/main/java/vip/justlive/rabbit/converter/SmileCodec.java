@@ -0,0 +1,32 @@
+/*
+ * Copyright (C) 2024 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package vip.justlive.rabbit.converter;
+
+import com.fasterxml.jackson.dataformat.smile.databind.SmileMapper;
+
+/**
+ * Smile编解码器，需要引入jackson-dataformat-smile
+ *
+ * @author wubo
+ */
+public class SmileCodec extends JacksonCodec {
+
+  public static final String NAME = "smile";
+  public static final String CONTENT_TYPE = "application/x-jackson-smile";
+
+  public SmileCodec() {
+    super(NAME, CONTENT_TYPE, new SmileMapper());
+  }
+}
@@ -0,0 +1,103 @@
+/*
+ * Copyright (C) 2024 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package vip.justlive.rabbit.converter;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+import java.util.zip.InflaterInputStream;
+import org.springframework.amqp.support.converter.MessageConversionException;
+
+/**
+ * 基于java.util.zip的压缩算法，内置gzip和deflate
+ *
+ * @author wubo
+ */
+public abstract class ZipCompression implements Compression {
+
+  public static final String GZIP = "gzip";
+  public static final String DEFLATE = "deflate";
+
+  @Override
+  public byte[] compress(byte[] data) {
+    ByteArrayOutputStream bos = new ByteArrayOutputStream(Math.max(32, data.length / 2));
+    try (OutputStream out = wrap(bos)) {
+      out.write(data);
+    } catch (IOException e) {
+      throw new MessageConversionException("failed to compress message with " + name(), e);
+    }
+    return bos.toByteArray();
+  }
+
+  @Override
+  public byte[] decompress(byte[] data) {
+    try (InputStream in = wrap(new ByteArrayInputStream(data))) {
+      return in.readAllBytes();
+    } catch (IOException e) {
+      throw new MessageConversionException("failed to decompress message with " + name(), e);
+    }
+  }
+
+  protected abstract OutputStream wrap(OutputStream out) throws IOException;
+
+  protected abstract InputStream wrap(InputStream in) throws IOException;
+
+  /**
+   * gzip
+   */
+  public static class Gzip extends ZipCompression {
+
+    @Override
+    public String name() {
+      return GZIP;
+    }
+
+    @Override
+    protected OutputStream wrap(OutputStream out) throws IOException {
+      return new GZIPOutputStream(out);
+    }
+
+    @Override
+    protected InputStream wrap(InputStream in) throws IOException {
+      return new GZIPInputStream(in);
+    }
+  }
+
+  /**
+   * deflate
+   */
+  public static class Deflate extends ZipCompression {
+
+    @Override
+    public String name() {
+      return DEFLATE;
+    }
+
+    @Override
+    protected OutputStream wrap(OutputStream out) {
+      return new DeflaterOutputStream(out);
+    }
+
+    @Override
+    protected InputStream wrap(InputStream in) {
+      return new InflaterInputStream(in);
+    }
+  }
+}
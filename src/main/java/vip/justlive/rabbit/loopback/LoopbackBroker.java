@@ -0,0 +1,265 @@
+/*
+ * Copyright (C) 2024 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package vip.justlive.rabbit.loopback;
+
+import com.rabbitmq.client.AMQP.BasicProperties;
+import java.io.IOException;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 进程内的broker，实现direct、topic、fanout、headers交换器和队列，同一数据源的连接共享一个实例
+ *
+ * @author wubo
+ */
+public final class LoopbackBroker {
+
+  private static final Map<String, LoopbackBroker> BROKERS = new ConcurrentHashMap<>(4);
+  private static final Set<String> TYPES = Set.of("direct", "topic", "fanout", "headers");
+
+  private final String name;
+  private final Map<String, Exchange> exchanges = new ConcurrentHashMap<>();
+  private final Map<String, LoopbackQueue> queues = new ConcurrentHashMap<>();
+  private final AtomicInteger generated = new AtomicInteger();
+  private volatile ScheduledExecutorService timer;
+
+  private LoopbackBroker(String name) {
+    this.name = name;
+  }
+
+  /**
+   * 获取数据源对应的broker
+   *
+   * @param name 数据源名称
+   * @return broker
+   */
+  public static LoopbackBroker of(String name) {
+    return BROKERS.computeIfAbsent(name, LoopbackBroker::new);
+  }
+
+  /**
+   * 队列中待投递的消息数
+   *
+   * @param queue 队列名称
+   * @return 队列不存在时为0
+   */
+  public int messageCount(String queue) {
+    LoopbackQueue q = queues.get(queue);
+    return q == null ? 0 : q.messageCount();
+  }
+
+  /**
+   * 队列的消费者数
+   *
+   * @param queue 队列名称
+   * @return 队列不存在时为0
+   */
+  public int consumerCount(String queue) {
+    LoopbackQueue q = queues.get(queue);
+    return q == null ? 0 : q.consumerCount();
+  }
+
+  String getName() {
+    return name;
+  }
+
+  void declareExchange(String exchange, String type) throws IOException {
+    if (!TYPES.contains(type)) {
+      throw new IOException("COMMAND_INVALID - unknown exchange type '" + type + "'");
+    }
+    Exchange existing = exchanges.putIfAbsent(exchange, new Exchange(type));
+    if (existing != null && !existing.type.equals(type)) {
+      throw new IOException("PRECONDITION_FAILED - inequivalent arg 'type' for exchange '"
+          + exchange + "': received '" + type + "' but current is '" + existing.type + "'");
+    }
+  }
+
+  void checkExchange(String exchange) throws IOException {
+    if (!exchange.isEmpty() && !exchanges.containsKey(exchange)) {
+      throw new IOException("NOT_FOUND - no exchange '" + exchange + "'");
+    }
+  }
+
+  void deleteExchange(String exchange) {
+    exchanges.remove(exchange);
+  }
+
+  LoopbackQueue declareQueue(String queue, Map<String, Object> args) {
+    String actual = queue == null || queue.isEmpty()
+        ? "amq.gen-" + name + "-" + generated.incrementAndGet() : queue;
+    return queues.computeIfAbsent(actual, k -> new LoopbackQueue(this, k, args));
+  }
+
+  LoopbackQueue queue(String queue) throws IOException {
+    LoopbackQueue q = queues.get(queue);
+    if (q == null) {
+      throw new IOException("NOT_FOUND - no queue '" + queue + "'");
+    }
+    return q;
+  }
+
+  int deleteQueue(String queue) {
+    LoopbackQueue q = queues.remove(queue);
+    if (q == null) {
+      return 0;
+    }
+    for (Exchange exchange : exchanges.values()) {
+      exchange.bindings.removeIf(binding -> binding.queue == q);
+    }
+    return q.delete();
+  }
+
+  void bind(String queue, String exchange, String routingKey, Map<String, Object> args)
+      throws IOException {
+    LoopbackQueue q = queue(queue);
+    checkExchange(exchange);
+    Exchange ex = exchanges.get(exchange);
+    if (ex == null) {
+      throw new IOException("ACCESS_REFUSED - operation not permitted on the default exchange");
+    }
+    Binding binding = new Binding(q, routingKey, args == null ? Collections.emptyMap() : args);
+    if (!ex.bindings.contains(binding)) {
+      ex.bindings.add(binding);
+    }
+  }
+
+  void unbind(String queue, String exchange, String routingKey) {
+    Exchange ex = exchanges.get(exchange);
+    if (ex != null) {
+      ex.bindings.removeIf(
+          binding -> binding.queue.getName().equals(queue) && binding.key.equals(routingKey));
+    }
+  }
+
+  /**
+   * 路由并投递消息
+   *
+   * @return 投递到的队列数，为0时消息不可路由；有队列拒绝时为负数，发布方收到nack
+   */
+  int publish(String exchange, String routingKey, BasicProperties props, byte[] body) {
+    Collection<LoopbackQueue> targets = route(exchange, routingKey, props);
+    if (targets.isEmpty()) {
+      return 0;
+    }
+    Delivery delivery = new Delivery(exchange, routingKey, props, body, false);
+    boolean rejected = false;
+    for (LoopbackQueue queue : targets) {
+      rejected |= !queue.offer(delivery);
+    }
+    return rejected ? -targets.size() : targets.size();
+  }
+
+  void schedule(Runnable task, long delay) {
+    ScheduledExecutorService executor = timer;
+    if (executor == null) {
+      synchronized (this) {
+        executor = timer;
+        if (executor == null) {
+          executor = Executors.newSingleThreadScheduledExecutor(
+              Thread.ofPlatform().daemon().name("easy-rabbit-loopback-" + name).factory());
+          timer = executor;
+        }
+      }
+    }
+    executor.schedule(task, delay, TimeUnit.MILLISECONDS);
+  }
+
+  private Collection<LoopbackQueue> route(String exchange, String routingKey,
+      BasicProperties props) {
+    if (exchange.isEmpty()) {
+      LoopbackQueue queue = queues.get(routingKey);
+      return queue == null ? Collections.emptyList() : List.of(queue);
+    }
+    Exchange ex = exchanges.get(exchange);
+    if (ex == null) {
+      return Collections.emptyList();
+    }
+    Set<LoopbackQueue> targets = new LinkedHashSet<>(4);
+    for (Binding binding : ex.bindings) {
+      boolean matched = switch (ex.type) {
+        case "fanout" -> true;
+        case "topic" -> topic(binding.key, routingKey);
+        case "headers" -> headers(binding.args, props.getHeaders());
+        default -> binding.key.equals(routingKey);
+      };
+      if (matched) {
+        targets.add(binding.queue);
+      }
+    }
+    return targets;
+  }
+
+  static boolean topic(String pattern, String routingKey) {
+    return topic(pattern.split("\\.", -1), 0, routingKey.split("\\.", -1), 0);
+  }
+
+  private static boolean topic(String[] pattern, int i, String[] words, int j) {
+    if (i == pattern.length) {
+      return j == words.length;
+    }
+    if ("#".equals(pattern[i])) {
+      for (int n = j; n <= words.length; n++) {
+        if (topic(pattern, i + 1, words, n)) {
+          return true;
+        }
+      }
+      return false;
+    }
+    return j < words.length && ("*".equals(pattern[i]) || pattern[i].equals(words[j]))
+        && topic(pattern, i + 1, words, j + 1);
+  }
+
+  private static boolean headers(Map<String, Object> args, Map<String, Object> headers) {
+    boolean any = "any".equals(String.valueOf(args.get("x-match")));
+    int total = 0;
+    int matched = 0;
+    for (Map.Entry<String, Object> entry : args.entrySet()) {
+      if (entry.getKey().startsWith("x-")) {
+        continue;
+      }
+      total++;
+      Object value = headers == null ? null : headers.get(entry.getKey());
+      if (value != null && (entry.getValue() == null
+          || String.valueOf(entry.getValue()).equals(String.valueOf(value)))) {
+        matched++;
+      }
+    }
+    return any ? total == 0 || matched > 0 : matched == total;
+  }
+
+  private static final class Exchange {
+
+    private final String type;
+    private final List<Binding> bindings = new CopyOnWriteArrayList<>();
+
+    private Exchange(String type) {
+      this.type = type;
+    }
+  }
+
+  private record Binding(LoopbackQueue queue, String key, Map<String, Object> args) {
+
+  }
+}
@@ -0,0 +1,592 @@
+/*
+ * Copyright (C) 2024 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package vip.justlive.rabbit.loopback;
+
+import com.rabbitmq.client.AMQP;
+import com.rabbitmq.client.AMQP.BasicProperties;
+import com.rabbitmq.client.AlreadyClosedException;
+import com.rabbitmq.client.BuiltinExchangeType;
+import com.rabbitmq.client.Channel;
+import com.rabbitmq.client.ConfirmCallback;
+import com.rabbitmq.client.ConfirmListener;
+import com.rabbitmq.client.Consumer;
+import com.rabbitmq.client.Envelope;
+import com.rabbitmq.client.GetResponse;
+import com.rabbitmq.client.Return;
+import com.rabbitmq.client.ReturnCallback;
+import com.rabbitmq.client.ReturnListener;
+import com.rabbitmq.client.ShutdownListener;
+import com.rabbitmq.client.ShutdownSignalException;
+import com.rabbitmq.client.impl.LongStringHelper;
+import java.io.IOException;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * 进程内channel，通过jdk代理实现{@link Channel}中spring-rabbit使用到的方法
+ * <br>
+ * 每个channel有独立的串行分发线程，投递顺序与broker一致，未确认的消息在channel关闭时重回队列
+ *
+ * @author wubo
+ */
+@Slf4j
+final class LoopbackChannel implements InvocationHandler {
+
+  private static final AtomicInteger CONSUMER_TAGS = new AtomicInteger();
+
+  private final LoopbackConnection connection;
+  private final LoopbackBroker broker;
+  private final int number;
+  private final Channel proxy;
+  private final AtomicLong deliveryTags = new AtomicLong();
+  private final NavigableMap<Long, Unacked> unacked = new ConcurrentSkipListMap<>();
+  private final Map<String, Subscription> subscriptions = new ConcurrentHashMap<>(2);
+  private final List<ShutdownListener> shutdownListeners = new CopyOnWriteArrayList<>();
+  private final List<ConfirmListener> confirmListeners = new CopyOnWriteArrayList<>();
+  private final List<ReturnListener> returnListeners = new CopyOnWriteArrayList<>();
+  private volatile ExecutorService dispatcher;
+  private volatile boolean open = true;
+  private volatile int prefetch;
+  private boolean confirms;
+  private long publishSeqNo;
+
+  LoopbackChannel(LoopbackConnection connection, LoopbackBroker broker, int number) {
+    this.connection = connection;
+    this.broker = broker;
+    this.number = number;
+    this.proxy = (Channel) Proxy.newProxyInstance(Channel.class.getClassLoader(),
+        new Class<?>[]{Channel.class}, this);
+  }
+
+  Channel proxy() {
+    return proxy;
+  }
+
+  int getNumber() {
+    return number;
+  }
+
+  @Override
+  public Object invoke(Object target, Method method, Object[] args) throws Throwable {
+    String name = method.getName();
+    switch (name) {
+      case "equals":
+        return target == args[0];
+      case "hashCode":
+        return System.identityHashCode(target);
+      case "toString":
+        return "LoopbackChannel(" + broker.getName() + "#" + number + ")";
+      case "getChannelNumber":
+        return number;
+      case "getConnection":
+        return connection.proxy();
+      case "isOpen":
+        return open;
+      case "getCloseReason", "getDefaultConsumer", "setDefaultConsumer":
+        return null;
+      case "close", "abort":
+        close();
+        return null;
+      case "addShutdownListener":
+        shutdownListeners.add((ShutdownListener) args[0]);
+        return null;
+      case "removeShutdownListener":
+        shutdownListeners.remove((ShutdownListener) args[0]);
+        return null;
+      default:
+        break;
+    }
+    if (!open) {
+      throw new AlreadyClosedException(new ShutdownSignalException(false, true, null, target));
+    }
+    return switch (name) {
+      case "basicQos" -> {
+        prefetch = (Integer) args[args.length == 3 ? 1 : 0];
+        yield null;
+      }
+      case "exchangeDeclare", "exchangeDeclareNoWait" -> {
+        String type = args[1] instanceof BuiltinExchangeType builtin ? builtin.getType()
+            : (String) args[1];
+        broker.declareExchange((String) args[0], type);
+        yield reply(method);
+      }
+      case "exchangeDeclarePassive" -> {
+        broker.checkExchange((String) args[0]);
+        yield reply(method);
+      }
+      case "exchangeDelete", "exchangeDeleteNoWait" -> {
+        broker.deleteExchange((String) args[0]);
+        yield reply(method);
+      }
+      case "queueDeclare", "queueDeclareNoWait" -> queueDeclare(method, args);
+      case "queueDeclarePassive" -> {
+        LoopbackQueue queue = broker.queue((String) args[0]);
+        yield reply(method, "getQueue", queue.getName(), "getMessageCount",
+            queue.messageCount(), "getConsumerCount", queue.consumerCount());
+      }
+      case "queueDelete", "queueDeleteNoWait" ->
+          reply(method, "getMessageCount", broker.deleteQueue((String) args[0]));
+      case "queuePurge" ->
+          reply(method, "getMessageCount", broker.queue((String) args[0]).purge());
+      case "queueBind", "queueBindNoWait" -> {
+        broker.bind((String) args[0], (String) args[1], (String) args[2], arguments(args, 3));
+        yield reply(method);
+      }
+      case "queueUnbind" -> {
+        broker.unbind((String) args[0], (String) args[1], (String) args[2]);
+        yield reply(method);
+      }
+      case "messageCount" -> (long) broker.queue((String) args[0]).messageCount();
+      case "consumerCount" -> (long) broker.queue((String) args[0]).consumerCount();
+      case "basicPublish" -> {
+        basicPublish(args);
+        yield null;
+      }
+      case "basicGet" -> basicGet((String) args[0], (Boolean) args[1]);
+      case "basicConsume" -> basicConsume(args);
+      case "basicCancel" -> {
+        basicCancel((String) args[0]);
+        yield null;
+      }
+      case "basicAck" -> {
+        settle((Long) args[0], (Boolean) args[1], null);
+        yield null;
+      }
+      case "basicNack" -> {
+        settle((Long) args[0], (Boolean) args[1], (Boolean) args[2]);
+        yield null;
+      }
+      case "basicReject" -> {
+        settle((Long) args[0], false, (Boolean) args[1]);
+        yield null;
+      }
+      case "basicRecover" -> {
+        recover();
+        yield reply(method);
+      }
+      case "confirmSelect" -> {
+        confirmSelect();
+        yield reply(method);
+      }
+      case "getNextPublishSeqNo" -> nextPublishSeqNo();
+      case "waitForConfirms" -> true;
+      case "waitForConfirmsOrDie", "txSelect", "txCommit", "txRollback" -> reply(method);
+      case "addConfirmListener" -> addConfirmListener(args);
+      case "removeConfirmListener" -> confirmListeners.remove((ConfirmListener) args[0]);
+      case "clearConfirmListeners" -> {
+        confirmListeners.clear();
+        yield null;
+      }
+      case "addReturnListener" -> addReturnListener(args[0]);
+      case "removeReturnListener" -> returnListeners.remove((ReturnListener) args[0]);
+      case "clearReturnListeners" -> {
+        returnListeners.clear();
+        yield null;
+      }
+      default -> throw new UnsupportedOperationException(
+          "loopback channel does not support " + method);
+    };
+  }
+
+  private synchronized void confirmSelect() {
+    confirms = true;
+  }
+
+  private synchronized long nextPublishSeqNo() {
+    return confirms ? publishSeqNo + 1 : 0L;
+  }
+
+  private Object queueDeclare(Method method, Object[] args) {
+    LoopbackQueue queue;
+    if (args == null || args.length == 0) {
+      queue = broker.declareQueue(null, null);
+    } else {
+      queue = broker.declareQueue((String) args[0], arguments(args, 4));
+    }
+    return reply(method, "getQueue", queue.getName(), "getMessageCount", queue.messageCount(),
+        "getConsumerCount", queue.consumerCount());
+  }
+
+  private void basicPublish(Object[] args) {
+    String exchange = (String) args[0];
+    String routingKey = (String) args[1];
+    boolean mandatory = args.length > 4 && (Boolean) args[2];
+    BasicProperties props = (BasicProperties) args[args.length - 2];
+    props = props == null ? new BasicProperties() : wire(props);
+    byte[] body = (byte[]) args[args.length - 1];
+    int routed = broker.publish(exchange, routingKey, props, body);
+    if (routed == 0 && mandatory) {
+      for (ReturnListener listener : returnListeners) {
+        try {
+          listener.handleReturn(312, "NO_ROUTE", exchange, routingKey, props, body);
+        } catch (IOException e) {
+          log.warn("loopback return listener failed", e);
+        }
+      }
+    }
+    long seqNo;
+    synchronized (this) {
+      if (!confirms) {
+        return;
+      }
+      seqNo = ++publishSeqNo;
+    }
+    for (ConfirmListener listener : confirmListeners) {
+      try {
+        if (routed < 0) {
+          listener.handleNack(seqNo, false);
+        } else {
+          listener.handleAck(seqNo, false);
+        }
+      } catch (IOException e) {
+        log.warn("loopback confirm listener failed", e);
+      }
+    }
+  }
+
+  /**
+   * 与经过网络编解码的消息一致，消息头中的字符串转为LongString
+   */
+  private static BasicProperties wire(BasicProperties props) {
+    if (props.getHeaders() == null || props.getHeaders().isEmpty()) {
+      return props;
+    }
+    return props.builder().headers(wire(props.getHeaders())).build();
+  }
+
+  private static Map<String, Object> wire(Map<?, ?> map) {
+    Map<String, Object> result = new LinkedHashMap<>(map.size() * 2);
+    map.forEach((k, v) -> result.put(String.valueOf(k), wireValue(v)));
+    return result;
+  }
+
+  private static Object wireValue(Object value) {
+    return switch (value) {
+      case String v -> LongStringHelper.asLongString(v);
+      case Map<?, ?> v -> wire(v);
+      case List<?> v -> v.stream().map(LoopbackChannel::wireValue).toList();
+      case null, default -> value;
+    };
+  }
+
+  private GetResponse basicGet(String queueName, boolean autoAck) throws IOException {
+    LoopbackQueue queue = broker.queue(queueName);
+    Delivery delivery = queue.poll();
+    if (delivery == null) {
+      return null;
+    }
+    long tag = deliveryTags.incrementAndGet();
+    if (!autoAck) {
+      unacked.put(tag, new Unacked(queue, null, delivery));
+    }
+    return new GetResponse(envelope(tag, delivery), delivery.props(), delivery.body(),
+        queue.messageCount());
+  }
+
+  private String basicConsume(Object[] args) throws IOException {
+    LoopbackQueue queue = broker.queue((String) args[0]);
+    boolean autoAck = args.length > 2 && (Boolean) args[1];
+    String tag = args.length > 3 && args[2] instanceof String s && !s.isEmpty() ? s
+        : "amq.ctag-loopback-" + CONSUMER_TAGS.incrementAndGet();
+    if (!(args[args.length - 1] instanceof Consumer consumer)) {
+      throw new UnsupportedOperationException(
+          "loopback channel only supports basicConsume with a Consumer");
+    }
+    if (subscriptions.containsKey(tag)) {
+      throw new IOException("NOT_ALLOWED - attempt to reuse consumer tag '" + tag + "'");
+    }
+    Subscription subscription = new Subscription(tag, queue, consumer, autoAck, prefetch);
+    subscriptions.put(tag, subscription);
+    // 与客户端一致，basicConsume返回前consumer已收到consumeOk
+    consumer.handleConsumeOk(tag);
+    queue.subscribe(subscription);
+    return tag;
+  }
+
+  private void basicCancel(String tag) throws IOException {
+    Subscription subscription = subscriptions.remove(tag);
+    if (subscription == null) {
+      throw new IOException("Unknown consumerTag " + tag);
+    }
+    subscription.queue.unsubscribe(subscription);
+    execute(() -> subscription.consumer.handleCancelOk(tag));
+  }
+
+  /**
+   * 确认或拒绝消息，requeue为null时表示ack
+   */
+  private void settle(long tag, boolean multiple, Boolean requeue) throws IOException {
+    List<Unacked> settled;
+    if (multiple) {
+      NavigableMap<Long, Unacked> head = unacked.headMap(tag, true);
+      settled = new ArrayList<>(head.values());
+      head.clear();
+    } else {
+      Unacked entry = unacked.remove(tag);
+      if (entry == null) {
+        throw new IOException("PRECONDITION_FAILED - unknown delivery tag " + tag);
+      }
+      settled = List.of(entry);
+    }
+    release(settled, requeue);
+  }
+
+  private void recover() {
+    List<Unacked> settled = new ArrayList<>(unacked.values());
+    unacked.clear();
+    release(settled, true);
+  }
+
+  private void release(List<Unacked> settled, Boolean requeue) {
+    // 倒序重回队首，保持原来的顺序
+    for (int i = settled.size() - 1; requeue != null && i >= 0; i--) {
+      Unacked entry = settled.get(i);
+      if (requeue) {
+        entry.queue.requeue(entry.delivery);
+      } else {
+        entry.queue.deadLetter(entry.delivery, "rejected");
+      }
+    }
+    // 消息回到队首之后才释放prefetch，否则并发的分发会把后面的消息先投递出去
+    for (Unacked entry : settled) {
+      if (entry.subscription != null) {
+        entry.subscription.outstanding.decrementAndGet();
+      }
+    }
+    for (Unacked entry : settled) {
+      entry.queue.dispatch();
+    }
+  }
+
+  private Object addConfirmListener(Object[] args) {
+    ConfirmListener listener;
+    if (args[0] instanceof ConfirmListener confirmListener) {
+      listener = confirmListener;
+    } else {
+      ConfirmCallback ack = (ConfirmCallback) args[0];
+      ConfirmCallback nack = (ConfirmCallback) args[1];
+      listener = new ConfirmListener() {
+        @Override
+        public void handleAck(long deliveryTag, boolean multiple) throws IOException {
+          ack.handle(deliveryTag, multiple);
+        }
+
+        @Override
+        public void handleNack(long deliveryTag, boolean multiple) throws IOException {
+          nack.handle(deliveryTag, multiple);
+        }
+      };
+    }
+    confirmListeners.add(listener);
+    return listener;
+  }
+
+  private Object addReturnListener(Object arg) {
+    ReturnListener listener;
+    if (arg instanceof ReturnListener returnListener) {
+      listener = returnListener;
+    } else {
+      ReturnCallback callback = (ReturnCallback) arg;
+      listener = (replyCode, replyText, exchange, routingKey, props, body) -> callback.handle(
+          new Return(replyCode, replyText, exchange, routingKey, props, body));
+    }
+    returnListeners.add(listener);
+    return listener;
+  }
+
+  void close() {
+    if (!open) {
+      return;
+    }
+    open = false;
+    ShutdownSignalException cause = new ShutdownSignalException(false, true, null, proxy);
+    List<Subscription> cancelled = new ArrayList<>(subscriptions.values());
+    subscriptions.clear();
+    for (Subscription subscription : cancelled) {
+      subscription.queue.unsubscribe(subscription);
+    }
+    recover();
+    ExecutorService executor = dispatcher;
+    if (executor != null) {
+      executor.execute(() -> {
+        for (Subscription subscription : cancelled) {
+          subscription.consumer.handleShutdownSignal(subscription.tag, cause);
+        }
+      });
+      executor.shutdown();
+    }
+    for (ShutdownListener listener : shutdownListeners) {
+      listener.shutdownCompleted(cause);
+    }
+    connection.closed(this);
+  }
+
+  private void execute(ConsumerTask task) {
+    ExecutorService executor = dispatcher;
+    if (executor == null) {
+      synchronized (this) {
+        executor = dispatcher;
+        if (executor == null) {
+          executor = Executors.newSingleThreadExecutor(Thread.ofVirtual()
+              .name("easy-rabbit-loopback-" + broker.getName() + "-" + number).factory());
+          dispatcher = executor;
+        }
+      }
+    }
+    executor.execute(() -> {
+      try {
+        task.run();
+      } catch (Exception e) {
+        log.warn("loopback consumer on channel [{}] failed", number, e);
+      }
+    });
+  }
+
+  private static Envelope envelope(long tag, Delivery delivery) {
+    return new Envelope(tag, delivery.redelivered(), delivery.exchange(), delivery.routingKey());
+  }
+
+  @SuppressWarnings("unchecked")
+  private static Map<String, Object> arguments(Object[] args, int index) {
+    if (args.length > index && args[index] instanceof Map<?, ?> map) {
+      return (Map<String, Object>) map;
+    }
+    return null;
+  }
+
+  /**
+   * 构造AMQP方法的响应，属性按方法名取值
+   */
+  private static Object reply(Method method, Object... values) {
+    Class<?> type = method.getReturnType();
+    if (type == void.class) {
+      return null;
+    }
+    return Proxy.newProxyInstance(AMQP.class.getClassLoader(), new Class<?>[]{type},
+        (target, m, args) -> {
+          for (int i = 0; i < values.length; i += 2) {
+            if (values[i].equals(m.getName())) {
+              return values[i + 1];
+            }
+          }
+          return switch (m.getName()) {
+            case "toString" -> type.getSimpleName();
+            case "hashCode" -> System.identityHashCode(target);
+            case "equals" -> target == args[0];
+            default -> defaultValue(m.getReturnType());
+          };
+        });
+  }
+
+  static Object defaultValue(Class<?> type) {
+    if (type == boolean.class) {
+      return false;
+    }
+    if (type == int.class) {
+      return 0;
+    }
+    if (type == long.class) {
+      return 0L;
+    }
+    if (type == short.class) {
+      return (short) 0;
+    }
+    if (type == byte.class) {
+      return (byte) 0;
+    }
+    if (type == double.class) {
+      return 0D;
+    }
+    if (type == float.class) {
+      return 0F;
+    }
+    if (type == char.class) {
+      return (char) 0;
+    }
+    return null;
+  }
+
+  @FunctionalInterface
+  private interface ConsumerTask {
+
+    void run() throws Exception;
+  }
+
+  private record Unacked(LoopbackQueue queue, Subscription subscription, Delivery delivery) {
+
+  }
+
+  /**
+   * 队列上的一个消费者
+   */
+  final class Subscription {
+
+    private final String tag;
+    private final LoopbackQueue queue;
+    private final Consumer consumer;
+    private final boolean autoAck;
+    private final int prefetch;
+    private final AtomicInteger outstanding = new AtomicInteger();
+
+    private Subscription(String tag, LoopbackQueue queue, Consumer consumer, boolean autoAck,
+        int prefetch) {
+      this.tag = tag;
+      this.queue = queue;
+      this.consumer = consumer;
+      this.autoAck = autoAck;
+      this.prefetch = prefetch;
+    }
+
+    boolean hasCapacity() {
+      return autoAck || prefetch <= 0 || outstanding.get() < prefetch;
+    }
+
+    /**
+     * 在队列锁内调用，只登记未确认消息并提交到分发线程
+     */
+    void deliver(Delivery delivery) {
+      long deliveryTag = deliveryTags.incrementAndGet();
+      if (!autoAck) {
+        outstanding.incrementAndGet();
+        unacked.put(deliveryTag, new Unacked(queue, this, delivery));
+      }
+      Envelope envelope = envelope(deliveryTag, delivery);
+      execute(() -> {
+        if (open) {
+          consumer.handleDelivery(tag, envelope, delivery.props(), delivery.body());
+        }
+      });
+    }
+
+    void cancelled() {
+      subscriptions.remove(tag);
+      execute(() -> consumer.handleCancel(tag));
+    }
+  }
+}
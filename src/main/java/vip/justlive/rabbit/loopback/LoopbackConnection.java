@@ -0,0 +1,125 @@
+/*
+ * Copyright (C) 2024 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package vip.justlive.rabbit.loopback;
+
+import com.rabbitmq.client.BlockedListener;
+import com.rabbitmq.client.Connection;
+import com.rabbitmq.client.ShutdownListener;
+import com.rabbitmq.client.ShutdownSignalException;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.net.InetAddress;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 进程内连接，通过jdk代理实现{@link Connection}
+ *
+ * @author wubo
+ */
+final class LoopbackConnection implements InvocationHandler {
+
+  private static final int CHANNEL_MAX = 2047;
+
+  private final LoopbackBroker broker;
+  private final String name;
+  private final Connection proxy;
+  private final AtomicInteger channelNumbers = new AtomicInteger();
+  private final Map<Integer, LoopbackChannel> channels = new ConcurrentHashMap<>();
+  private final List<ShutdownListener> shutdownListeners = new CopyOnWriteArrayList<>();
+  private volatile boolean open = true;
+
+  LoopbackConnection(LoopbackBroker broker, String name) {
+    this.broker = broker;
+    this.name = name;
+    this.proxy = (Connection) Proxy.newProxyInstance(Connection.class.getClassLoader(),
+        new Class<?>[]{Connection.class}, this);
+  }
+
+  Connection proxy() {
+    return proxy;
+  }
+
+  @Override
+  public Object invoke(Object target, Method method, Object[] args) {
+    return switch (method.getName()) {
+      case "equals" -> target == args[0];
+      case "hashCode" -> System.identityHashCode(target);
+      case "toString" -> "LoopbackConnection(" + broker.getName() + ")";
+      case "isOpen" -> open;
+      case "createChannel" -> createChannel(args);
+      case "openChannel" -> Optional.ofNullable(createChannel(args));
+      case "close", "abort" -> {
+        close();
+        yield null;
+      }
+      case "addShutdownListener" -> {
+        shutdownListeners.add((ShutdownListener) args[0]);
+        yield null;
+      }
+      case "removeShutdownListener" -> {
+        shutdownListeners.remove((ShutdownListener) args[0]);
+        yield null;
+      }
+      // 进程内不会发生流控，阻塞监听器不会被回调
+      case "addBlockedListener" -> args[0] instanceof BlockedListener listener ? listener : null;
+      case "removeBlockedListener" -> true;
+      case "getAddress" -> InetAddress.getLoopbackAddress();
+      case "getChannelMax" -> CHANNEL_MAX;
+      case "getClientProvidedName", "getId" -> name;
+      case "getClientProperties", "getServerProperties" ->
+          Map.of("product", "easy-rabbit-loopback");
+      default -> LoopbackChannel.defaultValue(method.getReturnType());
+    };
+  }
+
+  private Object createChannel(Object[] args) {
+    if (!open) {
+      return null;
+    }
+    int number = args == null || args.length == 0 ? 0 : (Integer) args[0];
+    int actual = number > 0 ? number : channelNumbers.incrementAndGet();
+    if (actual > CHANNEL_MAX || channels.containsKey(actual)) {
+      return null;
+    }
+    LoopbackChannel channel = new LoopbackChannel(this, broker, actual);
+    channels.put(actual, channel);
+    return channel.proxy();
+  }
+
+  void closed(LoopbackChannel channel) {
+    channels.remove(channel.getNumber(), channel);
+  }
+
+  private void close() {
+    if (!open) {
+      return;
+    }
+    open = false;
+    for (LoopbackChannel channel : new ArrayList<>(channels.values())) {
+      channel.close();
+    }
+    ShutdownSignalException cause = new ShutdownSignalException(true, true, null, proxy);
+    for (ShutdownListener listener : shutdownListeners) {
+      listener.shutdownCompleted(cause);
+    }
+  }
+}
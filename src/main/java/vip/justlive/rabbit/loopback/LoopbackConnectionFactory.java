@@ -0,0 +1,46 @@
+/*
+ * Copyright (C) 2024 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package vip.justlive.rabbit.loopback;
+
+import com.rabbitmq.client.AddressResolver;
+import com.rabbitmq.client.Connection;
+import com.rabbitmq.client.ConnectionFactory;
+import java.util.concurrent.ExecutorService;
+
+/**
+ * 进程内的连接工厂，替换数据源的客户端连接工厂，CachingConnectionFactory及以上的组件保持不变
+ * <br>
+ * 用于没有broker的环境下端到端测试生产、消费流程，以及排除网络影响测量组件本身的开销
+ *
+ * @author wubo
+ */
+public class LoopbackConnectionFactory extends ConnectionFactory {
+
+  private final LoopbackBroker broker;
+
+  public LoopbackConnectionFactory(LoopbackBroker broker) {
+    this.broker = broker;
+  }
+
+  public LoopbackBroker getBroker() {
+    return broker;
+  }
+
+  @Override
+  public Connection newConnection(ExecutorService executor, AddressResolver addressResolver,
+      String clientProvidedName) {
+    return new LoopbackConnection(broker, clientProvidedName).proxy();
+  }
+}
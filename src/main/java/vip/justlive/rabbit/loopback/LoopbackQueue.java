@@ -0,0 +1,196 @@
+/*
+ * Copyright (C) 2024 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package vip.justlive.rabbit.loopback;
+
+import com.rabbitmq.client.AMQP.BasicProperties;
+import com.rabbitmq.client.impl.LongStringHelper;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 进程内队列，按消费者的prefetch轮询投递，支持ttl、死信和reject-publish长度限制
+ *
+ * @author wubo
+ */
+final class LoopbackQueue {
+
+  private final LoopbackBroker broker;
+  private final String name;
+  private final long ttl;
+  private final String deadLetterExchange;
+  private final String deadLetterRouting;
+  private final int maxLength;
+  private final boolean rejectPublish;
+  private final Deque<Delivery> ready = new ArrayDeque<>();
+  private final List<LoopbackChannel.Subscription> subscriptions = new ArrayList<>(2);
+  private int next;
+
+  LoopbackQueue(LoopbackBroker broker, String name, Map<String, Object> args) {
+    this.broker = broker;
+    this.name = name;
+    Map<String, Object> arguments = args == null ? Map.of() : args;
+    this.ttl = arguments.get("x-message-ttl") instanceof Number n ? n.longValue() : -1;
+    Object dlx = arguments.get("x-dead-letter-exchange");
+    this.deadLetterExchange = dlx == null ? null : dlx.toString();
+    Object dlk = arguments.get("x-dead-letter-routing-key");
+    this.deadLetterRouting = dlk == null ? null : dlk.toString();
+    this.maxLength = arguments.get("x-max-length") instanceof Number n ? n.intValue() : -1;
+    // 只实现reject-publish，队列满时拒绝新消息
+    this.rejectPublish = "reject-publish".equals(String.valueOf(arguments.get("x-overflow")));
+  }
+
+  String getName() {
+    return name;
+  }
+
+  synchronized int messageCount() {
+    return ready.size();
+  }
+
+  synchronized int consumerCount() {
+    return subscriptions.size();
+  }
+
+  /**
+   * 入队
+   *
+   * @param delivery 消息
+   * @return 队列满按reject-publish拒绝时为false
+   */
+  boolean offer(Delivery delivery) {
+    synchronized (this) {
+      if (rejectPublish && maxLength >= 0 && ready.size() >= maxLength) {
+        return false;
+      }
+      ready.addLast(delivery);
+      dispatch();
+    }
+    long expiration = expiration(delivery.props());
+    if (expiration > 0) {
+      broker.schedule(() -> expire(delivery), expiration);
+    }
+    return true;
+  }
+
+  synchronized void requeue(Delivery delivery) {
+    ready.addFirst(delivery.redeliver());
+    dispatch();
+  }
+
+  synchronized Delivery poll() {
+    return ready.pollFirst();
+  }
+
+  synchronized int purge() {
+    int count = ready.size();
+    ready.clear();
+    return count;
+  }
+
+  synchronized void subscribe(LoopbackChannel.Subscription subscription) {
+    subscriptions.add(subscription);
+    dispatch();
+  }
+
+  synchronized boolean unsubscribe(LoopbackChannel.Subscription subscription) {
+    return subscriptions.remove(subscription);
+  }
+
+  /**
+   * 消费者确认后有了新的额度，继续投递
+   */
+  synchronized void dispatch() {
+    while (!ready.isEmpty()) {
+      LoopbackChannel.Subscription target = pick();
+      if (target == null) {
+        return;
+      }
+      target.deliver(ready.pollFirst());
+    }
+  }
+
+  int delete() {
+    List<LoopbackChannel.Subscription> cancelled;
+    int count;
+    synchronized (this) {
+      cancelled = new ArrayList<>(subscriptions);
+      subscriptions.clear();
+      count = ready.size();
+      ready.clear();
+    }
+    for (LoopbackChannel.Subscription subscription : cancelled) {
+      subscription.cancelled();
+    }
+    return count;
+  }
+
+  /**
+   * 拒绝且不重回队列的消息，配置了死信交换器时转发，否则丢弃
+   */
+  void deadLetter(Delivery delivery, String reason) {
+    if (deadLetterExchange == null) {
+      return;
+    }
+    BasicProperties props = delivery.props();
+    Map<String, Object> headers = props.getHeaders() == null ? new HashMap<>(4)
+        : new HashMap<>(props.getHeaders());
+    headers.putIfAbsent("x-first-death-queue", LongStringHelper.asLongString(name));
+    headers.putIfAbsent("x-first-death-reason", LongStringHelper.asLongString(reason));
+    headers.putIfAbsent("x-first-death-exchange",
+        LongStringHelper.asLongString(delivery.exchange()));
+    BasicProperties dead = props.builder().headers(headers).expiration(null).build();
+    String routingKey = deadLetterRouting == null ? delivery.routingKey() : deadLetterRouting;
+    broker.publish(deadLetterExchange, routingKey, dead, delivery.body());
+  }
+
+  private void expire(Delivery delivery) {
+    boolean removed;
+    synchronized (this) {
+      removed = ready.removeIf(d -> d == delivery);
+    }
+    if (removed) {
+      deadLetter(delivery, "expired");
+    }
+  }
+
+  private long expiration(BasicProperties props) {
+    long expiration = ttl;
+    if (props.getExpiration() != null) {
+      try {
+        long perMessage = Long.parseLong(props.getExpiration());
+        expiration = expiration < 0 ? perMessage : Math.min(expiration, perMessage);
+      } catch (NumberFormatException e) {
+        // 与broker一致，非法的过期时间在发送时已被拒绝，这里忽略
+      }
+    }
+    return expiration;
+  }
+
+  private LoopbackChannel.Subscription pick() {
+    int size = subscriptions.size();
+    for (int i = 0; i < size; i++) {
+      LoopbackChannel.Subscription subscription = subscriptions.get((next + i) % size);
+      if (subscription.hasCapacity()) {
+        next = (next + i + 1) % size;
+        return subscription;
+      }
+    }
+    return null;
+  }
+}
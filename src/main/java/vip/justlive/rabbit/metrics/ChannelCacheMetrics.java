@@ -0,0 +1,70 @@
+/*
+ * Copyright (C) 2024 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package vip.justlive.rabbit.metrics;
+
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Tags;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Properties;
+import org.springframework.amqp.rabbit.connection.CachingConnectionFactory;
+
+/**
+ * 连接工厂channel缓存指标，tag为datasource和connection(consumer/publisher)
+ *
+ * @author wubo
+ */
+final class ChannelCacheMetrics implements MeterBinder {
+
+  private final String datasource;
+  private final Map<String, CachingConnectionFactory> factories = new LinkedHashMap<>(2);
+
+  ChannelCacheMetrics(String datasource, CachingConnectionFactory connectionFactory,
+      CachingConnectionFactory publisherConnectionFactory) {
+    this.datasource = datasource;
+    // 未开启独立连接时生产端和消费端共用一个连接
+    factories.put(publisherConnectionFactory == null ? "shared" : "consumer", connectionFactory);
+    if (publisherConnectionFactory != null) {
+      factories.put("publisher", publisherConnectionFactory);
+    }
+  }
+
+  @Override
+  public void bindTo(MeterRegistry registry) {
+    String prefix = MicrometerRabbitMetrics.PREFIX + "channel.";
+    for (Map.Entry<String, CachingConnectionFactory> entry : factories.entrySet()) {
+      Tags tags = Tags.of("datasource", datasource, "connection", entry.getKey());
+      CachingConnectionFactory factory = entry.getValue();
+      Gauge.builder(prefix + "cache.size", factory, CachingConnectionFactory::getChannelCacheSize)
+          .description("channel cache size, also the checkout limit when checkout-timeout is set")
+          .tags(tags).register(registry);
+      Gauge.builder(prefix + "idle", factory,
+              f -> cache(f, "idleChannelsNotTx") + cache(f, "idleChannelsTx"))
+          .description("idle channels in the cache").tags(tags).register(registry);
+      Gauge.builder(prefix + "idle.highwater", factory,
+              f -> cache(f, "idleChannelsNotTxHighWater") + cache(f, "idleChannelsTxHighWater"))
+          .description("max idle channels seen, close to cache.size means the cache is too small")
+          .tags(tags).register(registry);
+    }
+  }
+
+  private static double cache(CachingConnectionFactory factory, String key) {
+    Properties properties = factory.getCacheProperties();
+    String value = properties.getProperty(key);
+    return value == null ? 0 : Double.parseDouble(value);
+  }
+}
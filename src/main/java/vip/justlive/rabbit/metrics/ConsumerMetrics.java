@@ -0,0 +1,82 @@
+/*
+ * Copyright (C) 2024 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package vip.justlive.rabbit.metrics;
+
+/**
+ * 消费者指标
+ *
+ * @author wubo
+ */
+public interface ConsumerMetrics {
+
+  ConsumerMetrics NOOP = new ConsumerMetrics() {
+  };
+
+  /**
+   * 收到消息
+   *
+   * @param bytes 消息体大小
+   */
+  default void received(int bytes) {
+  }
+
+  /**
+   * 消息转换耗时
+   *
+   * @param nanos 耗时(ns)
+   */
+  default void converted(long nanos) {
+  }
+
+  /**
+   * 消息处理耗时，从收到消息到确认
+   *
+   * @param nanos 耗时(ns)
+   */
+  default void consumed(long nanos) {
+  }
+
+  /**
+   * ack
+   *
+   * @param count 消息条数
+   */
+  default void acked(int count) {
+  }
+
+  /**
+   * nack或转入重试
+   *
+   * @param count 消息条数
+   */
+  default void nacked(int count) {
+  }
+
+  /**
+   * 重复消息直接ack
+   *
+   * @param count 消息条数
+   */
+  default void duplicated(int count) {
+  }
+
+  /**
+   * 处理中的消息数变化
+   *
+   * @param delta 变化量
+   */
+  default void inflight(int delta) {
+  }
+}
@@ -0,0 +1,182 @@
+/*
+ * Copyright (C) 2024 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package vip.justlive.rabbit.metrics;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Tags;
+import io.micrometer.core.instrument.Timer;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.springframework.beans.factory.BeanFactory;
+
+/**
+ * micrometer指标实现
+ *
+ * @author wubo
+ */
+final class MicrometerRabbitMetrics implements RabbitMetrics {
+
+  static final String PREFIX = "easy.rabbit.";
+
+  private final MeterRegistry registry;
+  /**
+   * 同一组tag只注册一次gauge，多个消费者共用计数
+   */
+  private final Map<Tags, AtomicInteger> inflights = new ConcurrentHashMap<>(4);
+
+  private MicrometerRabbitMetrics(MeterRegistry registry) {
+    this.registry = registry;
+  }
+
+  static RabbitMetrics of(BeanFactory beanFactory) {
+    MeterRegistry registry = beanFactory.getBeanProvider(MeterRegistry.class).getIfAvailable();
+    if (registry == null) {
+      return NOOP;
+    }
+    return new MicrometerRabbitMetrics(registry);
+  }
+
+  @Override
+  public ConsumerMetrics consumer(String datasource, String group, String queue,
+      String exchange) {
+    Tags tags = Tags.of("datasource", datasource, "group", group, "queue", queue, "exchange",
+        exchange);
+    AtomicInteger inflight = inflights.computeIfAbsent(tags,
+        k -> registry.gauge(PREFIX + "consume.inflight", k, new AtomicInteger()));
+    return new Consumer(registry, tags, inflight);
+  }
+
+  @Override
+  public ProducerMetrics producer(String datasource, String queue, String exchange) {
+    Tags tags = Tags.of("datasource", datasource, "queue", queue, "exchange", exchange);
+    return new Producer(registry, tags);
+  }
+
+  @Override
+  public SpoolMetrics spool(String datasource) {
+    Tags tags = Tags.of("datasource", datasource);
+    Counter returned = Counter.builder(PREFIX + "spool.returned").tags(tags).register(registry);
+    Counter corrupted = Counter.builder(PREFIX + "spool.corrupt").tags(tags).register(registry);
+    return new SpoolMetrics() {
+      @Override
+      public void returned(int count) {
+        returned.increment(count);
+      }
+
+      @Override
+      public void corrupted(int count) {
+        corrupted.increment(count);
+      }
+    };
+  }
+
+  private static class Consumer implements ConsumerMetrics {
+
+    private final DistributionSummary payload;
+    private final Timer convert;
+    private final Timer consume;
+    private final Counter ack;
+    private final Counter nack;
+    private final Counter duplicate;
+    private final AtomicInteger inflight;
+
+    Consumer(MeterRegistry registry, Tags tags, AtomicInteger inflight) {
+      this.payload = DistributionSummary.builder(PREFIX + "consume.payload").baseUnit("bytes")
+          .tags(tags).register(registry);
+      this.convert = Timer.builder(PREFIX + "consume.convert").tags(tags).register(registry);
+      this.consume = Timer.builder(PREFIX + "consume").tags(tags).register(registry);
+      this.ack = Counter.builder(PREFIX + "consume.ack").tags(tags).register(registry);
+      this.nack = Counter.builder(PREFIX + "consume.nack").tags(tags).register(registry);
+      this.duplicate = Counter.builder(PREFIX + "consume.duplicate").tags(tags)
+          .register(registry);
+      this.inflight = inflight;
+    }
+
+    @Override
+    public void received(int bytes) {
+      payload.record(bytes);
+    }
+
+    @Override
+    public void converted(long nanos) {
+      convert.record(nanos, TimeUnit.NANOSECONDS);
+    }
+
+    @Override
+    public void consumed(long nanos) {
+      consume.record(nanos, TimeUnit.NANOSECONDS);
+    }
+
+    @Override
+    public void acked(int count) {
+      ack.increment(count);
+    }
+
+    @Override
+    public void nacked(int count) {
+      nack.increment(count);
+    }
+
+    @Override
+    public void duplicated(int count) {
+      duplicate.increment(count);
+    }
+
+    @Override
+    public void inflight(int delta) {
+      inflight.addAndGet(delta);
+    }
+  }
+
+  private static class Producer implements ProducerMetrics {
+
+    private final DistributionSummary payload;
+    private final Timer convert;
+    private final Timer publish;
+    private final Timer confirmAck;
+    private final Timer confirmNack;
+
+    Producer(MeterRegistry registry, Tags tags) {
+      this.payload = DistributionSummary.builder(PREFIX + "publish.payload").baseUnit("bytes")
+          .tags(tags).register(registry);
+      this.convert = Timer.builder(PREFIX + "publish.convert").tags(tags).register(registry);
+      this.publish = Timer.builder(PREFIX + "publish").tags(tags).register(registry);
+      this.confirmAck = Timer.builder(PREFIX + "publish.confirm").tags(tags)
+          .tag("result", "ack").register(registry);
+      this.confirmNack = Timer.builder(PREFIX + "publish.confirm").tags(tags)
+          .tag("result", "nack").register(registry);
+    }
+
+    @Override
+    public void converted(long nanos) {
+      convert.record(nanos, TimeUnit.NANOSECONDS);
+    }
+
+    @Override
+    public void published(int bytes, long nanos) {
+      payload.record(bytes);
+      publish.record(nanos, TimeUnit.NANOSECONDS);
+    }
+
+    @Override
+    public void confirmed(long nanos, boolean ack) {
+      (ack ? confirmAck : confirmNack).record(nanos, TimeUnit.NANOSECONDS);
+    }
+  }
+}
@@ -0,0 +1,65 @@
+/*
+ * Copyright (C) 2024 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package vip.justlive.rabbit.metrics;
+
+/**
+ * 生产者指标
+ *
+ * @author wubo
+ */
+public interface ProducerMetrics {
+
+  ProducerMetrics NOOP = new ProducerMetrics() {
+    @Override
+    public boolean isEnabled() {
+      return false;
+    }
+  };
+
+  /**
+   * 是否记录指标，为false时不创建CorrelationData
+   *
+   * @return enabled
+   */
+  default boolean isEnabled() {
+    return true;
+  }
+
+  /**
+   * 消息转换耗时
+   *
+   * @param nanos 耗时(ns)
+   */
+  default void converted(long nanos) {
+  }
+
+  /**
+   * 发送完成
+   *
+   * @param bytes 消息体大小
+   * @param nanos 耗时(ns)
+   */
+  default void published(int bytes, long nanos) {
+  }
+
+  /**
+   * broker确认
+   *
+   * @param nanos 从发送到确认的耗时(ns)
+   * @param ack   是否ack
+   */
+  default void confirmed(long nanos, boolean ack) {
+  }
+}
@@ -0,0 +1,107 @@
+/*
+ * Copyright (C) 2024 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package vip.justlive.rabbit.metrics;
+
+import org.springframework.amqp.rabbit.connection.CachingConnectionFactory;
+import org.springframework.beans.factory.BeanFactory;
+import org.springframework.util.ClassUtils;
+
+/**
+ * 指标
+ * <p>
+ * 按消费者、生产者预先创建好指标，消息处理时不再构建tag；未引入micrometer或没有MeterRegistry时使用NOOP
+ *
+ * @author wubo
+ */
+public interface RabbitMetrics {
+
+  RabbitMetrics NOOP = new RabbitMetrics() {
+    @Override
+    public ConsumerMetrics consumer(String datasource, String group, String queue,
+        String exchange) {
+      return ConsumerMetrics.NOOP;
+    }
+
+    @Override
+    public ProducerMetrics producer(String datasource, String queue, String exchange) {
+      return ProducerMetrics.NOOP;
+    }
+
+    @Override
+    public SpoolMetrics spool(String datasource) {
+      return SpoolMetrics.NOOP;
+    }
+  };
+
+  /**
+   * 创建消费者指标
+   *
+   * @param datasource 数据源
+   * @param group      分组
+   * @param queue      队列
+   * @param exchange   交换空间
+   * @return metrics
+   */
+  ConsumerMetrics consumer(String datasource, String group, String queue, String exchange);
+
+  /**
+   * 创建生产者指标
+   *
+   * @param datasource 数据源
+   * @param queue      队列
+   * @param exchange   交换空间
+   * @return metrics
+   */
+  ProducerMetrics producer(String datasource, String queue, String exchange);
+
+  /**
+   * 创建spool指标
+   *
+   * @param datasource 数据源
+   * @return metrics
+   */
+  SpoolMetrics spool(String datasource);
+
+  /**
+   * 根据容器中的MeterRegistry创建
+   *
+   * @param beanFactory bean工厂
+   * @return metrics
+   */
+  static RabbitMetrics of(BeanFactory beanFactory) {
+    if (beanFactory == null || !ClassUtils.isPresent("io.micrometer.core.instrument.MeterRegistry",
+        RabbitMetrics.class.getClassLoader())) {
+      return NOOP;
+    }
+    return MicrometerRabbitMetrics.of(beanFactory);
+  }
+
+  /**
+   * 创建连接工厂channel缓存指标，注册为bean后由MeterRegistry绑定
+   *
+   * @param datasource                 数据源
+   * @param connectionFactory          连接工厂
+   * @param publisherConnectionFactory 生产端独立连接工厂，未开启时为null
+   * @return MeterBinder，未引入micrometer时为null
+   */
+  static Object cacheBinder(String datasource, CachingConnectionFactory connectionFactory,
+      CachingConnectionFactory publisherConnectionFactory) {
+    if (!ClassUtils.isPresent("io.micrometer.core.instrument.binder.MeterBinder",
+        RabbitMetrics.class.getClassLoader())) {
+      return null;
+    }
+    return new ChannelCacheMetrics(datasource, connectionFactory, publisherConnectionFactory);
+  }
+}
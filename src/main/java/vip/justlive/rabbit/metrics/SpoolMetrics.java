@@ -0,0 +1,42 @@
+/*
+ * Copyright (C) 2024 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package vip.justlive.rabbit.metrics;
+
+/**
+ * 生产端spool指标
+ *
+ * @author wubo
+ */
+public interface SpoolMetrics {
+
+  SpoolMetrics NOOP = new SpoolMetrics() {
+  };
+
+  /**
+   * broker退回的记录，已移到.returned文件
+   *
+   * @param count 数量
+   */
+  default void returned(int count) {
+  }
+
+  /**
+   * 无法解码的记录，已移到.corrupt文件
+   *
+   * @param count 数量
+   */
+  default void corrupted(int count) {
+  }
+}
@@ -14,6 +14,8 @@
 
 package vip.justlive.rabbit.producer;
 
+import java.util.concurrent.CompletableFuture;
+
 /**
  * 
  * 基础生产者
@@ -30,4 +32,14 @@ public interface BaseProducer<T> {
    * @param msg 消息
    */
   void send(T msg);
+
+  /**
+   * 异步发送消息，broker确认后完成，被拒绝、退回或超过未确认上限时异常完成
+   * <p>
+   * 需要数据源开启publisher-confirm-type=correlated，退回需要开启publisher-returns和template.mandatory
+   *
+   * @param msg 消息
+   * @return future
+   */
+  CompletableFuture<Void> sendAsync(T msg);
 }
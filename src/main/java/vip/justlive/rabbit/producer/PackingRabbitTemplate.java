@@ -0,0 +1,70 @@
+/*
+ * Copyright (C) 2024 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package vip.justlive.rabbit.producer;
+
+import java.util.Objects;
+import org.springframework.amqp.core.Message;
+import org.springframework.amqp.core.MessageProperties;
+import org.springframework.amqp.rabbit.batch.SimpleBatchingStrategy;
+import org.springframework.amqp.rabbit.connection.CorrelationData;
+import org.springframework.amqp.rabbit.core.BatchingRabbitTemplate;
+import org.springframework.scheduling.TaskScheduler;
+
+/**
+ * 打包发送的模板
+ * <p>
+ * 打包消息使用第一条消息的属性，拆包后每条消息都继承这些属性；交换机、路由或content-type变化时先发出缓冲中的消息，
+ * 保证一个包内的消息编码一致；打包消息清除messageId，不再代表其中任意一条消息
+ *
+ * @author wubo
+ */
+public final class PackingRabbitTemplate extends BatchingRabbitTemplate {
+
+  private String exchange;
+  private String routingKey;
+  private String contentType;
+
+  /**
+   * @param strategy  打包策略
+   * @param scheduler 超时发送的调度器
+   */
+  public PackingRabbitTemplate(SimpleBatchingStrategy strategy, TaskScheduler scheduler) {
+    super(strategy, scheduler);
+    setBeforePublishPostProcessors(PackingRabbitTemplate::normalize);
+  }
+
+  @Override
+  public synchronized void send(String exchange, String routingKey, Message message,
+      CorrelationData correlationData) {
+    String type = message.getMessageProperties().getContentType();
+    if (this.exchange != null && (!Objects.equals(this.exchange, exchange)
+        || !Objects.equals(this.routingKey, routingKey)
+        || !Objects.equals(this.contentType, type))) {
+      flush();
+    }
+    this.exchange = exchange;
+    this.routingKey = routingKey;
+    this.contentType = type;
+    super.send(exchange, routingKey, message, correlationData);
+  }
+
+  private static Message normalize(Message message) {
+    MessageProperties props = message.getMessageProperties();
+    if (props.getHeaders().containsKey(MessageProperties.SPRING_BATCH_FORMAT)) {
+      props.setMessageId(null);
+    }
+    return message;
+  }
+}
@@ -15,6 +15,8 @@
 package vip.justlive.rabbit.producer;
 
 import java.lang.reflect.Proxy;
+import org.springframework.beans.factory.BeanFactory;
+import org.springframework.beans.factory.BeanFactoryAware;
 import org.springframework.beans.factory.FactoryBean;
 import org.springframework.context.EnvironmentAware;
 import org.springframework.core.env.Environment;
@@ -26,10 +28,12 @@ import org.springframework.core.env.Environment;
  * @param <T> 泛型
  * @author wubo
  */
-public class ProducerFactoryBean<T> implements FactoryBean<T>, EnvironmentAware {
+public class ProducerFactoryBean<T> implements FactoryBean<T>, EnvironmentAware,
+    BeanFactoryAware {
 
   private final Class<T> clazz;
   private Environment environment;
+  private BeanFactory beanFactory;
 
   public ProducerFactoryBean(Class<T> clazz) {
     this.clazz = clazz;
@@ -38,7 +42,7 @@ public class ProducerFactoryBean<T> implements FactoryBean<T>, EnvironmentAware
   @Override
   public T getObject() {
     return clazz.cast(Proxy.newProxyInstance(clazz.getClassLoader(), new Class[]{clazz},
-        new ProducerProxy<>(clazz, environment)));
+        new ProducerProxy<>(clazz, environment, beanFactory)));
   }
 
   @Override
@@ -50,4 +54,9 @@ public class ProducerFactoryBean<T> implements FactoryBean<T>, EnvironmentAware
   public void setEnvironment(Environment environment) {
     this.environment = environment;
   }
+
+  @Override
+  public void setBeanFactory(BeanFactory beanFactory) {
+    this.beanFactory = beanFactory;
+  }
 }
@@ -16,14 +16,39 @@ package vip.justlive.rabbit.producer;
 
 import java.lang.reflect.InvocationHandler;
 import java.lang.reflect.Method;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BiConsumer;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.amqp.AmqpException;
+import org.springframework.amqp.AmqpResourceNotAvailableException;
+import org.springframework.amqp.core.AmqpMessageReturnedException;
+import org.springframework.amqp.core.Message;
+import org.springframework.amqp.rabbit.connection.CorrelationData;
+import org.springframework.amqp.rabbit.connection.CorrelationData.Confirm;
+import org.springframework.amqp.rabbit.core.BatchingRabbitTemplate;
 import org.springframework.amqp.rabbit.core.RabbitTemplate;
+import org.springframework.amqp.support.converter.MessageConverter;
+import org.springframework.beans.factory.BeanFactory;
 import org.springframework.core.env.Environment;
+import org.springframework.util.ClassUtils;
+import org.springframework.util.StringUtils;
+import vip.justlive.rabbit.KeyExtractor;
 import vip.justlive.rabbit.RabbitMeta;
 import vip.justlive.rabbit.annotation.Rqueue;
+import vip.justlive.rabbit.converter.Codecs;
+import vip.justlive.rabbit.converter.Compression;
+import vip.justlive.rabbit.converter.Compressions;
+import vip.justlive.rabbit.converter.ConversionPlan;
+import vip.justlive.rabbit.converter.CustomMessageConverter;
+import vip.justlive.rabbit.metrics.ProducerMetrics;
+import vip.justlive.rabbit.metrics.RabbitMetrics;
 
 /**
  * proxy
+ * <p>
+ * 发送目标和转换器在创建时确定，发送时直接转换并投递，不依赖线程上下文
  *
  * @param <T> 泛型
  * @author wubo
@@ -31,11 +56,23 @@ import vip.justlive.rabbit.annotation.Rqueue;
 @Slf4j
 public class ProducerProxy<T> implements InvocationHandler {
 
+  private static final String NONE = "none";
+  private static final Method SEND_ASYNC = ClassUtils.getMethod(BaseProducer.class, "sendAsync",
+      Object.class);
+
   private final boolean exchangeMode;
-  private final RabbitTemplate template;
   private final QueueProperties queueProperties;
+  private final CustomMessageConverter converter;
+  private final ConversionPlan plan;
+  /**
+   * 目标数据源，配置多个时按分片策略选择
+   */
+  private final Shard[] shards;
+  private final Sharding sharding;
+  private final KeyExtractor shardKey;
+  private final AtomicInteger next = new AtomicInteger();
 
-  ProducerProxy(Class<T> clazz, Environment environment) {
+  ProducerProxy(Class<T> clazz, Environment environment, BeanFactory beanFactory) {
     Rqueue rqueue = clazz.getAnnotation(Rqueue.class);
     if (rqueue == null) {
       throw new IllegalArgumentException("BaseProducer 接口需要 @Rqueue");
@@ -45,37 +82,292 @@ public class ProducerProxy<T> implements InvocationHandler {
     String exchange = environment.resolvePlaceholders(rqueue.exchange());
     String routing = environment.resolvePlaceholders(rqueue.routing());
     String messageConverter = environment.resolvePlaceholders(rqueue.messageConverter());
+    String codec = environment.resolvePlaceholders(rqueue.codec());
+    String compression = environment.resolvePlaceholders(rqueue.compression());
+    String compressThreshold = environment.resolvePlaceholders(rqueue.compressThreshold());
     String datasource = environment.resolvePlaceholders(rqueue.datasource());
 
-    RabbitMeta rabbitMeta = RabbitMeta.lookup(datasource);
-    if (rabbitMeta == null) {
-      throw new IllegalArgumentException("rabbitMeta not found for datasource: " + datasource);
+    String[] datasources = StringUtils.tokenizeToStringArray(datasource, ",");
+    if (datasources.length == 0) {
+      throw new IllegalArgumentException("datasource is empty for producer: " + clazz);
+    }
+    RabbitMetrics rabbitMetrics = RabbitMetrics.of(beanFactory);
+    this.shards = new Shard[datasources.length];
+    for (int i = 0; i < datasources.length; i++) {
+      RabbitMeta rabbitMeta = RabbitMeta.lookup(datasources[i]);
+      if (rabbitMeta == null) {
+        throw new IllegalArgumentException(
+            "rabbitMeta not found for datasource: " + datasources[i]);
+      }
+      RabbitTemplate template = rabbitMeta.getRabbitTemplate();
+      ProducerMetrics metrics = rabbitMetrics.producer(datasources[i], queue, exchange);
+      boolean confirms = !(template instanceof BatchingRabbitTemplate)
+          && template.getConnectionFactory().isPublisherConfirms();
+      PublishWindow window = rabbitMeta.getPublishWindow();
+      if (rabbitMeta.getSpool() != null) {
+        rabbitMeta.getSpool().metrics(rabbitMetrics.spool(datasources[i]));
+      }
+      shards[i] = new Shard(datasources[i], template, metrics, confirms,
+          confirms && metrics.isEnabled(), new AtomicInteger(),
+          window == null ? PublishWindow.UNBOUNDED : window, rabbitMeta.getSpool());
+    }
+
+    // 消息只按第一个数据源的转换器和打包配置编码一次，各分片必须一致
+    for (int i = 1; i < shards.length; i++) {
+      if (RabbitMeta.lookup(datasources[i]).getConverter()
+          != RabbitMeta.lookup(datasources[0]).getConverter()
+          || (shards[i].template instanceof BatchingRabbitTemplate)
+          != (shards[0].template instanceof BatchingRabbitTemplate)) {
+        throw new IllegalArgumentException(String.format(
+            "datasources %s of producer %s differ in converter or packing", datasource, clazz));
+      }
     }
 
     this.queueProperties = new QueueProperties(queue, exchange, routing, messageConverter);
     this.exchangeMode = !exchange.isEmpty();
-    this.template = rabbitMeta.getRabbitTemplate();
+    this.converter = RabbitMeta.lookup(datasources[0]).getConverter();
+    MessageConverter custom = null;
+    if (StringUtils.hasText(messageConverter)) {
+      custom = beanFactory.getBean(messageConverter, MessageConverter.class);
+    }
+    ConversionPlan conversionPlan = ConversionPlan.of(custom,
+        codec.isEmpty() ? converter.getDefaultCodec() : Codecs.lookup(codec),
+        ConversionPlan.resolveType(clazz, BaseProducer.class));
+    if (shards[0].template instanceof BatchingRabbitTemplate) {
+      // 打包模式下由模板按数据源配置压缩整个打包消息，单条消息不能使用其他的压缩和编解码器
+      if (conversionPlan.codec() != converter.getDefaultCodec()
+          || compression(compression) != converter.getDefaultCompression()
+          || (!compressThreshold.isEmpty()
+          && Integer.parseInt(compressThreshold) != converter.getCompressThreshold())) {
+        throw new IllegalArgumentException(String.format(
+            "producer %s sets codec or compression which conflicts with packing of datasources %s",
+            clazz, datasource));
+      }
+    } else {
+      conversionPlan = conversionPlan.withCompression(compression(compression),
+          compressThreshold.isEmpty() ? converter.getCompressThreshold()
+              : Integer.parseInt(compressThreshold));
+    }
+    this.plan = conversionPlan;
+    this.shardKey = new KeyExtractor(environment.resolvePlaceholders(rqueue.shardHeader()),
+        environment.resolvePlaceholders(rqueue.shardField()));
+    this.sharding = sharding(queue, Sharding.of(
+        environment.resolvePlaceholders(rqueue.sharding()), Sharding.ROUND_ROBIN));
+
+    log.info("created producer proxy for queue [{}][{}][{}]->[{}] sharding [{}]", queue,
+        exchange, routing, datasource, sharding);
+  }
+
+  private Sharding sharding(String queue, Sharding configured) {
+    if (configured == Sharding.HASH && !shardKey.isPresent()) {
+      log.warn("producer [{}] hash sharding needs shardHeader or shardField, use round-robin",
+          queue);
+      return Sharding.ROUND_ROBIN;
+    }
+    if (configured == Sharding.LEAST_OUTSTANDING) {
+      for (Shard shard : shards) {
+        if (!shard.confirms) {
+          log.warn("producer [{}] least-outstanding sharding needs publisher confirms on all "
+              + "datasources, use round-robin", queue);
+          return Sharding.ROUND_ROBIN;
+        }
+      }
+    }
+    return configured;
+  }
 
-    log.info("created producer proxy for queue [{}][{}][{}]->[{}]", queue, exchange, routing,
-        datasource);
+  private Compression compression(String name) {
+    if (name.isEmpty()) {
+      return converter.getDefaultCompression();
+    }
+    if (NONE.equals(name)) {
+      return null;
+    }
+    return Compressions.lookup(name);
   }
 
   @Override
   public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
 
-    if (!BaseProducer.class.equals(method.getDeclaringClass())) {
+    if (method.getDeclaringClass() != BaseProducer.class) {
       return method.invoke(this, args);
     }
 
-    QueueProperties.set(queueProperties);
-
-    if (exchangeMode) {
-      template.convertAndSend(queueProperties.exchange(), queueProperties.routing(), args[0],
-          queueProperties);
-    } else {
-      template.convertAndSend(queueProperties.routing(), args[0], queueProperties);
+    // 代理传入的Method是每次复制的对象，不能用==比较
+    if (SEND_ASYNC.equals(method)) {
+      return publish(args[0], true);
     }
+    publish(args[0], false);
     return null;
   }
 
+  private CompletableFuture<Void> publish(Object msg, boolean async) {
+    long start = System.nanoTime();
+    Message message = converter.toMessage(msg, plan);
+    long publish = System.nanoTime();
+    Shard shard = shard(msg, message);
+    shard.metrics.converted(publish - start);
+
+    if (!async && shard.spool != null) {
+      shard.spool.append(exchangeMode ? queueProperties.exchange() : shard.template.getExchange(),
+          queueProperties.routing(), message);
+      shard.metrics.published(message.getBody().length, System.nanoTime() - publish);
+      return null;
+    }
+
+    CompletableFuture<Void> result = null;
+    if (async) {
+      if (!shard.confirms) {
+        return CompletableFuture.failedFuture(new IllegalStateException(
+            "sendAsync needs publisher-confirm-type=correlated on datasource " + shard.datasource));
+      }
+      if (!shard.window.acquire()) {
+        return CompletableFuture.failedFuture(new AmqpResourceNotAvailableException(
+            "outstanding publish limit " + shard.window.getLimit() + " reached on datasource "
+                + shard.datasource));
+      }
+      result = new CompletableFuture<>();
+    }
+    boolean tracked = sharding == Sharding.LEAST_OUTSTANDING;
+    CorrelationData correlation = null;
+    Pending pending = null;
+    if (async || tracked || shard.timed) {
+      correlation = new CorrelationData();
+      pending = new Pending(shard, tracked, publish, correlation, result);
+      if (tracked) {
+        shard.outstanding.incrementAndGet();
+      }
+      correlation.getFuture().whenComplete(pending);
+    }
+    try {
+      if (exchangeMode) {
+        shard.template.send(queueProperties.exchange(), queueProperties.routing(), message,
+            correlation);
+      } else {
+        shard.template.send(queueProperties.routing(), message, correlation);
+      }
+    } catch (RuntimeException e) {
+      if (pending != null) {
+        pending.failed(e);
+      }
+      if (async) {
+        return result;
+      }
+      throw e;
+    }
+    shard.metrics.published(message.getBody().length, System.nanoTime() - publish);
+    return result;
+  }
+
+  private Shard shard(Object msg, Message message) {
+    if (shards.length == 1) {
+      return shards[0];
+    }
+    switch (sharding) {
+      case HASH -> {
+        Object key = shardKey.key(message, msg);
+        return key == null ? shards[0] : shards[Math.floorMod(key.hashCode(), shards.length)];
+      }
+      case LEAST_OUTSTANDING -> {
+        // 从轮询位置开始找，未确认数相同时分散到不同数据源
+        int offset = Math.floorMod(next.getAndIncrement(), shards.length);
+        Shard target = shards[offset];
+        for (int i = 1; i < shards.length; i++) {
+          Shard shard = shards[(offset + i) % shards.length];
+          if (shard.outstanding.get() < target.outstanding.get()) {
+            target = shard;
+          }
+        }
+        return target;
+      }
+      default -> {
+        return shards[Math.floorMod(next.getAndIncrement(), shards.length)];
+      }
+    }
+  }
+
+  /**
+   * 一个目标数据源
+   *
+   * @param datasource  数据源名称
+   * @param template    模板
+   * @param metrics     指标
+   * @param confirms    是否开启了publisher confirm
+   * @param timed       是否记录确认耗时
+   * @param outstanding 未确认的消息数，用于least-outstanding分片
+   * @param window      异步发送的未确认上限
+   * @param spool       本地spool，开启后send写入spool，sendAsync仍直接发送
+   */
+  private record Shard(String datasource, RabbitTemplate template, ProducerMetrics metrics,
+                       boolean confirms, boolean timed, AtomicInteger outstanding,
+                       PublishWindow window, Spool spool) {
+
+  }
+
+  /**
+   * 一次发送的确认回调，发送异常和channel关闭时的nack可能先后到达，只处理一次
+   */
+  private static final class Pending implements BiConsumer<Confirm, Throwable> {
+
+    private final Shard shard;
+    private final boolean tracked;
+    private final long publish;
+    private final CorrelationData correlation;
+    private final CompletableFuture<Void> result;
+    private final AtomicBoolean settled = new AtomicBoolean();
+
+    private Pending(Shard shard, boolean tracked, long publish, CorrelationData correlation,
+        CompletableFuture<Void> result) {
+      this.shard = shard;
+      this.tracked = tracked;
+      this.publish = publish;
+      this.correlation = correlation;
+      this.result = result;
+    }
+
+    @Override
+    public void accept(Confirm confirm, Throwable e) {
+      if (!settle()) {
+        return;
+      }
+      boolean ack = e == null && confirm != null && confirm.isAck();
+      if (shard.timed) {
+        shard.metrics.confirmed(System.nanoTime() - publish, ack);
+      }
+      if (result == null) {
+        return;
+      }
+      if (e != null) {
+        result.completeExceptionally(e);
+      } else if (!ack) {
+        result.completeExceptionally(new AmqpException("message was nacked by broker: "
+            + (confirm == null ? null : confirm.getReason())));
+      } else if (correlation.getReturned() != null) {
+        result.completeExceptionally(new AmqpMessageReturnedException(
+            "message was returned by broker", correlation.getReturned()));
+      } else {
+        result.complete(null);
+      }
+    }
+
+    private void failed(Throwable e) {
+      if (settle() && result != null) {
+        result.completeExceptionally(e);
+      }
+    }
+
+    private boolean settle() {
+      if (!settled.compareAndSet(false, true)) {
+        return false;
+      }
+      if (tracked) {
+        shard.outstanding.decrementAndGet();
+      }
+      if (result != null) {
+        shard.window.release();
+      }
+      return true;
+    }
+  }
+
 }
@@ -14,6 +14,7 @@
 
 package vip.justlive.rabbit.producer;
 
+import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
 import lombok.extern.slf4j.Slf4j;
@@ -26,6 +27,9 @@ import org.springframework.context.ApplicationContext;
 import org.springframework.context.ApplicationContextAware;
 import org.springframework.context.ResourceLoaderAware;
 import org.springframework.core.io.ResourceLoader;
+import org.springframework.core.io.support.ResourcePatternResolver;
+import org.springframework.core.io.support.ResourcePatternUtils;
+import vip.justlive.rabbit.annotation.RqueueIndex;
 
 /**
  * 生产端注册bean
@@ -64,7 +68,25 @@ public class ProducerRegistryPostProcessor implements BeanDefinitionRegistryPost
 
     ProducerScanner scanner = new ProducerScanner(registry);
     scanner.setResourceLoader(resourceLoader);
-    scanner.scan(basePackages.toArray(new String[0]));
+
+    RqueueIndex index = null;
+    if (binder.bind("easy-boot.rabbit.index", Boolean.class).orElse(true)) {
+      index = RqueueIndex.load(resourceLoader == null ? null : resourceLoader.getClassLoader());
+    }
+    // 包下存在未生成索引的模块时索引不完整，扫描整个包
+    ResourcePatternResolver resolver = ResourcePatternUtils.getResourcePatternResolver(
+        resourceLoader);
+    List<String> scanPackages = new ArrayList<>(basePackages.size());
+    for (String basePackage : basePackages) {
+      if (index != null && index.covers(resolver, basePackage)) {
+        scanner.registerIndexed(index.producers(basePackage));
+      } else {
+        scanPackages.add(basePackage);
+      }
+    }
+    if (!scanPackages.isEmpty()) {
+      scanner.scan(scanPackages.toArray(new String[0]));
+    }
   }
 
 }
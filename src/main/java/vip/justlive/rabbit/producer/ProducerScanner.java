@@ -22,9 +22,13 @@ import org.springframework.beans.factory.support.BeanDefinitionRegistry;
 import org.springframework.beans.factory.support.GenericBeanDefinition;
 import org.springframework.context.annotation.ClassPathBeanDefinitionScanner;
 import org.springframework.core.type.filter.AnnotationTypeFilter;
+import org.springframework.util.ClassUtils;
+import org.springframework.util.StringUtils;
 import vip.justlive.rabbit.annotation.Rqueue;
 
 import java.util.Arrays;
+import java.util.LinkedHashSet;
+import java.util.List;
 import java.util.Set;
 
 /**
@@ -52,6 +56,28 @@ public class ProducerScanner extends ClassPathBeanDefinitionScanner {
     return beanDefinitions;
   }
   
+  /**
+   * 根据编译期索引注册生产者，不扫描类路径
+   *
+   * @param classNames 生产者接口类名
+   */
+  void registerIndexed(List<String> classNames) {
+    Set<BeanDefinitionHolder> beanDefinitions = new LinkedHashSet<>();
+    for (String className : classNames) {
+      String beanName = StringUtils.uncapitalizeAsProperty(ClassUtils.getShortName(className));
+      if (getRegistry().containsBeanDefinition(beanName)) {
+        continue;
+      }
+      GenericBeanDefinition definition = new GenericBeanDefinition();
+      definition.setBeanClassName(className);
+      beanDefinitions.add(new BeanDefinitionHolder(definition, beanName));
+    }
+    processBeanDefinitions(beanDefinitions);
+    for (BeanDefinitionHolder holder : beanDefinitions) {
+      registerBeanDefinition(holder, getRegistry());
+    }
+  }
+  
   @Override
   protected boolean isCandidateComponent(AnnotatedBeanDefinition beanDefinition) {
     return beanDefinition.getMetadata().isInterface()
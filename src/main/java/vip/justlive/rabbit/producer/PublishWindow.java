@@ -0,0 +1,109 @@
+/*
+ * Copyright (C) 2024 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package vip.justlive.rabbit.producer;
+
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 数据源上异步发送未确认消息数的上限
+ *
+ * @author wubo
+ */
+public final class PublishWindow {
+
+  /**
+   * 不限制
+   */
+  public static final PublishWindow UNBOUNDED = new PublishWindow(0, Overflow.BLOCK, 0);
+
+  private final Semaphore permits;
+  private final int limit;
+  private final Overflow overflow;
+  private final long timeout;
+
+  /**
+   * @param limit    最大未确认消息数，0为不限制
+   * @param overflow 达到上限时的处理方式
+   * @param timeout  block时最长等待时间(ms)，0为一直等待
+   */
+  public PublishWindow(int limit, Overflow overflow, long timeout) {
+    this.limit = limit;
+    this.permits = limit > 0 ? new Semaphore(limit) : null;
+    this.overflow = overflow == null ? Overflow.BLOCK : overflow;
+    this.timeout = timeout;
+  }
+
+  /**
+   * 获取一个发送许可
+   *
+   * @return 达到上限且按策略放弃时返回false
+   */
+  public boolean acquire() {
+    if (permits == null) {
+      return true;
+    }
+    if (overflow == Overflow.FAIL) {
+      return permits.tryAcquire();
+    }
+    try {
+      if (timeout > 0) {
+        return permits.tryAcquire(timeout, TimeUnit.MILLISECONDS);
+      }
+      permits.acquire();
+      return true;
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      return false;
+    }
+  }
+
+  /**
+   * 收到确认后归还许可
+   */
+  public void release() {
+    if (permits != null) {
+      permits.release();
+    }
+  }
+
+  /**
+   * 当前未确认的消息数
+   *
+   * @return outstanding
+   */
+  public int outstanding() {
+    return permits == null ? 0 : limit - permits.availablePermits();
+  }
+
+  public int getLimit() {
+    return limit;
+  }
+
+  /**
+   * 达到上限时的处理方式
+   */
+  public enum Overflow {
+
+    /**
+     * 阻塞发送线程直到有消息被确认
+     */
+    BLOCK,
+    /**
+     * 立即失败，返回异常完成的future
+     */
+    FAIL
+  }
+}
@@ -14,9 +14,6 @@
 
 package vip.justlive.rabbit.producer;
 
-import org.springframework.amqp.core.Message;
-import org.springframework.amqp.core.MessagePostProcessor;
-
 /**
  * 队列相关属性
  *
@@ -27,22 +24,6 @@ import org.springframework.amqp.core.MessagePostProcessor;
  * @author wubo
  */
 public record QueueProperties(String queue, String exchange, String routing,
-                              String messageConverter) implements MessagePostProcessor {
-
-  private static final ThreadLocal<QueueProperties> HOLDER = new ThreadLocal<>();
-
-  public static void set(QueueProperties queueProperties) {
-    HOLDER.set(queueProperties);
-  }
-
-  public static QueueProperties get() {
-    return HOLDER.get();
-  }
-
-  @Override
-  public Message postProcessMessage(Message message) {
-    HOLDER.remove();
-    return message;
-  }
+                              String messageConverter) {
 
 }
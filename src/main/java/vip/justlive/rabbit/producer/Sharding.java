@@ -0,0 +1,50 @@
+/*
+ * Copyright (C) 2024 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package vip.justlive.rabbit.producer;
+
+/**
+ * 生产者配置多个数据源时的分片策略
+ *
+ * @author wubo
+ */
+public enum Sharding {
+
+  /**
+   * 轮询
+   */
+  ROUND_ROBIN,
+  /**
+   * 按消息头或消息体字段的hash分配，相同key总是发送到同一个数据源
+   */
+  HASH,
+  /**
+   * 发送到未确认消息最少的数据源，需要所有数据源开启publisher confirm
+   */
+  LEAST_OUTSTANDING;
+
+  /**
+   * 解析策略，忽略大小写，-与_等价
+   *
+   * @param value        配置值
+   * @param defaultValue 默认值
+   * @return sharding
+   */
+  public static Sharding of(String value, Sharding defaultValue) {
+    if (value == null || value.isEmpty()) {
+      return defaultValue;
+    }
+    return valueOf(value.trim().replace('-', '_').toUpperCase());
+  }
+}
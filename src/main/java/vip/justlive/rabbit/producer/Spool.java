@@ -0,0 +1,586 @@
+/*
+ * Copyright (C) 2024 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package vip.justlive.rabbit.producer;
+
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.LockSupport;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.stream.Stream;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.amqp.AmqpException;
+import org.springframework.amqp.AmqpIOException;
+import org.springframework.amqp.AmqpResourceNotAvailableException;
+import org.springframework.amqp.core.Message;
+import org.springframework.amqp.core.ReturnedMessage;
+import org.springframework.amqp.rabbit.connection.CorrelationData;
+import org.springframework.amqp.rabbit.core.RabbitTemplate;
+import vip.justlive.rabbit.EasyRabbitProperties;
+import vip.justlive.rabbit.metrics.SpoolMetrics;
+
+/**
+ * 生产端本地spool，send写入内存映射的追加日志后立即返回，后台线程带确认重发到broker
+ * <p>
+ * 日志按段滚动，段内记录全部确认后删除；重启时从每段记录的确认位置继续重发，broker可能收到重复消息
+ * <p>
+ * 下一个段由准备线程提前预分配，写满时send只切换到已准备好的段；旧段由准备线程刷盘，
+ * 配置force-interval后定期刷盘，未刷盘的记录在宿主机宕机时可能丢失
+ * <p>
+ * 日志总大小达到max-size时按overflow阻塞或拒绝写入；无法解码的记录移到同目录的.corrupt文件，
+ * broker退回的记录(需开启publisher-returns和mandatory)移到.returned文件，格式与段内记录相同，计入指标后跳过
+ *
+ * @author wubo
+ */
+@Slf4j
+public final class Spool implements AutoCloseable {
+
+  static final String CORRUPT_SUFFIX = ".corrupt";
+  static final String RETURNED_SUFFIX = ".returned";
+
+  private final String source;
+  private final Path directory;
+  private final int segmentSize;
+  private final int batchSize;
+  private final long confirmTimeout;
+  private final long retryInterval;
+  private final long maxSize;
+  private final PublishWindow.Overflow overflow;
+  private final long overflowTimeout;
+  private final long forceInterval;
+  private final RabbitTemplate template;
+  private final ConcurrentLinkedDeque<SpoolSegment> segments = new ConcurrentLinkedDeque<>();
+  private final ReentrantLock lock = new ReentrantLock();
+  /**
+   * 准备好下一个段后唤醒等待切换的写入
+   */
+  private final Condition spareReady = lock.newCondition();
+  /**
+   * 段被切换、需要更大的段、旧段待刷盘或重发线程删除段后唤醒准备线程
+   */
+  private final Condition prepareRequired = lock.newCondition();
+  /**
+   * 已切换待刷盘的段，只在写锁内访问
+   */
+  private final Deque<SpoolSegment> unforced = new ArrayDeque<>();
+  private final Thread drainer;
+  private final Thread preparer;
+  private volatile SpoolSegment tail;
+  private volatile SpoolMetrics metrics = SpoolMetrics.NOOP;
+  /**
+   * 预分配的下一个段，以下字段只在写锁内访问
+   */
+  private SpoolSegment spare;
+  /**
+   * 下一个段的最小大小，记录超过段大小时增大
+   */
+  private int required;
+  private long nextSeq;
+  /**
+   * 最近一次预分配失败的异常，成功后清除
+   */
+  private IOException failure;
+  /**
+   * 所有段(包括预分配的段)占用的磁盘大小
+   */
+  private long size;
+  private volatile boolean running = true;
+  /**
+   * 重发线程没有待发送的记录，写入时需要唤醒
+   */
+  private volatile boolean idle;
+
+  private Spool(String source, Path directory, EasyRabbitProperties.SpoolProperties properties,
+      RabbitTemplate template) {
+    this.source = source;
+    this.directory = directory;
+    this.segmentSize = properties.getSegmentSize();
+    this.batchSize = properties.getBatchSize();
+    this.confirmTimeout = properties.getConfirmTimeout().toMillis();
+    this.retryInterval = properties.getRetryInterval().toMillis();
+    this.maxSize = properties.getMaxSize();
+    this.overflow = properties.getOverflow() == null ? PublishWindow.Overflow.BLOCK
+        : properties.getOverflow();
+    this.overflowTimeout = millis(properties.getOverflowTimeout());
+    this.forceInterval = millis(properties.getForceInterval());
+    this.template = template;
+    this.required = segmentSize;
+    this.drainer = Thread.ofPlatform().daemon().name("easy-rabbit-spool-" + source)
+        .unstarted(this::drain);
+    this.preparer = Thread.ofPlatform().daemon().name("easy-rabbit-spool-prepare-" + source)
+        .unstarted(this::prepare);
+  }
+
+  /**
+   * 打开spool，恢复未确认的记录并启动重发线程
+   *
+   * @param source     数据源名称
+   * @param directory  日志目录
+   * @param properties spool配置
+   * @param template   模板，需要开启publisher-confirm-type=correlated
+   * @return spool
+   */
+  public static Spool open(String source, Path directory,
+      EasyRabbitProperties.SpoolProperties properties, RabbitTemplate template) {
+    Spool spool = new Spool(source, directory, properties, template);
+    try {
+      spool.recover();
+    } catch (IOException e) {
+      throw new AmqpIOException(e);
+    }
+    spool.drainer.start();
+    spool.preparer.start();
+    return spool;
+  }
+
+  /**
+   * 设置指标，多个生产者共用一个spool，使用最后设置的指标
+   *
+   * @param metrics 指标
+   */
+  public void metrics(SpoolMetrics metrics) {
+    this.metrics = metrics == null ? SpoolMetrics.NOOP : metrics;
+  }
+
+  /**
+   * 追加消息，写入本地日志后返回
+   *
+   * @param exchange 交换机
+   * @param routing  路由
+   * @param message  消息
+   * @throws AmqpResourceNotAvailableException 日志总大小达到上限
+   * @throws AmqpIOException                    下一个段预分配失败
+   */
+  public void append(String exchange, String routing, Message message) {
+    byte[] record = SpoolCodec.encode(exchange, routing, message);
+    lock.lock();
+    try {
+      if (!running) {
+        throw new AmqpException("spool of source [" + source + "] is closed");
+      }
+      if (!tail.fits(record.length)) {
+        roll(record.length);
+      }
+      tail.append(record);
+    } finally {
+      lock.unlock();
+    }
+    if (idle) {
+      LockSupport.unpark(drainer);
+    }
+  }
+
+  /**
+   * 停止重发线程并刷盘，未确认的记录保留在日志中，下次启动时重发
+   */
+  @Override
+  public void close() {
+    lock.lock();
+    try {
+      running = false;
+      spareReady.signalAll();
+      prepareRequired.signalAll();
+    } finally {
+      lock.unlock();
+    }
+    LockSupport.unpark(drainer);
+    LockSupport.unpark(preparer);
+    try {
+      drainer.join(confirmTimeout + retryInterval);
+      preparer.join(confirmTimeout + retryInterval);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+    SpoolSegment unused;
+    lock.lock();
+    try {
+      segments.forEach(SpoolSegment::force);
+      unforced.clear();
+      unused = spare;
+      spare = null;
+    } finally {
+      lock.unlock();
+    }
+    delete(unused);
+  }
+
+  private void recover() throws IOException {
+    Files.createDirectories(directory);
+    Map<Long, Path> files = new TreeMap<>();
+    try (Stream<Path> stream = Files.list(directory)) {
+      stream.filter(p -> p.getFileName().toString().endsWith(SpoolSegment.SUFFIX))
+          .forEach(p -> {
+            String name = p.getFileName().toString();
+            try {
+              files.put(Long.parseLong(
+                  name.substring(0, name.length() - SpoolSegment.SUFFIX.length())), p);
+            } catch (NumberFormatException e) {
+              log.warn("spool of source [{}] skips file [{}] with unknown name", source, p);
+            }
+          });
+    }
+    long seq = 0;
+    int pending = 0;
+    for (Map.Entry<Long, Path> file : files.entrySet()) {
+      // 序号取自所有文件名，包括跳过的文件，避免新段与其重名
+      seq = file.getKey();
+      SpoolSegment segment = SpoolSegment.recover(file.getValue(), seq);
+      if (segment == null) {
+        log.warn("spool of source [{}] skips unknown file [{}]", source, file.getValue());
+        continue;
+      }
+      if (segment.confirmed() >= segment.committed()) {
+        segment.delete();
+        continue;
+      }
+      segments.addLast(segment);
+      size += segment.capacity();
+      pending++;
+    }
+    tail = SpoolSegment.create(directory, seq + 1, segmentSize);
+    segments.addLast(tail);
+    size += tail.capacity();
+    nextSeq = seq + 2;
+    log.info("spool of source [{}] opened at [{}] with [{}] segments to replay", source,
+        directory, pending);
+  }
+
+  /**
+   * 切换到准备线程预分配的段，旧段交给准备线程刷盘
+   *
+   * @param length 记录长度
+   */
+  private void roll(int length) {
+    awaitSpare(SpoolSegment.HEADER + SpoolSegment.RECORD_HEADER + length);
+    SpoolSegment previous = tail;
+    segments.addLast(spare);
+    tail = spare;
+    spare = null;
+    required = segmentSize;
+    previous.seal();
+    unforced.addLast(previous);
+    prepareRequired.signal();
+  }
+
+  /**
+   * 等待准备线程预分配能容纳记录的段；日志总大小达到上限时按overflow等待或失败
+   *
+   * @param needed 段的最小大小
+   */
+  private void awaitSpare(int needed) {
+    if (needed > required) {
+      required = needed;
+      prepareRequired.signal();
+    }
+    long nanos = TimeUnit.MILLISECONDS.toNanos(overflowTimeout);
+    while (spare == null || spare.capacity() < needed) {
+      if (!running) {
+        throw new AmqpException("spool of source [" + source + "] is closed");
+      }
+      boolean full = !hasSpace(required);
+      if (full && (overflow == PublishWindow.Overflow.FAIL
+          || (overflowTimeout > 0 && nanos <= 0))) {
+        throw new AmqpResourceNotAvailableException(
+            "spool of source [" + source + "] reaches max size " + maxSize);
+      }
+      if (!full && failure != null) {
+        throw new AmqpIOException(failure);
+      }
+      try {
+        if (full && overflowTimeout > 0) {
+          nanos = spareReady.awaitNanos(nanos);
+        } else {
+          spareReady.await();
+        }
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new AmqpResourceNotAvailableException(
+            "spool of source [" + source + "] is interrupted while waiting for segment");
+      }
+    }
+  }
+
+  /**
+   * 日志总大小能否容纳新段，不计入不够大的预分配段；只有当前段时总是允许，保证重发线程能删除当前段
+   *
+   * @param next 新段大小
+   * @return true为可以创建
+   */
+  private boolean hasSpace(int next) {
+    long used = spare == null ? size : size - spare.capacity();
+    return maxSize <= 0 || used + next <= maxSize || segments.size() <= 1;
+  }
+
+  private boolean needsSpare() {
+    return spare == null || spare.capacity() < required;
+  }
+
+  /**
+   * 准备线程：刷盘已切换的段，预分配下一个段，不占用send的调用线程和写锁
+   */
+  private void prepare() {
+    while (true) {
+      SpoolSegment sealed;
+      SpoolSegment stale = null;
+      int next = 0;
+      long seq = 0;
+      lock.lock();
+      try {
+        while (running && unforced.isEmpty() && !(needsSpare() && hasSpace(required))) {
+          prepareRequired.await();
+        }
+        if (!running) {
+          return;
+        }
+        sealed = unforced.pollFirst();
+        if (sealed == null) {
+          // 预分配的段不够大时替换为更大的段
+          stale = spare;
+          if (stale != null) {
+            size -= stale.capacity();
+            spare = null;
+          }
+          next = required;
+          seq = nextSeq++;
+          size += next;
+        }
+      } catch (InterruptedException e) {
+        return;
+      } finally {
+        lock.unlock();
+      }
+      if (sealed != null) {
+        force(sealed);
+        continue;
+      }
+      delete(stale);
+      allocate(seq, next);
+    }
+  }
+
+  private void allocate(long seq, int next) {
+    SpoolSegment segment;
+    try {
+      segment = SpoolSegment.create(directory, seq, next);
+    } catch (IOException e) {
+      lock.lock();
+      try {
+        size -= next;
+        failure = e;
+        spareReady.signalAll();
+      } finally {
+        lock.unlock();
+      }
+      log.error("spool of source [{}] cannot allocate segment [{}], retry later", source, seq, e);
+      LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(retryInterval));
+      return;
+    }
+    lock.lock();
+    try {
+      spare = segment;
+      failure = null;
+      spareReady.signalAll();
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  private void force(SpoolSegment segment) {
+    try {
+      segment.force();
+    } catch (RuntimeException e) {
+      log.error("spool of source [{}] cannot force segment [{}]", source, segment.seq(), e);
+    }
+  }
+
+  private void delete(SpoolSegment segment) {
+    if (segment == null) {
+      return;
+    }
+    try {
+      segment.delete();
+    } catch (IOException e) {
+      log.warn("spool of source [{}] cannot delete segment [{}]", source, segment.seq(), e);
+    }
+  }
+
+  private void drain() {
+    SpoolSegment segment = segments.peekFirst();
+    int pos = segment.confirmed();
+    long forced = System.nanoTime();
+    List<Entry> batch = new ArrayList<>(batchSize);
+    List<Integer> positions = new ArrayList<>(batchSize);
+    while (running && !Thread.currentThread().isInterrupted()) {
+      try {
+        if (forceInterval > 0
+            && System.nanoTime() - forced >= TimeUnit.MILLISECONDS.toNanos(forceInterval)) {
+          tail.force();
+          segment.force();
+          forced = System.nanoTime();
+        }
+        int end = pos;
+        batch.clear();
+        positions.clear();
+        while (batch.size() < batchSize && end < segment.committed()) {
+          byte[] record = segment.read(end);
+          Entry entry = decode(record);
+          if (entry == null) {
+            if (batch.isEmpty()) {
+              // 无法解码的记录重发也不会成功，隔离后跳过
+              Path file = park(segment, end, record, CORRUPT_SUFFIX);
+              metrics.corrupted(1);
+              log.error("spool of source [{}] moved undecodable record to [{}]", source, file);
+              end += SpoolSegment.RECORD_HEADER + record.length;
+              segment.confirm(end);
+              pos = end;
+            }
+            break;
+          }
+          batch.add(entry);
+          positions.add(end);
+          end += SpoolSegment.RECORD_HEADER + record.length;
+        }
+        if (batch.isEmpty()) {
+          if (segment.isSealed() && pos >= segment.committed()) {
+            segment = next(segment);
+            pos = segment.confirmed();
+          } else if (pos >= segment.committed()) {
+            idle = true;
+            if (pos >= segment.committed() && !segment.isSealed()) {
+              LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(retryInterval));
+            }
+            idle = false;
+          }
+          continue;
+        }
+        if (publish(segment, batch, positions)) {
+          segment.confirm(end);
+          pos = end;
+        } else {
+          LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(retryInterval));
+        }
+      } catch (RuntimeException e) {
+        log.error("spool of source [{}] failed to drain segment [{}], retry later", source,
+            segment.seq(), e);
+        LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(retryInterval));
+      }
+    }
+  }
+
+  private SpoolSegment next(SpoolSegment segment) {
+    lock.lock();
+    try {
+      segments.pollFirst();
+      size -= segment.capacity();
+      prepareRequired.signal();
+    } finally {
+      lock.unlock();
+    }
+    delete(segment);
+    return segments.peekFirst();
+  }
+
+  private Entry decode(byte[] record) {
+    try {
+      return SpoolCodec.decode(new DataInputStream(new ByteArrayInputStream(record)));
+    } catch (IOException | RuntimeException e) {
+      log.error("spool of source [{}] cannot decode record", source, e);
+      return null;
+    }
+  }
+
+  /**
+   * 将记录移到同目录的文件，文件名为 段序号-位置+后缀，内容与段内记录相同
+   */
+  private Path park(SpoolSegment segment, int pos, byte[] record, String suffix) {
+    Path file = directory.resolve(String.format("%020d-%d%s", segment.seq(), pos, suffix));
+    try {
+      Files.write(file, record);
+    } catch (IOException e) {
+      throw new AmqpIOException(e);
+    }
+    return file;
+  }
+
+  private static long millis(Duration duration) {
+    return duration == null ? 0 : duration.toMillis();
+  }
+
+  private boolean publish(SpoolSegment segment, List<Entry> batch, List<Integer> positions) {
+    List<CorrelationData> correlations = new ArrayList<>(batch.size());
+    try {
+      for (Entry entry : batch) {
+        CorrelationData correlation = new CorrelationData();
+        template.send(entry.exchange(), entry.routing(), entry.message(), correlation);
+        correlations.add(correlation);
+      }
+      long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(confirmTimeout);
+      for (int i = 0; i < correlations.size(); i++) {
+        CorrelationData correlation = correlations.get(i);
+        CorrelationData.Confirm confirm = correlation.getFuture()
+            .get(Math.max(0, deadline - System.nanoTime()), TimeUnit.NANOSECONDS);
+        if (!confirm.isAck()) {
+          log.warn("spool of source [{}] message was nacked: {}, retry later", source,
+              confirm.getReason());
+          return false;
+        }
+      }
+      // 退回在确认之前到达；退回的记录重发也无法路由，移出日志保留
+      for (int i = 0; i < correlations.size(); i++) {
+        ReturnedMessage returned = correlations.get(i).getReturned();
+        if (returned != null) {
+          int pos = positions.get(i);
+          Path file = park(segment, pos, segment.read(pos), RETURNED_SUFFIX);
+          metrics.returned(1);
+          log.error("spool of source [{}] message was returned [{} {}], moved to [{}]", source,
+              returned.getReplyCode(), returned.getReplyText(), file);
+        }
+      }
+      return true;
+    } catch (AmqpException | ExecutionException | TimeoutException e) {
+      log.warn("spool of source [{}] failed to publish {} messages, retry later", source,
+          batch.size(), e);
+      return false;
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      return false;
+    }
+  }
+
+  /**
+   * 一条spool记录
+   *
+   * @param exchange 交换机
+   * @param routing  路由
+   * @param message  消息
+   */
+  record Entry(String exchange, String routing, Message message) {
+
+  }
+}
@@ -0,0 +1,278 @@
+/*
+ * Copyright (C) 2024 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package vip.justlive.rabbit.producer;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import org.springframework.amqp.core.Message;
+import org.springframework.amqp.core.MessageDeliveryMode;
+import org.springframework.amqp.core.MessageProperties;
+import org.springframework.amqp.support.converter.MessageConversionException;
+
+/**
+ * spool记录编解码，格式为 版本 exchange routing 消息属性 消息头 消息体
+ * <p>
+ * 字符串为长度前缀的UTF-8，消息头按AMQP字段表支持的类型原样保存，其他类型在写入时拒绝
+ *
+ * @author wubo
+ */
+final class SpoolCodec {
+
+  private static final byte VERSION = 1;
+
+  private static final byte NULL = 0;
+  private static final byte STRING = 1;
+  private static final byte INT = 2;
+  private static final byte LONG = 3;
+  private static final byte DOUBLE = 4;
+  private static final byte BOOLEAN = 5;
+  private static final byte BYTES = 6;
+  private static final byte SHORT = 7;
+  private static final byte BYTE = 8;
+  private static final byte FLOAT = 9;
+  private static final byte DATE = 10;
+  private static final byte DECIMAL = 11;
+  private static final byte LIST = 12;
+  private static final byte MAP = 13;
+
+  private SpoolCodec() {
+  }
+
+  /**
+   * 编码
+   *
+   * @param exchange 交换机
+   * @param routing  路由
+   * @param message  消息
+   * @return 记录
+   * @throws MessageConversionException 消息头包含不支持的类型
+   */
+  static byte[] encode(String exchange, String routing, Message message) {
+    MessageProperties props = message.getMessageProperties();
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream(message.getBody().length + 128);
+    try (DataOutputStream out = new DataOutputStream(bytes)) {
+      out.writeByte(VERSION);
+      writeString(out, exchange);
+      writeString(out, routing);
+      writeString(out, props.getContentType());
+      writeString(out, props.getContentEncoding());
+      writeString(out, props.getMessageId());
+      writeString(out, props.getCorrelationId());
+      writeString(out, props.getType());
+      writeString(out, props.getAppId());
+      writeString(out, props.getUserId());
+      writeString(out, props.getClusterId());
+      writeString(out, props.getReplyTo());
+      writeString(out, props.getExpiration());
+      MessageDeliveryMode mode = props.getDeliveryMode();
+      out.writeByte(mode == null ? -1 : mode.ordinal());
+      Integer priority = props.getPriority();
+      out.writeInt(priority == null ? -1 : priority);
+      Date timestamp = props.getTimestamp();
+      out.writeLong(timestamp == null ? -1 : timestamp.getTime());
+      writeMap(out, props.getHeaders());
+      writeBytes(out, message.getBody());
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+    return bytes.toByteArray();
+  }
+
+  /**
+   * 解码
+   *
+   * @param in 记录
+   * @return 记录
+   * @throws IOException 记录格式错误
+   */
+  static Spool.Entry decode(DataInputStream in) throws IOException {
+    byte version = in.readByte();
+    if (version != VERSION) {
+      throw new IOException("unknown spool record version " + version);
+    }
+    String exchange = readString(in);
+    String routing = readString(in);
+    MessageProperties props = new MessageProperties();
+    props.setContentType(readString(in));
+    props.setContentEncoding(readString(in));
+    props.setMessageId(readString(in));
+    props.setCorrelationId(readString(in));
+    props.setType(readString(in));
+    props.setAppId(readString(in));
+    props.setUserId(readString(in));
+    props.setClusterId(readString(in));
+    props.setReplyTo(readString(in));
+    props.setExpiration(readString(in));
+    int mode = in.readByte();
+    props.setDeliveryMode(mode < 0 ? null : MessageDeliveryMode.values()[mode]);
+    int priority = in.readInt();
+    props.setPriority(priority < 0 ? null : priority);
+    long timestamp = in.readLong();
+    props.setTimestamp(timestamp < 0 ? null : new Date(timestamp));
+    props.getHeaders().putAll(readMap(in));
+    return new Spool.Entry(exchange, routing, new Message(readBytes(in), props));
+  }
+
+  private static void writeString(DataOutputStream out, String value) throws IOException {
+    if (value == null) {
+      out.writeInt(-1);
+    } else {
+      writeBytes(out, value.getBytes(StandardCharsets.UTF_8));
+    }
+  }
+
+  private static String readString(DataInputStream in) throws IOException {
+    byte[] bytes = readBytes(in);
+    return bytes == null ? null : new String(bytes, StandardCharsets.UTF_8);
+  }
+
+  private static void writeBytes(DataOutputStream out, byte[] value) throws IOException {
+    out.writeInt(value.length);
+    out.write(value);
+  }
+
+  private static byte[] readBytes(DataInputStream in) throws IOException {
+    int length = in.readInt();
+    if (length < 0) {
+      return null;
+    }
+    byte[] bytes = new byte[length];
+    in.readFully(bytes);
+    return bytes;
+  }
+
+  private static void writeMap(DataOutputStream out, Map<?, ?> map) throws IOException {
+    out.writeInt(map.size());
+    for (Map.Entry<?, ?> entry : map.entrySet()) {
+      writeString(out, String.valueOf(entry.getKey()));
+      writeValue(out, entry.getValue());
+    }
+  }
+
+  private static Map<String, Object> readMap(DataInputStream in) throws IOException {
+    int size = in.readInt();
+    Map<String, Object> map = new LinkedHashMap<>(Math.max(4, size * 2));
+    for (int i = 0; i < size; i++) {
+      map.put(readString(in), readValue(in));
+    }
+    return map;
+  }
+
+  private static void writeValue(DataOutputStream out, Object value) throws IOException {
+    switch (value) {
+      case null -> out.writeByte(NULL);
+      case String v -> {
+        out.writeByte(STRING);
+        writeString(out, v);
+      }
+      case Integer v -> {
+        out.writeByte(INT);
+        out.writeInt(v);
+      }
+      case Long v -> {
+        out.writeByte(LONG);
+        out.writeLong(v);
+      }
+      case Short v -> {
+        out.writeByte(SHORT);
+        out.writeShort(v);
+      }
+      case Byte v -> {
+        out.writeByte(BYTE);
+        out.writeByte(v);
+      }
+      case Double v -> {
+        out.writeByte(DOUBLE);
+        out.writeDouble(v);
+      }
+      case Float v -> {
+        out.writeByte(FLOAT);
+        out.writeFloat(v);
+      }
+      case Boolean v -> {
+        out.writeByte(BOOLEAN);
+        out.writeBoolean(v);
+      }
+      case byte[] v -> {
+        out.writeByte(BYTES);
+        writeBytes(out, v);
+      }
+      case Date v -> {
+        out.writeByte(DATE);
+        out.writeLong(v.getTime());
+      }
+      case BigDecimal v -> {
+        out.writeByte(DECIMAL);
+        out.writeInt(v.scale());
+        writeBytes(out, v.unscaledValue().toByteArray());
+      }
+      case List<?> v -> {
+        out.writeByte(LIST);
+        out.writeInt(v.size());
+        for (Object item : v) {
+          writeValue(out, item);
+        }
+      }
+      case Map<?, ?> v -> {
+        out.writeByte(MAP);
+        writeMap(out, v);
+      }
+      default -> throw new MessageConversionException(
+          "unsupported header type for spool: " + value.getClass().getName());
+    }
+  }
+
+  private static Object readValue(DataInputStream in) throws IOException {
+    byte type = in.readByte();
+    return switch (type) {
+      case NULL -> null;
+      case STRING -> readString(in);
+      case INT -> in.readInt();
+      case LONG -> in.readLong();
+      case SHORT -> in.readShort();
+      case BYTE -> in.readByte();
+      case DOUBLE -> in.readDouble();
+      case FLOAT -> in.readFloat();
+      case BOOLEAN -> in.readBoolean();
+      case BYTES -> readBytes(in);
+      case DATE -> new Date(in.readLong());
+      case DECIMAL -> {
+        int scale = in.readInt();
+        yield new BigDecimal(new BigInteger(readBytes(in)), scale);
+      }
+      case LIST -> {
+        int size = in.readInt();
+        List<Object> list = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) {
+          list.add(readValue(in));
+        }
+        yield list;
+      }
+      case MAP -> readMap(in);
+      default -> throw new IOException("unknown spool header type " + type);
+    };
+  }
+}
@@ -0,0 +1,228 @@
+/*
+ * Copyright (C) 2024 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package vip.justlive.rabbit.producer;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.zip.CRC32C;
+
+/**
+ * spool日志段，固定大小的内存映射文件
+ * <p>
+ * 创建时写满0预分配磁盘空间，磁盘不足时在创建段时抛出io异常，避免写入映射内存时触发SIGBUS
+ * <p>
+ * 段头为 magic(4) 保留(4) 已确认位置(8)，之后每条记录为 长度(4) crc32c(4) 内容，长度最后写入
+ *
+ * @author wubo
+ */
+final class SpoolSegment {
+
+  static final int HEADER = 16;
+  static final int RECORD_HEADER = 8;
+  static final String SUFFIX = ".spool";
+
+  private static final int MAGIC = 0x45525350;
+  private static final int CONFIRMED = 8;
+  private static final int FILL_BLOCK = 1024 * 1024;
+
+  private final long seq;
+  private final Path path;
+  private final MappedByteBuffer buffer;
+  private final int capacity;
+  /**
+   * 已写入记录的结束位置
+   */
+  private volatile int committed;
+  /**
+   * 写入端已切换到下一个段
+   */
+  private volatile boolean sealed;
+
+  private SpoolSegment(long seq, Path path, MappedByteBuffer buffer) {
+    this.seq = seq;
+    this.path = path;
+    this.buffer = buffer;
+    this.capacity = buffer.capacity();
+  }
+
+  /**
+   * 创建新的段
+   *
+   * @param dir  目录
+   * @param seq  序号
+   * @param size 大小
+   * @return segment
+   * @throws IOException io异常
+   */
+  static SpoolSegment create(Path dir, long seq, int size) throws IOException {
+    Path path = dir.resolve(String.format("%020d%s", seq, SUFFIX));
+    try (FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE_NEW,
+        StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+      preallocate(channel, size);
+      SpoolSegment segment = new SpoolSegment(seq, path,
+          channel.map(FileChannel.MapMode.READ_WRITE, 0, size));
+      segment.buffer.putInt(0, MAGIC);
+      segment.buffer.putLong(CONFIRMED, HEADER);
+      segment.committed = HEADER;
+      return segment;
+    } catch (IOException e) {
+      Files.deleteIfExists(path);
+      throw e;
+    }
+  }
+
+  /**
+   * 恢复已有的段，扫描到第一条不完整的记录为止，恢复的段不再写入
+   *
+   * @param path 文件
+   * @param seq  序号
+   * @return 不是spool文件时返回null
+   * @throws IOException io异常
+   */
+  static SpoolSegment recover(Path path, long seq) throws IOException {
+    try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ,
+        StandardOpenOption.WRITE)) {
+      if (channel.size() < HEADER) {
+        return null;
+      }
+      SpoolSegment segment = new SpoolSegment(seq, path,
+          channel.map(FileChannel.MapMode.READ_WRITE, 0, channel.size()));
+      if (segment.buffer.getInt(0) != MAGIC) {
+        return null;
+      }
+      int pos = HEADER;
+      while (pos + RECORD_HEADER <= segment.capacity) {
+        int length = segment.buffer.getInt(pos);
+        if (length <= 0 || pos + RECORD_HEADER + length > segment.capacity
+            || segment.crc(pos + RECORD_HEADER, length) != segment.buffer.getInt(pos + 4)) {
+          break;
+        }
+        pos += RECORD_HEADER + length;
+      }
+      segment.committed = pos;
+      segment.sealed = true;
+      return segment;
+    }
+  }
+
+  /**
+   * 剩余空间是否能写入记录，只在写锁内调用
+   *
+   * @param length 记录长度
+   * @return true为可写入
+   */
+  boolean fits(int length) {
+    return capacity - committed >= RECORD_HEADER + length;
+  }
+
+  /**
+   * 追加记录，只在写锁内调用
+   *
+   * @param record 记录
+   */
+  void append(byte[] record) {
+    int pos = committed;
+    buffer.put(pos + RECORD_HEADER, record);
+    CRC32C crc = new CRC32C();
+    crc.update(record);
+    buffer.putInt(pos + 4, (int) crc.getValue());
+    buffer.putInt(pos, record.length);
+    committed = pos + RECORD_HEADER + record.length;
+  }
+
+  /**
+   * 读取记录内容
+   *
+   * @param pos 记录位置
+   * @return 内容
+   */
+  byte[] read(int pos) {
+    byte[] record = new byte[buffer.getInt(pos)];
+    buffer.get(pos + RECORD_HEADER, record);
+    return record;
+  }
+
+  /**
+   * 记录已被broker确认的位置，重启后从该位置开始重发
+   *
+   * @param pos 位置
+   */
+  void confirm(int pos) {
+    buffer.putLong(CONFIRMED, pos);
+  }
+
+  int confirmed() {
+    return (int) buffer.getLong(CONFIRMED);
+  }
+
+  /**
+   * 写入端切换到下一个段，只在写锁内调用，由spool的准备线程刷盘
+   */
+  void seal() {
+    sealed = true;
+  }
+
+  /**
+   * 将已写入的记录和确认位置刷盘
+   */
+  void force() {
+    buffer.force();
+  }
+
+  boolean isSealed() {
+    return sealed;
+  }
+
+  int committed() {
+    return committed;
+  }
+
+  long seq() {
+    return seq;
+  }
+
+  int capacity() {
+    return capacity;
+  }
+
+  /**
+   * 删除文件，映射内存在buffer被回收后释放
+   *
+   * @throws IOException io异常
+   */
+  void delete() throws IOException {
+    Files.deleteIfExists(path);
+  }
+
+  private static void preallocate(FileChannel channel, int size) throws IOException {
+    ByteBuffer zeros = ByteBuffer.allocateDirect(Math.min(size, FILL_BLOCK));
+    long pos = 0;
+    while (pos < size) {
+      zeros.clear().limit((int) Math.min(zeros.capacity(), size - pos));
+      pos += channel.write(zeros, pos);
+    }
+  }
+
+  private int crc(int pos, int length) {
+    CRC32C crc = new CRC32C();
+    crc.update(buffer.slice(pos, length));
+    return (int) crc.getValue();
+  }
+}
@@ -0,0 +1,207 @@
+/*
+ * Copyright (C) 2024 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package vip.justlive.rabbit.annotation;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.io.IOException;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import javax.tools.Diagnostic;
+import javax.tools.DiagnosticCollector;
+import javax.tools.JavaCompiler;
+import javax.tools.JavaFileObject;
+import javax.tools.StandardJavaFileManager;
+import javax.tools.ToolProvider;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.beans.factory.annotation.AnnotatedBeanDefinition;
+import org.springframework.beans.factory.config.BeanDefinition;
+import org.springframework.context.annotation.ClassPathScanningCandidateComponentProvider;
+import org.springframework.core.io.DefaultResourceLoader;
+import org.springframework.core.type.filter.AnnotationTypeFilter;
+import vip.justlive.rabbit.consumer.AsyncConsumer;
+import vip.justlive.rabbit.consumer.BatchConsumer;
+import vip.justlive.rabbit.consumer.Consumer;
+import vip.justlive.rabbit.producer.BaseProducer;
+
+/**
+ * 编译期生成的索引与类路径扫描结果一致
+ *
+ * @author wubo
+ */
+class RqueueIndexProcessorTest {
+
+  private static final String PACKAGE = "sample";
+  private static final List<Class<?>> TYPES = List.of(BaseProducer.class, Consumer.class,
+      BatchConsumer.class, AsyncConsumer.class);
+
+  @TempDir
+  Path dir;
+
+  @Test
+  void indexMatchesPackageScan() throws Exception {
+    Path out = dir.resolve("classes");
+    compile(out, Map.of(
+        "OrderProducer", """
+            @Rqueue(queue = "${order.queue:orders}", exchange = "orders.x", routing = "create")
+            public interface OrderProducer extends BaseProducer<String> {
+            }""",
+        "OrderConsumer", """
+            @Rqueue(queue = "orders", concurrency = "2", window = "8")
+            public class OrderConsumer implements Consumer<String> {
+              public void accept(String msg) {
+              }
+            }""",
+        "Outer", """
+            public class Outer {
+              @Rqueue(queue = "batch", batchSize = "10")
+              public static class Inner implements BatchConsumer<String> {
+                public void accept(java.util.List<String> msgs) {
+                }
+              }
+            }""",
+        "RemoteConsumer", """
+            @Rqueue(queue = "remote", datasource = "second")
+            public class RemoteConsumer implements AsyncConsumer<String> {
+              public java.util.concurrent.CompletionStage<Void> accept(String msg) {
+                return null;
+              }
+            }""",
+        "Plain", """
+            @Rqueue(queue = "plain")
+            public class Plain {
+            }""",
+        "Unannotated", """
+            public class Unannotated implements Consumer<String> {
+              public void accept(String msg) {
+              }
+            }"""));
+
+    try (URLClassLoader loader = new URLClassLoader(new URL[]{out.toUri().toURL()},
+        getClass().getClassLoader())) {
+      RqueueIndex index = RqueueIndex.load(loader);
+      assertThat(index).isNotNull();
+
+      Set<String> scanned = scan(loader);
+      assertThat(scanned).containsExactly("sample.OrderConsumer", "sample.OrderProducer",
+          "sample.Outer$Inner", "sample.RemoteConsumer");
+      List<String> producers = new ArrayList<>();
+      for (String className : scanned) {
+        Class<?> type = loader.loadClass(className);
+        if (type.isInterface()) {
+          producers.add(className);
+        }
+        assertThat(index.lookup(className)).isEqualTo(type.getAnnotation(Rqueue.class));
+      }
+      assertThat(index.producers(PACKAGE)).isEqualTo(producers);
+      // 注解类型不对的类不进入索引，与扫描后按类型过滤一致
+      assertThat(index.lookup("sample.Plain")).isNull();
+      assertThat(index.lookup("sample.Unannotated")).isNull();
+    }
+  }
+
+  @Test
+  void incrementalCompileKeepsUnchangedEntries() throws Exception {
+    Path out = dir.resolve("classes");
+    compile(out, Map.of(
+        "First", """
+            @Rqueue(queue = "first")
+            public class First implements Consumer<String> {
+              public void accept(String msg) {
+              }
+            }""",
+        "Second", """
+            @Rqueue(queue = "second")
+            public class Second implements Consumer<String> {
+              public void accept(String msg) {
+              }
+            }"""));
+    // 只重新编译去掉注解的Second，First仍保留
+    compile(out, Map.of(
+        "Second", """
+            public class Second implements Consumer<String> {
+              public void accept(String msg) {
+              }
+            }"""));
+
+    try (URLClassLoader loader = new URLClassLoader(new URL[]{out.toUri().toURL()},
+        getClass().getClassLoader())) {
+      RqueueIndex index = RqueueIndex.load(loader);
+      assertThat(scan(loader)).containsExactly("sample.First");
+      assertThat(index.lookup("sample.First").queue()).isEqualTo("first");
+      assertThat(index.lookup("sample.Second")).isNull();
+    }
+  }
+
+  private void compile(Path out, Map<String, String> sources) throws IOException {
+    Path src = Files.createDirectories(dir.resolve("src").resolve(PACKAGE));
+    List<Path> files = new ArrayList<>();
+    for (Map.Entry<String, String> entry : sources.entrySet()) {
+      Path file = src.resolve(entry.getKey() + ".java");
+      Files.writeString(file, "package " + PACKAGE + ";\n\n"
+          + "import vip.justlive.rabbit.annotation.Rqueue;\n"
+          + "import vip.justlive.rabbit.consumer.*;\n"
+          + "import vip.justlive.rabbit.producer.BaseProducer;\n\n" + entry.getValue() + "\n");
+      files.add(file);
+    }
+    Files.createDirectories(out);
+
+    JavaCompiler compiler = ToolProvider.getSystemJavaCompiler();
+    DiagnosticCollector<JavaFileObject> diagnostics = new DiagnosticCollector<>();
+    try (StandardJavaFileManager manager = compiler.getStandardFileManager(diagnostics, null,
+        null)) {
+      String classpath = out + System.getProperty("path.separator")
+          + System.getProperty("java.class.path");
+      JavaCompiler.CompilationTask task = compiler.getTask(null, manager, diagnostics,
+          List.of("-d", out.toString(), "-classpath", classpath, "-implicit:none"), null,
+          manager.getJavaFileObjectsFromPaths(files));
+      task.setProcessors(List.of(new RqueueIndexProcessor()));
+      assertThat(task.call()).as("%s", diagnostics.getDiagnostics()).isTrue();
+    }
+    assertThat(diagnostics.getDiagnostics()).filteredOn(d -> d.getKind() == Diagnostic.Kind.ERROR)
+        .isEmpty();
+  }
+
+  /**
+   * 与启动时一致：按注解扫描包，再按生产者和消费者类型过滤
+   */
+  private Set<String> scan(ClassLoader loader) throws ClassNotFoundException {
+    ClassPathScanningCandidateComponentProvider scanner =
+        new ClassPathScanningCandidateComponentProvider(false) {
+          @Override
+          protected boolean isCandidateComponent(AnnotatedBeanDefinition beanDefinition) {
+            return beanDefinition.getMetadata().isIndependent();
+          }
+        };
+    scanner.setResourceLoader(new DefaultResourceLoader(loader));
+    scanner.addIncludeFilter(new AnnotationTypeFilter(Rqueue.class));
+    Set<String> classNames = new TreeSet<>();
+    for (BeanDefinition candidate : scanner.findCandidateComponents(PACKAGE)) {
+      Class<?> type = loader.loadClass(candidate.getBeanClassName());
+      if (TYPES.stream().anyMatch(t -> t.isAssignableFrom(type))) {
+        classNames.add(type.getName());
+      }
+    }
+    return classNames;
+  }
+}
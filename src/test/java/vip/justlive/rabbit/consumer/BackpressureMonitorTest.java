@@ -0,0 +1,150 @@
+/*
+ * Copyright (C) 2024 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package vip.justlive.rabbit.consumer;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.awaitility.Awaitility.await;
+
+import java.time.Duration;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.amqp.rabbit.connection.CachingConnectionFactory;
+import org.springframework.amqp.rabbit.listener.AbstractMessageListenerContainer;
+import org.springframework.beans.factory.support.DefaultListableBeanFactory;
+import vip.justlive.rabbit.loopback.LoopbackBroker;
+import vip.justlive.rabbit.loopback.LoopbackConnectionFactory;
+
+/**
+ * 背压饱和时暂停容器，恢复后只重启由监控暂停的容器
+ *
+ * @author wubo
+ */
+class BackpressureMonitorTest {
+
+  private static final Duration TIMEOUT = Duration.ofSeconds(5);
+
+  private volatile boolean saturated;
+  private BackpressureMonitor monitor;
+
+  @AfterEach
+  void stop() {
+    if (monitor != null) {
+      monitor.stop();
+    }
+  }
+
+  @Test
+  void pausesAndResumesRunningContainer() {
+    StubContainer container = new StubContainer(true);
+    monitor = monitor(container, "g");
+
+    saturated = true;
+    await().atMost(TIMEOUT).until(() -> !container.isRunning());
+    assertThat(container.stops.get()).isEqualTo(1);
+
+    saturated = false;
+    await().atMost(TIMEOUT).until(container::isRunning);
+    assertThat(container.starts.get()).isEqualTo(1);
+  }
+
+  @Test
+  void leavesContainerStoppedElsewhereAlone() throws Exception {
+    StubContainer container = new StubContainer(false);
+    StubContainer other = new StubContainer(true);
+    monitor = monitor(container, "g");
+    monitor.add(other, "primary", "other");
+
+    saturated = true;
+    Thread.sleep(100);
+    saturated = false;
+    Thread.sleep(100);
+
+    assertThat(container.isRunning()).isFalse();
+    assertThat(container.stops.get()).isZero();
+    assertThat(container.starts.get()).isZero();
+    assertThat(other.stops.get()).isZero();
+  }
+
+  @Test
+  void doesNotRestartContainerStoppedAfterResume() throws Exception {
+    StubContainer container = new StubContainer(true);
+    monitor = monitor(container, "g");
+
+    saturated = true;
+    await().atMost(TIMEOUT).until(() -> !container.isRunning());
+    saturated = false;
+    await().atMost(TIMEOUT).until(container::isRunning);
+
+    // 恢复后被其他方式停止，再次饱和和恢复时不由监控启动
+    container.stop();
+    saturated = true;
+    Thread.sleep(100);
+    saturated = false;
+    Thread.sleep(100);
+
+    assertThat(container.isRunning()).isFalse();
+    assertThat(container.starts.get()).isEqualTo(1);
+  }
+
+  private BackpressureMonitor monitor(StubContainer container, String group) {
+    DefaultListableBeanFactory beanFactory = new DefaultListableBeanFactory();
+    beanFactory.registerSingleton("signal",
+        (BackpressureSignal) (datasource, g) -> saturated && group.equals(g));
+    BackpressureMonitor result = new BackpressureMonitor(
+        beanFactory.getBeanProvider(BackpressureSignal.class), 10);
+    result.add(container, "primary", group);
+    result.start();
+    assertThat(result.isRunning()).isTrue();
+    return result;
+  }
+
+  private static class StubContainer extends AbstractMessageListenerContainer {
+
+    private final AtomicInteger starts = new AtomicInteger();
+    private final AtomicInteger stops = new AtomicInteger();
+
+    StubContainer(boolean running) {
+      setConnectionFactory(new CachingConnectionFactory(
+          new LoopbackConnectionFactory(LoopbackBroker.of("backpressure"))));
+      if (running) {
+        start();
+        starts.set(0);
+      }
+    }
+
+    @Override
+    protected void doInitialize() {
+      // 不创建消费者
+    }
+
+    @Override
+    protected void doShutdown() {
+      // 不创建消费者
+    }
+
+    @Override
+    protected void doStart() {
+      starts.incrementAndGet();
+      super.doStart();
+    }
+
+    @Override
+    protected void doStop() {
+      stops.incrementAndGet();
+      super.doStop();
+    }
+  }
+}
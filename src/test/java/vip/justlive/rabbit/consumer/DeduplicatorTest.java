@@ -0,0 +1,117 @@
+/*
+ * Copyright (C) 2024 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package vip.justlive.rabbit.consumer;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.awaitility.Awaitility.await;
+
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.jupiter.api.Test;
+import org.springframework.amqp.core.MessageProperties;
+import vip.justlive.rabbit.EasyRabbitProperties;
+
+/**
+ * 重复消息过滤的淘汰、过期和key计算
+ *
+ * @author wubo
+ */
+class DeduplicatorTest {
+
+  @Test
+  void remembersProcessedMessages() {
+    Deduplicator deduplicator = new Deduplicator(properties(null, 1000, Duration.ofMinutes(1)));
+    long key = deduplicator.key("q", message("1"));
+
+    assertThat(deduplicator.seen(key)).isFalse();
+    deduplicator.remember(key);
+    assertThat(deduplicator.seen(key)).isTrue();
+    assertThat(deduplicator.seen(deduplicator.key("q", message("2")))).isFalse();
+    assertThat(deduplicator.seen(deduplicator.key("other", message("1")))).isFalse();
+  }
+
+  @Test
+  void fullSetEvictsOldestEntry() {
+    // 容量小于分段数*组大小时每个分段只有一组
+    Deduplicator deduplicator = new Deduplicator(properties(null, 1, Duration.ofMinutes(1)));
+    List<Long> keys = new ArrayList<>();
+    long first = deduplicator.key("q", message("0"));
+    for (int i = 0; keys.size() < 9; i++) {
+      long key = deduplicator.key("q", message(Integer.toString(i)));
+      if (key >>> 58 == first >>> 58) {
+        keys.add(key);
+      }
+    }
+
+    keys.forEach(deduplicator::remember);
+
+    assertThat(deduplicator.seen(keys.getFirst())).isFalse();
+    keys.subList(1, keys.size()).forEach(key -> assertThat(deduplicator.seen(key)).isTrue());
+  }
+
+  @Test
+  void entriesExpireAfterTtl() {
+    Deduplicator deduplicator = new Deduplicator(properties(null, 1000, Duration.ofSeconds(1)));
+    long key = deduplicator.key("q", message("1"));
+    deduplicator.remember(key);
+
+    assertThat(deduplicator.seen(key)).isTrue();
+    await().atMost(Duration.ofSeconds(5)).until(() -> !deduplicator.seen(key));
+  }
+
+  @Test
+  void messagesWithoutKeyAreNeverFiltered() {
+    Deduplicator deduplicator = new Deduplicator(properties(null, 1000, Duration.ofMinutes(1)));
+    long key = deduplicator.key("q", new MessageProperties());
+
+    assertThat(key).isZero();
+    deduplicator.remember(key);
+    assertThat(deduplicator.seen(key)).isFalse();
+  }
+
+  @Test
+  void headerIsUsedAsKey() {
+    Deduplicator deduplicator = new Deduplicator(
+        properties("biz-id", 1000, Duration.ofMinutes(1)));
+    MessageProperties props = message("1");
+    props.setHeader("biz-id", "order-1");
+    MessageProperties bytes = new MessageProperties();
+    bytes.setHeader("biz-id", "order-1".getBytes(StandardCharsets.UTF_8));
+    MessageProperties other = message("1");
+    other.setHeader("biz-id", "order-2");
+
+    assertThat(deduplicator.key("q", message("1"))).isZero();
+    assertThat(deduplicator.key("q", props)).isNotZero()
+        .isEqualTo(deduplicator.key("q", bytes))
+        .isNotEqualTo(deduplicator.key("q", other));
+  }
+
+  private static EasyRabbitProperties.DedupProperties properties(String header, int capacity,
+      Duration ttl) {
+    EasyRabbitProperties.DedupProperties properties = new EasyRabbitProperties.DedupProperties();
+    properties.setHeader(header);
+    properties.setCapacity(capacity);
+    properties.setTtl(ttl);
+    return properties;
+  }
+
+  private static MessageProperties message(String id) {
+    MessageProperties props = new MessageProperties();
+    props.setMessageId(id);
+    return props;
+  }
+}
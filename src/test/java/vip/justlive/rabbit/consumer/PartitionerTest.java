@@ -0,0 +1,123 @@
+/*
+ * Copyright (C) 2024 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package vip.justlive.rabbit.consumer;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.amqp.core.Message;
+import org.springframework.amqp.core.MessageProperties;
+
+/**
+ * 相同key串行有序，不同key并行
+ *
+ * @author wubo
+ */
+class PartitionerTest {
+
+  private final Partitioner partitioner = new Partitioner("test", 4, "key", null, false);
+
+  @AfterEach
+  void shutdown() {
+    partitioner.shutdown();
+  }
+
+  @Test
+  void sameKeyRunsSeriallyInOrder() throws Exception {
+    Map<String, List<Integer>> orders = new ConcurrentHashMap<>();
+    Map<String, List<String>> threads = new ConcurrentHashMap<>();
+    Map<String, Integer> running = new ConcurrentHashMap<>();
+    List<String> overlaps = new CopyOnWriteArrayList<>();
+    CountDownLatch done = new CountDownLatch(8 * 50);
+
+    for (int i = 0; i < 50; i++) {
+      for (int k = 0; k < 8; k++) {
+        String key = "k" + k;
+        int seq = i;
+        partitioner.lane(message(key), null).execute(() -> {
+          if (running.merge(key, 1, Integer::sum) > 1) {
+            overlaps.add(key);
+          }
+          orders.computeIfAbsent(key, x -> new CopyOnWriteArrayList<>()).add(seq);
+          threads.computeIfAbsent(key, x -> new CopyOnWriteArrayList<>())
+              .add(Thread.currentThread().getName());
+          running.merge(key, -1, Integer::sum);
+          done.countDown();
+        });
+      }
+    }
+
+    assertThat(done.await(10, TimeUnit.SECONDS)).isTrue();
+    assertThat(overlaps).isEmpty();
+    List<Integer> expected = new ArrayList<>();
+    for (int i = 0; i < 50; i++) {
+      expected.add(i);
+    }
+    assertThat(orders).hasSize(8).allSatisfy((key, seqs) -> assertThat(seqs).isEqualTo(expected));
+    assertThat(threads).allSatisfy((key, names) -> assertThat(names).containsOnly(names.get(0)));
+  }
+
+  @Test
+  void differentKeysRunInParallel() throws Exception {
+    ExecutorService first = partitioner.lane(message("k0"), null);
+    String other = null;
+    for (int k = 1; other == null; k++) {
+      if (partitioner.lane(message("k" + k), null) != first) {
+        other = "k" + k;
+      }
+    }
+
+    // 两个通道的任务互相等待，串行执行时无法都完成
+    CountDownLatch started = new CountDownLatch(2);
+    CountDownLatch done = new CountDownLatch(2);
+    Runnable task = () -> {
+      started.countDown();
+      try {
+        if (started.await(5, TimeUnit.SECONDS)) {
+          done.countDown();
+        }
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      }
+    };
+    first.execute(task);
+    partitioner.lane(message(other), null).execute(task);
+
+    assertThat(done.await(10, TimeUnit.SECONDS)).isTrue();
+  }
+
+  @Test
+  void missingKeySharesOneLane() {
+    Message first = new Message(new byte[0], new MessageProperties());
+    Message second = new Message(new byte[0], new MessageProperties());
+
+    assertThat(partitioner.lane(first, null)).isSameAs(partitioner.lane(second, null));
+  }
+
+  private Message message(String key) {
+    MessageProperties props = new MessageProperties();
+    props.setHeader("key", key);
+    return new Message(new byte[0], props);
+  }
+}
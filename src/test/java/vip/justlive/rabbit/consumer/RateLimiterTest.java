@@ -0,0 +1,97 @@
+/*
+ * Copyright (C) 2024 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package vip.justlive.rabbit.consumer;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+/**
+ * 令牌桶的突发容量、速率和分组共享
+ *
+ * @author wubo
+ */
+class RateLimiterTest {
+
+  @AfterEach
+  void clear() {
+    RateLimiter.clearGroups();
+  }
+
+  @Test
+  void fullBucketAllowsOneSecondBurst() {
+    RateLimiter limiter = new RateLimiter(100);
+
+    long start = System.nanoTime();
+    limiter.acquire(100);
+
+    assertThat(elapsedMillis(start)).isLessThan(200);
+  }
+
+  @Test
+  void drainedBucketEnforcesRate() {
+    RateLimiter limiter = new RateLimiter(100);
+    limiter.acquire(100);
+
+    long start = System.nanoTime();
+    for (int i = 0; i < 50; i++) {
+      limiter.acquire(1);
+    }
+
+    // 50个令牌按100/s偿还约500ms
+    assertThat(elapsedMillis(start)).isBetween(400L, 1500L);
+  }
+
+  @Test
+  void concurrentAcquiresShareRate() throws Exception {
+    RateLimiter limiter = new RateLimiter(100);
+    limiter.acquire(100);
+
+    List<Thread> threads = new ArrayList<>();
+    long start = System.nanoTime();
+    for (int i = 0; i < 4; i++) {
+      threads.add(Thread.ofPlatform().start(() -> {
+        for (int j = 0; j < 20; j++) {
+          limiter.acquire(1);
+        }
+      }));
+    }
+    for (Thread thread : threads) {
+      thread.join();
+    }
+
+    assertThat(elapsedMillis(start)).isBetween(700L, 2000L);
+  }
+
+  @Test
+  void groupsAreSharedPerDatasource() {
+    RateLimiter limiter = RateLimiter.group("primary", "g", 10);
+
+    assertThat(RateLimiter.group("primary", "g", 10)).isSameAs(limiter);
+    assertThat(RateLimiter.group("secondary", "g", 20)).isNotSameAs(limiter);
+    assertThatThrownBy(() -> RateLimiter.group("primary", "g", 20))
+        .isInstanceOf(IllegalStateException.class);
+    assertThatThrownBy(() -> new RateLimiter(0)).isInstanceOf(IllegalArgumentException.class);
+  }
+
+  private long elapsedMillis(long start) {
+    return TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+  }
+}
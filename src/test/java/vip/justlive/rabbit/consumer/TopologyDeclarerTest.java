@@ -0,0 +1,130 @@
+/*
+ * Copyright (C) 2024 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package vip.justlive.rabbit.consumer;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatCode;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.amqp.rabbit.connection.CachingConnectionFactory;
+import org.springframework.amqp.rabbit.core.RabbitTemplate;
+import vip.justlive.rabbit.RabbitMeta;
+import vip.justlive.rabbit.loopback.LoopbackBroker;
+import vip.justlive.rabbit.loopback.LoopbackConnectionFactory;
+
+/**
+ * 拓扑批量声明、指纹缓存和verify检查
+ *
+ * @author wubo
+ */
+class TopologyDeclarerTest {
+
+  private static final String DATASOURCE = "topology";
+
+  @TempDir
+  Path dir;
+
+  private CachingConnectionFactory factory;
+  private RabbitTemplate template;
+  private LoopbackBroker broker;
+
+  @BeforeEach
+  void setUp() {
+    // 每个用例使用新的broker，互不影响
+    broker = LoopbackBroker.of(DATASOURCE + "-" + dir.getFileName());
+    factory = new CachingConnectionFactory(new LoopbackConnectionFactory(broker));
+    template = new RabbitTemplate(factory);
+    RabbitMeta meta = new RabbitMeta();
+    meta.setConnectionFactory(factory);
+    meta.setRabbitTemplate(template);
+    RabbitMeta.regist(DATASOURCE, meta);
+  }
+
+  @AfterEach
+  void tearDown() {
+    factory.destroy();
+  }
+
+  @Test
+  void declaresQueuesExchangesAndBindings() {
+    TopologyDeclarer declarer = new TopologyDeclarer(TopologyMode.DECLARE, null);
+    assertThat(declarer.add(meta("t.q", "r"))).isTrue();
+    assertThat(declarer.add(ConsumerMeta.builder().queueName("t.q").datasource("missing")
+        .build())).isFalse();
+    declarer.declare();
+
+    template.convertAndSend("t.x", "r", "hello");
+    assertThat(broker.messageCount("t.q")).isEqualTo(1);
+  }
+
+  @Test
+  void unchangedFingerprintSkipsDeclaration() {
+    Path cache = dir.resolve("topology.properties");
+    TopologyDeclarer first = new TopologyDeclarer(TopologyMode.DECLARE, cache.toString());
+    first.add(meta("t.q", "r"));
+    first.declare();
+    assertThat(cache).isRegularFile();
+
+    // 删除队列后拓扑未变化，跳过声明时不会重建
+    template.execute(channel -> channel.queueDelete("t.q"));
+    TopologyDeclarer second = new TopologyDeclarer(TopologyMode.DECLARE, cache.toString());
+    second.add(meta("t.q", "r"));
+    second.declare();
+    assertThatThrownBy(() -> template.execute(channel -> channel.queueDeclarePassive("t.q")))
+        .hasMessageContaining("t.q");
+
+    TopologyDeclarer changed = new TopologyDeclarer(TopologyMode.DECLARE, cache.toString());
+    changed.add(meta("t.q", "r"));
+    changed.add(meta("t.q2", "r2"));
+    changed.declare();
+    assertThatCode(() -> template.execute(channel -> channel.queueDeclarePassive("t.q")))
+        .doesNotThrowAnyException();
+  }
+
+  @Test
+  void verifyFailsOnMissingExchangeOrQueue() throws Exception {
+    Path cache = dir.resolve("verify.properties");
+    assertThatThrownBy(() -> verify(cache)).isInstanceOf(IllegalStateException.class)
+        .hasMessageContaining(DATASOURCE);
+
+    template.execute(channel -> channel.exchangeDeclare("t.x", "direct"));
+    assertThatThrownBy(() -> verify(cache)).isInstanceOf(IllegalStateException.class)
+        .hasMessageContaining(DATASOURCE);
+    // verify不声明拓扑
+    assertThatThrownBy(() -> template.execute(channel -> channel.queueDeclarePassive("t.q")))
+        .hasMessageContaining("t.q");
+
+    template.execute(channel -> channel.queueDeclare("t.q", true, false, false, null));
+    assertThatCode(() -> verify(cache)).doesNotThrowAnyException();
+    assertThat(Files.exists(cache)).isFalse();
+  }
+
+  private void verify(Path cache) {
+    TopologyDeclarer declarer = new TopologyDeclarer(TopologyMode.VERIFY, cache.toString());
+    declarer.add(meta("t.q", "r"));
+    declarer.declare();
+  }
+
+  private ConsumerMeta meta(String queue, String routing) {
+    return ConsumerMeta.builder().queueName(queue).exchangeName("t.x").exchangeType("direct")
+        .routing(routing).datasource(DATASOURCE).build();
+  }
+}
@@ -0,0 +1,109 @@
+/*
+ * Copyright (C) 2024 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package vip.justlive.rabbit.converter;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import org.junit.jupiter.api.Test;
+import org.springframework.amqp.core.Message;
+import org.springframework.amqp.core.MessageProperties;
+import org.springframework.amqp.support.converter.MessageConversionException;
+
+/**
+ * 按阈值压缩、content-encoding标识和解压
+ *
+ * @author wubo
+ */
+class CompressionsTest {
+
+  private static final int THRESHOLD = 64;
+
+  private final CustomMessageConverter converter = new CustomMessageConverter();
+
+  @Test
+  void bodyBelowThresholdIsNotCompressed() {
+    ConversionPlan plan = plan(String.class);
+    Message message = converter.toMessage("short", plan);
+
+    assertThat(message.getMessageProperties().getContentEncoding()).isNull();
+    assertThat(new String(message.getBody(), StandardCharsets.UTF_8)).isEqualTo("short");
+    assertThat(converter.fromMessage(message, null)).isEqualTo(message.getBody());
+  }
+
+  @Test
+  void bodyAboveThresholdIsCompressedAndRestored() {
+    for (String name : List.of(ZipCompression.GZIP, ZipCompression.DEFLATE)) {
+      ConversionPlan plan = ConversionPlan.of(null, Codecs.lookup(CborCodec.NAME), List.class)
+          .withCompression(Compressions.lookup(name), THRESHOLD);
+      List<String> value = List.of("x".repeat(THRESHOLD), "y".repeat(THRESHOLD));
+      Message message = converter.toMessage(value, plan);
+      MessageProperties props = message.getMessageProperties();
+
+      assertThat(props.getContentEncoding()).isEqualTo(name);
+      assertThat(props.getContentType()).isEqualTo(CborCodec.CONTENT_TYPE);
+      assertThat(props.getContentLength()).isEqualTo(message.getBody().length)
+          .isLessThan(THRESHOLD * 2);
+
+      Message restored = Compressions.decompress(message);
+      assertThat(restored.getMessageProperties().getContentEncoding()).isNull();
+      assertThat(restored.getMessageProperties().getContentLength())
+          .isEqualTo(restored.getBody().length);
+      assertThat(plan.deserialize(restored)).isEqualTo(value);
+    }
+  }
+
+  @Test
+  void charsetIsKeptBehindCompression() {
+    MessageProperties props = new MessageProperties();
+    props.setContentType(MessageProperties.CONTENT_TYPE_TEXT_PLAIN);
+    props.setContentEncoding("UTF-16");
+    String text = "压缩".repeat(THRESHOLD);
+    Message message = Compressions.compress(
+        new Message(text.getBytes(StandardCharsets.UTF_16), props),
+        Compressions.lookup(ZipCompression.GZIP), THRESHOLD);
+
+    assertThat(message.getMessageProperties().getContentEncoding()).isEqualTo("gzip:UTF-16");
+    // 已压缩的消息不重复压缩
+    assertThat(Compressions.compress(message, Compressions.lookup(ZipCompression.DEFLATE), 0))
+        .isSameAs(message);
+
+    Message restored = Compressions.decompress(message);
+    assertThat(restored.getMessageProperties().getContentEncoding()).isEqualTo("UTF-16");
+    assertThat(plan(String.class).deserialize(restored)).isEqualTo(text);
+  }
+
+  @Test
+  void unknownEncodingIsRejected() {
+    MessageProperties props = new MessageProperties();
+    props.setContentEncoding("br");
+    Message message = new Message(new byte[]{1, 2, 3}, props);
+
+    assertThatThrownBy(() -> Compressions.decompress(message))
+        .isInstanceOf(MessageConversionException.class).hasMessageContaining("br");
+    props.setContentEncoding("zstd:UTF-8");
+    assertThatThrownBy(() -> converter.fromMessage(message, null))
+        .isInstanceOf(MessageConversionException.class).hasMessageContaining("zstd");
+    assertThatThrownBy(() -> Compressions.lookup("br"))
+        .isInstanceOf(IllegalArgumentException.class);
+  }
+
+  private ConversionPlan plan(Class<?> type) {
+    return ConversionPlan.of(null, Codecs.lookup(FastjsonCodec.NAME), type)
+        .withCompression(Compressions.lookup(ZipCompression.GZIP), THRESHOLD);
+  }
+}
@@ -0,0 +1,111 @@
+/*
+ * Copyright (C) 2024 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package vip.justlive.rabbit.converter;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+import org.junit.jupiter.api.Test;
+import org.springframework.amqp.core.Message;
+import org.springframework.amqp.core.MessageProperties;
+
+/**
+ * 各编解码器经转换器往返，消费端按content-type选择编解码器
+ *
+ * @author wubo
+ */
+class CustomMessageConverterTest {
+
+  private final CustomMessageConverter converter = new CustomMessageConverter();
+
+  @Test
+  void roundTripsEveryCodec() {
+    Order order = new Order(1, "order", List.of("a", "b"));
+
+    for (String name : List.of(FastjsonCodec.NAME, CborCodec.NAME, SmileCodec.NAME)) {
+      Codec codec = Codecs.lookup(name);
+      Message message = converter.toMessage(order, ConversionPlan.of(null, codec, Order.class));
+
+      assertThat(message.getMessageProperties().getContentType()).isEqualTo(codec.contentType());
+      assertThat(message.getMessageProperties().getContentLength())
+          .isEqualTo(message.getBody().length);
+      assertThat(ConversionPlan.of(null, codec, Order.class).deserialize(message))
+          .isEqualTo(order);
+    }
+  }
+
+  @Test
+  void consumerNegotiatesCodecByContentType() {
+    Order order = new Order(2, "negotiate", List.of("c"));
+    // 消费端默认json，生产端使用cbor和smile
+    ConversionPlan consumer = ConversionPlan.of(null, Codecs.lookup(FastjsonCodec.NAME),
+        Order.class);
+
+    for (String name : List.of(CborCodec.NAME, SmileCodec.NAME)) {
+      Message message = converter.toMessage(order,
+          ConversionPlan.of(null, Codecs.lookup(name), Order.class));
+      assertThat(consumer.deserialize(message)).isEqualTo(order);
+    }
+
+    // content-type带参数时按基础类型匹配
+    Message message = converter.toMessage(order,
+        ConversionPlan.of(null, Codecs.lookup(CborCodec.NAME), Order.class));
+    message.getMessageProperties().setContentType(CborCodec.CONTENT_TYPE + "; version=1");
+    assertThat(consumer.deserialize(message)).isEqualTo(order);
+  }
+
+  @Test
+  void unknownContentTypeFallsBackToDefaultCodec() {
+    Order order = new Order(3, "fallback", List.of());
+    ConversionPlan plan = ConversionPlan.of(null, Codecs.lookup(SmileCodec.NAME), Order.class);
+    Message message = converter.toMessage(order, plan);
+    message.getMessageProperties().setContentType("application/x-unknown");
+
+    assertThat(plan.deserialize(message)).isEqualTo(order);
+    assertThat(Codecs.forContentType(null)).isNull();
+    assertThat(Codecs.forContentType("application/x-unknown")).isNull();
+  }
+
+  @Test
+  void textAndBytesBypassCodec() {
+    ConversionPlan plan = ConversionPlan.of(null, Codecs.lookup(CborCodec.NAME), String.class);
+
+    Message text = converter.toMessage("plain", plan);
+    assertThat(text.getMessageProperties().getContentType())
+        .isEqualTo(MessageProperties.CONTENT_TYPE_TEXT_PLAIN);
+    assertThat(plan.deserialize(text)).isEqualTo("plain");
+
+    byte[] body = "raw".getBytes(StandardCharsets.UTF_8);
+    Message bytes = converter.toMessage(body, plan);
+    assertThat(bytes.getMessageProperties().getContentType())
+        .isEqualTo(MessageProperties.CONTENT_TYPE_BYTES);
+    assertThat(ConversionPlan.of(null, plan.codec(), byte[].class).deserialize(bytes))
+        .isEqualTo(body);
+  }
+
+  @Data
+  @NoArgsConstructor
+  @AllArgsConstructor
+  public static class Order {
+
+    private int id;
+    private String name;
+    private List<String> tags;
+  }
+}
@@ -0,0 +1,216 @@
+/*
+ * Copyright (C) 2024 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package vip.justlive.rabbit.loopback;
+
+import static com.rabbitmq.client.impl.LongStringHelper.asLongString;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.awaitility.Awaitility.await;
+
+import com.rabbitmq.client.AMQP;
+import com.rabbitmq.client.Channel;
+import com.rabbitmq.client.Connection;
+import com.rabbitmq.client.DefaultConsumer;
+import com.rabbitmq.client.Envelope;
+import com.rabbitmq.client.GetResponse;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.TestInfo;
+import org.springframework.amqp.core.Message;
+import org.springframework.amqp.core.MessageProperties;
+import org.springframework.amqp.rabbit.connection.CachingConnectionFactory;
+import org.springframework.amqp.rabbit.connection.CachingConnectionFactory.ConfirmType;
+import org.springframework.amqp.rabbit.connection.CorrelationData;
+import org.springframework.amqp.rabbit.core.RabbitTemplate;
+
+/**
+ * loopback broker的投递语义：路由、prefetch、nack重回队列、ttl死信和发布确认
+ *
+ * @author wubo
+ */
+class LoopbackBrokerTest {
+
+  private LoopbackBroker broker;
+  private Connection connection;
+  private Channel channel;
+
+  @BeforeEach
+  void setUp(TestInfo info) throws Exception {
+    broker = LoopbackBroker.of("broker-" + info.getDisplayName());
+    connection = new LoopbackConnectionFactory(broker).newConnection();
+    channel = connection.createChannel();
+    channel.exchangeDeclare("e", "direct");
+    channel.queueDeclare("q", true, false, false, null);
+    channel.queueBind("q", "e", "r");
+  }
+
+  @AfterEach
+  void tearDown() throws Exception {
+    connection.close();
+  }
+
+  @Test
+  void publishAndConsume() throws Exception {
+    List<String> received = new CopyOnWriteArrayList<>();
+    channel.basicConsume("q", false, new Recorder(channel, received, false));
+
+    publish("e", "r", "a", "b", "c");
+    channel.basicPublish("e", "unbound", null, bytes("lost"));
+
+    await().atMost(Duration.ofSeconds(5)).until(() -> received.size() == 3);
+    assertThat(received).containsExactly("a", "b", "c");
+    assertThat(broker.messageCount("q")).isZero();
+  }
+
+  @Test
+  void prefetchLimitsUnackedDeliveries() throws Exception {
+    List<String> received = new CopyOnWriteArrayList<>();
+    Recorder recorder = new Recorder(channel, received, true);
+    channel.basicQos(2);
+    channel.basicConsume("q", false, recorder);
+
+    publish("e", "r", "1", "2", "3", "4", "5");
+
+    await().atMost(Duration.ofSeconds(5)).until(() -> received.size() == 2);
+    TimeUnit.MILLISECONDS.sleep(100);
+    assertThat(received).containsExactly("1", "2");
+    assertThat(broker.messageCount("q")).isEqualTo(3);
+
+    channel.basicAck(recorder.tags.getFirst(), false);
+    await().atMost(Duration.ofSeconds(5)).until(() -> received.size() == 3);
+    assertThat(received).containsExactly("1", "2", "3");
+  }
+
+  @Test
+  void nackRequeueRedeliversAtHead() throws Exception {
+    List<String> received = new CopyOnWriteArrayList<>();
+    channel.basicQos(1);
+    channel.basicConsume("q", false, new DefaultConsumer(channel) {
+      @Override
+      public void handleDelivery(String consumerTag, Envelope envelope,
+          AMQP.BasicProperties properties, byte[] body) throws IOException {
+        String value = new String(body, StandardCharsets.UTF_8);
+        received.add(value + (envelope.isRedeliver() ? "*" : ""));
+        if ("a".equals(value) && !envelope.isRedeliver()) {
+          getChannel().basicNack(envelope.getDeliveryTag(), false, true);
+        } else {
+          getChannel().basicAck(envelope.getDeliveryTag(), false);
+        }
+      }
+    });
+
+    publish("e", "r", "a", "b", "c");
+
+    await().atMost(Duration.ofSeconds(5)).until(() -> received.size() == 4);
+    assertThat(received).containsExactly("a", "a*", "b", "c");
+  }
+
+  @Test
+  void expiredMessagesAreDeadLettered() throws Exception {
+    channel.exchangeDeclare("dlx", "direct");
+    channel.queueDeclare("dead", true, false, false, null);
+    channel.queueBind("dead", "dlx", "q.ttl");
+    channel.queueDeclare("q.ttl", true, false, false,
+        Map.of("x-message-ttl", 50, "x-dead-letter-exchange", "dlx"));
+
+    publish("", "q.ttl", "late");
+
+    await().atMost(Duration.ofSeconds(5)).until(() -> broker.messageCount("dead") == 1);
+    assertThat(broker.messageCount("q.ttl")).isZero();
+    GetResponse response = channel.basicGet("dead", true);
+    assertThat(new String(response.getBody(), StandardCharsets.UTF_8)).isEqualTo("late");
+    assertThat(response.getProps().getHeaders())
+        .containsEntry("x-first-death-reason", asLongString("expired"))
+        .containsEntry("x-first-death-queue", asLongString("q.ttl"));
+  }
+
+  @Test
+  void rejectedMessagesAreDeadLettered() throws Exception {
+    channel.queueDeclare("dead.rejected", true, false, false, null);
+    channel.queueDeclare("q.dlx", true, false, false,
+        Map.of("x-dead-letter-exchange", "", "x-dead-letter-routing-key", "dead.rejected"));
+
+    publish("", "q.dlx", "bad");
+    GetResponse response = channel.basicGet("q.dlx", false);
+    channel.basicNack(response.getEnvelope().getDeliveryTag(), false, false);
+
+    assertThat(broker.messageCount("dead.rejected")).isEqualTo(1);
+    assertThat(channel.basicGet("dead.rejected", true).getProps().getHeaders())
+        .containsEntry("x-first-death-reason", asLongString("rejected"));
+  }
+
+  @Test
+  void publisherConfirmsCompleteCorrelation() throws Exception {
+    CachingConnectionFactory factory = new CachingConnectionFactory(
+        new LoopbackConnectionFactory(broker));
+    factory.setPublisherConfirmType(ConfirmType.CORRELATED);
+    try {
+      RabbitTemplate template = new RabbitTemplate(factory);
+      CorrelationData correlation = new CorrelationData();
+      template.convertAndSend("e", "r", "confirmed", correlation);
+
+      assertThat(correlation.getFuture().get(5, TimeUnit.SECONDS).isAck()).isTrue();
+      assertThat(broker.messageCount("q")).isEqualTo(1);
+      Message message = template.receive("q");
+      assertThat(message.getMessageProperties().getContentType())
+          .isEqualTo(MessageProperties.CONTENT_TYPE_TEXT_PLAIN);
+    } finally {
+      factory.destroy();
+    }
+  }
+
+  private void publish(String exchange, String routing, String... values) throws Exception {
+    for (String value : values) {
+      channel.basicPublish(exchange, routing, null, bytes(value));
+    }
+  }
+
+  private static byte[] bytes(String value) {
+    return value.getBytes(StandardCharsets.UTF_8);
+  }
+
+  /**
+   * 记录收到的消息，manual为true时不确认
+   */
+  private static class Recorder extends DefaultConsumer {
+
+    private final List<String> received;
+    private final boolean manual;
+    private final List<Long> tags = new CopyOnWriteArrayList<>();
+
+    Recorder(Channel channel, List<String> received, boolean manual) {
+      super(channel);
+      this.received = received;
+      this.manual = manual;
+    }
+
+    @Override
+    public void handleDelivery(String consumerTag, Envelope envelope,
+        AMQP.BasicProperties properties, byte[] body) throws IOException {
+      received.add(new String(body, StandardCharsets.UTF_8));
+      tags.add(envelope.getDeliveryTag());
+      if (!manual) {
+        getChannel().basicAck(envelope.getDeliveryTag(), false);
+      }
+    }
+  }
+}
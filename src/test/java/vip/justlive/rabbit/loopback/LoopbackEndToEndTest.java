@@ -0,0 +1,245 @@
+/*
+ * Copyright (C) 2024 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package vip.justlive.rabbit.loopback;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.awaitility.Awaitility.await;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.SpringBootConfiguration;
+import org.springframework.boot.autoconfigure.EnableAutoConfiguration;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.context.annotation.Import;
+import vip.justlive.rabbit.EasyRabbitProperties;
+import vip.justlive.rabbit.annotation.Rqueue;
+import vip.justlive.rabbit.consumer.AsyncConsumer;
+import vip.justlive.rabbit.consumer.BatchConsumer;
+import vip.justlive.rabbit.consumer.Consumer;
+import vip.justlive.rabbit.producer.BaseProducer;
+
+/**
+ * 通过loopback传输端到端运行生产和消费：普通、批量和异步消费
+ *
+ * @author wubo
+ */
+@SpringBootTest(classes = LoopbackEndToEndTest.App.class, properties = {
+    "easy-boot.rabbit.producer.enabled=true",
+    "easy-boot.rabbit.consumer.enabled=true",
+    "easy-boot.rabbit.base-packages=vip.justlive.rabbit.loopback",
+    "easy-boot.rabbit.loopback=primary",
+    "easy-boot.rabbit.sources.primary.publisher-confirm-type=correlated",
+    "easy-boot.rabbit.sources.primary.listener.simple.prefetch=10"})
+class LoopbackEndToEndTest {
+
+  private static final Duration TIMEOUT = Duration.ofSeconds(10);
+
+  @Autowired
+  private PlainProducer plainProducer;
+  @Autowired
+  private BatchProducer batchProducer;
+  @Autowired
+  private AsyncProducer asyncProducer;
+  @Autowired
+  private PlainOrderConsumer plainConsumer;
+  @Autowired
+  private BatchOrderConsumer batchConsumer;
+  @Autowired
+  private AsyncOrderConsumer asyncConsumer;
+  @Autowired
+  private QuickProducer quickProducer;
+  @Autowired
+  private SlowProducer slowProducer;
+  @Autowired
+  private QuickOrderConsumer quickConsumer;
+  @Autowired
+  private SlowOrderConsumer slowConsumer;
+
+  private final LoopbackBroker broker = LoopbackBroker.of(EasyRabbitProperties.PRIMARY);
+
+  @Test
+  void sendAndConsume() {
+    plainProducer.send(new Order(1, "plain"));
+
+    await().atMost(TIMEOUT).until(() -> plainConsumer.received.size() == 1);
+    assertThat(plainConsumer.received.getFirst()).isEqualTo(new Order(1, "plain"));
+  }
+
+  @Test
+  void batchConsumerReceivesBoundedBatches() {
+    for (int i = 0; i < 25; i++) {
+      batchProducer.send(new Order(i, "batch"));
+    }
+
+    await().atMost(TIMEOUT).until(
+        () -> batchConsumer.batches.stream().mapToInt(List::size).sum() == 25);
+    assertThat(batchConsumer.batches).allSatisfy(batch -> assertThat(batch).hasSizeLessThan(11));
+    assertThat(batchConsumer.batches).anySatisfy(batch -> assertThat(batch).hasSizeGreaterThan(1));
+    assertThat(broker.messageCount("e2e.batch")).isZero();
+  }
+
+  @Test
+  void asyncConsumerAcksOnCompletionAndRequeuesFailures() throws Exception {
+    for (int i = 0; i < 20; i++) {
+      asyncProducer.sendAsync(new Order(i, "async")).get(5, TimeUnit.SECONDS);
+    }
+
+    // id为7的消息第一次异常完成，nack重回队列后再次投递
+    await().atMost(TIMEOUT).until(() -> asyncConsumer.completed.size() == 20);
+    assertThat(asyncConsumer.attempts.get(7).get()).isEqualTo(2);
+    assertThat(asyncConsumer.attempts).allSatisfy(
+        (id, count) -> assertThat(count.get()).isEqualTo(id == 7 ? 2 : 1));
+    assertThat(broker.messageCount("e2e.async")).isZero();
+  }
+
+  @Test
+  void asyncConsumersSharingContainerKeepTheirOwnWindow() {
+    // 两个消费者同组共用一个channel，先让window为1的消费者占用该channel
+    quickProducer.send(new Order(1, "quick"));
+    await().atMost(TIMEOUT).until(() -> quickConsumer.completed.get() == 1);
+
+    for (int i = 0; i < 3; i++) {
+      slowProducer.send(new Order(i, "slow"));
+    }
+
+    await().atMost(TIMEOUT).until(() -> slowConsumer.pending.size() == 3);
+    slowConsumer.pending.forEach(future -> future.complete(null));
+    quickProducer.send(new Order(2, "quick"));
+    await().atMost(TIMEOUT).until(() -> quickConsumer.completed.get() == 2);
+  }
+
+  @SpringBootConfiguration
+  @EnableAutoConfiguration
+  @Import({PlainOrderConsumer.class, BatchOrderConsumer.class, AsyncOrderConsumer.class,
+      QuickOrderConsumer.class, SlowOrderConsumer.class})
+  static class App {
+
+  }
+
+  @Data
+  @NoArgsConstructor
+  @AllArgsConstructor
+  public static class Order {
+
+    private int id;
+    private String name;
+  }
+
+  @Rqueue(queue = "e2e.plain", exchange = "e2e.x", routing = "plain")
+  interface PlainProducer extends BaseProducer<Order> {
+
+  }
+
+  @Rqueue(queue = "e2e.batch", exchange = "e2e.x", routing = "batch")
+  interface BatchProducer extends BaseProducer<Order> {
+
+  }
+
+  @Rqueue(queue = "e2e.async", exchange = "e2e.x", routing = "async")
+  interface AsyncProducer extends BaseProducer<Order> {
+
+  }
+
+  @Rqueue(queue = "e2e.window.quick", exchange = "e2e.x", routing = "window.quick")
+  interface QuickProducer extends BaseProducer<Order> {
+
+  }
+
+  @Rqueue(queue = "e2e.window.slow", exchange = "e2e.x", routing = "window.slow")
+  interface SlowProducer extends BaseProducer<Order> {
+
+  }
+
+  @Rqueue(queue = "e2e.plain", exchange = "e2e.x", routing = "plain")
+  static class PlainOrderConsumer implements Consumer<Order> {
+
+    private final List<Order> received = new CopyOnWriteArrayList<>();
+
+    @Override
+    public void accept(Order message) {
+      received.add(message);
+    }
+  }
+
+  @Rqueue(queue = "e2e.batch", exchange = "e2e.x", routing = "batch", batchSize = "10",
+      batchWait = "200")
+  static class BatchOrderConsumer implements BatchConsumer<Order> {
+
+    private final List<List<Order>> batches = new CopyOnWriteArrayList<>();
+
+    @Override
+    public void accept(List<Order> messages) {
+      batches.add(List.copyOf(messages));
+    }
+  }
+
+  @Rqueue(queue = "e2e.async", exchange = "e2e.x", routing = "async", window = "4")
+  static class AsyncOrderConsumer implements AsyncConsumer<Order> {
+
+    private final Map<Integer, AtomicInteger> attempts = new ConcurrentHashMap<>();
+    private final List<Order> completed = new CopyOnWriteArrayList<>();
+
+    @Override
+    public CompletionStage<Void> accept(Order message) {
+      int attempt = attempts.computeIfAbsent(message.getId(), k -> new AtomicInteger())
+          .incrementAndGet();
+      return CompletableFuture.runAsync(() -> {
+        if (message.getId() == 7 && attempt == 1) {
+          throw new IllegalStateException("first attempt of 7 fails");
+        }
+        completed.add(message);
+      }, CompletableFuture.delayedExecutor(10, TimeUnit.MILLISECONDS));
+    }
+  }
+
+  @Rqueue(queue = "e2e.window.quick", exchange = "e2e.x", routing = "window.quick",
+      group = "window", window = "1")
+  static class QuickOrderConsumer implements AsyncConsumer<Order> {
+
+    private final AtomicInteger completed = new AtomicInteger();
+
+    @Override
+    public CompletionStage<Void> accept(Order message) {
+      completed.incrementAndGet();
+      return CompletableFuture.completedFuture(null);
+    }
+  }
+
+  @Rqueue(queue = "e2e.window.slow", exchange = "e2e.x", routing = "window.slow",
+      group = "window", window = "3")
+  static class SlowOrderConsumer implements AsyncConsumer<Order> {
+
+    private final List<CompletableFuture<Void>> pending = new CopyOnWriteArrayList<>();
+
+    @Override
+    public CompletionStage<Void> accept(Order message) {
+      CompletableFuture<Void> future = new CompletableFuture<>();
+      pending.add(future);
+      return future;
+    }
+  }
+}
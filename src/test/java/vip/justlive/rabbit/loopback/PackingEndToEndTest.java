@@ -0,0 +1,129 @@
+/*
+ * Copyright (C) 2024 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package vip.justlive.rabbit.loopback;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.awaitility.Awaitility.await;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.jupiter.api.Test;
+import org.springframework.amqp.core.Message;
+import org.springframework.amqp.core.Queue;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.SpringBootConfiguration;
+import org.springframework.boot.autoconfigure.EnableAutoConfiguration;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.context.annotation.Import;
+import vip.justlive.rabbit.EasyRabbitProperties;
+import vip.justlive.rabbit.RabbitMeta;
+import vip.justlive.rabbit.annotation.Rqueue;
+import vip.justlive.rabbit.consumer.Consumer;
+import vip.justlive.rabbit.converter.CustomMessageConverter;
+import vip.justlive.rabbit.producer.BaseProducer;
+
+/**
+ * 生产端打包：多次send合并为一条broker消息，消费端拆包，重试的打包消息仍能拆包
+ *
+ * @author wubo
+ */
+@SpringBootTest(classes = PackingEndToEndTest.App.class, properties = {
+    "easy-boot.rabbit.producer.enabled=true",
+    "easy-boot.rabbit.producer.packing.enabled=true",
+    "easy-boot.rabbit.producer.packing.batch-size=3",
+    "easy-boot.rabbit.producer.packing.linger=500",
+    "easy-boot.rabbit.consumer.enabled=true",
+    "easy-boot.rabbit.base-packages=vip.justlive.rabbit.loopback",
+    "easy-boot.rabbit.loopback=primary",
+    "easy-boot.rabbit.sources.primary.virtual-host=/"})
+class PackingEndToEndTest {
+
+  private static final Duration TIMEOUT = Duration.ofSeconds(10);
+
+  @Autowired
+  private RawProducer rawProducer;
+  @Autowired
+  private PackedProducer packedProducer;
+  @Autowired
+  private FlakyConsumer flakyConsumer;
+  @Autowired
+  private CustomMessageConverter converter;
+
+  private final LoopbackBroker broker = LoopbackBroker.of(EasyRabbitProperties.PRIMARY);
+
+  @Test
+  void sendsArePackedIntoOneBrokerMessage() {
+    RabbitMeta meta = RabbitMeta.lookup(EasyRabbitProperties.PRIMARY);
+    meta.getRabbitAdmin().declareQueue(new Queue("pack.raw"));
+
+    rawProducer.send("a");
+    rawProducer.send("b");
+    rawProducer.send("c");
+
+    await().atMost(TIMEOUT).until(() -> broker.messageCount("pack.raw") == 1);
+    Message message = meta.getRabbitTemplate().receive("pack.raw");
+    assertThat(converter.isPacked(message)).isTrue();
+    assertThat(converter.unpack(message)).extracting(m -> new String(m.getBody()))
+        .containsExactly("a", "b", "c");
+  }
+
+  @Test
+  void retriedPackedMessageIsUnpackedAgain() {
+    packedProducer.send("a");
+    packedProducer.send("boom");
+    packedProducer.send("c");
+
+    // 第一次投递在boom处失败，整条打包消息进入延迟队列，回到原队列后重新拆包处理
+    await().atMost(TIMEOUT).until(() -> flakyConsumer.accepted.contains("c"));
+    assertThat(flakyConsumer.accepted).containsExactly("a", "a", "boom", "c");
+    assertThat(flakyConsumer.failures.get()).isEqualTo(1);
+    assertThat(broker.messageCount("pack.flaky.parking")).isZero();
+  }
+
+  @SpringBootConfiguration
+  @EnableAutoConfiguration
+  @Import(FlakyConsumer.class)
+  static class App {
+
+  }
+
+  @Rqueue(queue = "pack.raw", routing = "pack.raw")
+  interface RawProducer extends BaseProducer<String> {
+
+  }
+
+  @Rqueue(queue = "pack.flaky", routing = "pack.flaky")
+  interface PackedProducer extends BaseProducer<String> {
+
+  }
+
+  @Rqueue(queue = "pack.flaky", routing = "pack.flaky", retries = "1", retryDelays = "50")
+  static class FlakyConsumer implements Consumer<String> {
+
+    private final List<String> accepted = new CopyOnWriteArrayList<>();
+    private final AtomicInteger failures = new AtomicInteger();
+
+    @Override
+    public void accept(String message) {
+      if ("boom".equals(message) && failures.get() == 0) {
+        failures.incrementAndGet();
+        throw new IllegalStateException("first boom fails");
+      }
+      accepted.add(message);
+    }
+  }
+}
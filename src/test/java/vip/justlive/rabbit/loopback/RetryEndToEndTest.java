@@ -0,0 +1,102 @@
+/*
+ * Copyright (C) 2024 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package vip.justlive.rabbit.loopback;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.awaitility.Awaitility.await;
+
+import java.time.Duration;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.jupiter.api.Test;
+import org.springframework.amqp.core.Message;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.SpringBootConfiguration;
+import org.springframework.boot.autoconfigure.EnableAutoConfiguration;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.context.annotation.Import;
+import vip.justlive.rabbit.EasyRabbitProperties;
+import vip.justlive.rabbit.RabbitMeta;
+import vip.justlive.rabbit.annotation.Rqueue;
+import vip.justlive.rabbit.consumer.Consumer;
+import vip.justlive.rabbit.consumer.RetryPolicy;
+import vip.justlive.rabbit.producer.BaseProducer;
+
+/**
+ * 延迟重试：失败消息逐级进入retry.n，死信回原队列后按x-easy-exchange/x-easy-routing找到消费者，次数用尽后进入停车队列
+ *
+ * @author wubo
+ */
+@SpringBootTest(classes = RetryEndToEndTest.App.class, properties = {
+    "easy-boot.rabbit.producer.enabled=true",
+    "easy-boot.rabbit.consumer.enabled=true",
+    "easy-boot.rabbit.base-packages=vip.justlive.rabbit.loopback",
+    "easy-boot.rabbit.loopback=primary",
+    "easy-boot.rabbit.sources.primary.virtual-host=/"})
+class RetryEndToEndTest {
+
+  private static final Duration TIMEOUT = Duration.ofSeconds(10);
+
+  @Autowired
+  private RetryProducer producer;
+  @Autowired
+  private FailingConsumer consumer;
+
+  private final LoopbackBroker broker = LoopbackBroker.of(EasyRabbitProperties.PRIMARY);
+
+  @Test
+  void retryEscalatesThroughTiersIntoParkingLot() {
+    producer.send("retry");
+
+    await().atMost(TIMEOUT).until(() -> broker.messageCount("retry.q.parking") == 1);
+    // 第一次从交换器投递，之后两次经默认交换空间从retry.1、retry.2回到原队列
+    assertThat(consumer.attempts.get()).isEqualTo(3);
+    assertThat(broker.messageCount("retry.q.retry.1")).isZero();
+    assertThat(broker.messageCount("retry.q.retry.2")).isZero();
+
+    Message parked = RabbitMeta.lookup(EasyRabbitProperties.PRIMARY).getRabbitTemplate()
+        .receive("retry.q.parking");
+    Map<String, Object> headers = parked.getMessageProperties().getHeaders();
+    assertThat(headers).containsEntry(RetryPolicy.ATTEMPT, 3)
+        .containsEntry(RetryPolicy.EXCHANGE, "retry.x")
+        .containsEntry(RetryPolicy.ROUTING, "retry");
+    assertThat(new String(parked.getBody())).isEqualTo("retry");
+  }
+
+  @SpringBootConfiguration
+  @EnableAutoConfiguration
+  @Import(FailingConsumer.class)
+  static class App {
+
+  }
+
+  @Rqueue(queue = "retry.q", exchange = "retry.x", routing = "retry")
+  interface RetryProducer extends BaseProducer<String> {
+
+  }
+
+  @Rqueue(queue = "retry.q", exchange = "retry.x", routing = "retry", retries = "2",
+      retryDelays = "50,100")
+  static class FailingConsumer implements Consumer<String> {
+
+    private final AtomicInteger attempts = new AtomicInteger();
+
+    @Override
+    public void accept(String message) {
+      attempts.incrementAndGet();
+      throw new IllegalStateException("always fails");
+    }
+  }
+}
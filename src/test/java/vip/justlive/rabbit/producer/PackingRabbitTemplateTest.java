@@ -0,0 +1,129 @@
+/*
+ * Copyright (C) 2024 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package vip.justlive.rabbit.producer;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import com.rabbitmq.client.Channel;
+import com.rabbitmq.client.Connection;
+import java.nio.charset.StandardCharsets;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.TestInfo;
+import org.springframework.amqp.core.Message;
+import org.springframework.amqp.core.MessageProperties;
+import org.springframework.amqp.rabbit.batch.SimpleBatchingStrategy;
+import org.springframework.amqp.rabbit.connection.CachingConnectionFactory;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskScheduler;
+import vip.justlive.rabbit.converter.CustomMessageConverter;
+import vip.justlive.rabbit.loopback.LoopbackBroker;
+import vip.justlive.rabbit.loopback.LoopbackConnectionFactory;
+
+/**
+ * 打包模板：包内消息的目标和content-type一致，打包消息不带messageId
+ *
+ * @author wubo
+ */
+class PackingRabbitTemplateTest {
+
+  private final CustomMessageConverter converter = new CustomMessageConverter();
+  private LoopbackBroker broker;
+  private Connection connection;
+  private CachingConnectionFactory factory;
+  private ThreadPoolTaskScheduler scheduler;
+  private PackingRabbitTemplate template;
+
+  @BeforeEach
+  void setUp(TestInfo info) throws Exception {
+    broker = LoopbackBroker.of("packing-" + info.getDisplayName());
+    connection = new LoopbackConnectionFactory(broker).newConnection();
+    Channel channel = connection.createChannel();
+    channel.queueDeclare("a", true, false, false, null);
+    channel.queueDeclare("b", true, false, false, null);
+
+    factory = new CachingConnectionFactory(new LoopbackConnectionFactory(broker));
+    scheduler = new ThreadPoolTaskScheduler();
+    scheduler.initialize();
+    // linger足够长，只在攒满或主动flush时发出
+    template = new PackingRabbitTemplate(new SimpleBatchingStrategy(3, 10000, 60000), scheduler);
+    template.setConnectionFactory(factory);
+  }
+
+  @AfterEach
+  void tearDown() throws Exception {
+    scheduler.destroy();
+    factory.destroy();
+    connection.close();
+  }
+
+  @Test
+  void packDropsMessageIdOfFirstFragment() {
+    template.send("", "a", message("1", MessageProperties.CONTENT_TYPE_TEXT_PLAIN));
+    template.send("", "a", message("2", MessageProperties.CONTENT_TYPE_TEXT_PLAIN));
+    template.send("", "a", message("3", MessageProperties.CONTENT_TYPE_TEXT_PLAIN));
+
+    Message pack = template.receive("a");
+    assertThat(converter.isPacked(pack)).isTrue();
+    assertThat(pack.getMessageProperties().getMessageId()).isNull();
+    assertThat(pack.getMessageProperties().getContentType())
+        .isEqualTo(MessageProperties.CONTENT_TYPE_TEXT_PLAIN);
+    assertThat(converter.unpack(pack)).extracting(PackingRabbitTemplateTest::body)
+        .containsExactly("1", "2", "3");
+  }
+
+  @Test
+  void destinationChangeFlushesPendingPack() {
+    template.send("", "a", message("a1", MessageProperties.CONTENT_TYPE_TEXT_PLAIN));
+    template.send("", "a", message("a2", MessageProperties.CONTENT_TYPE_TEXT_PLAIN));
+    template.send("", "b", message("b1", MessageProperties.CONTENT_TYPE_TEXT_PLAIN));
+    template.flush();
+
+    Message pack = template.receive("a");
+    assertThat(converter.unpack(pack)).extracting(PackingRabbitTemplateTest::body)
+        .containsExactly("a1", "a2");
+    assertThat(body(template.receive("b"))).isEqualTo("b1");
+    assertThat(broker.messageCount("a")).isZero();
+  }
+
+  @Test
+  void contentTypeChangeFlushesPendingPack() {
+    template.send("", "a", message("t1", MessageProperties.CONTENT_TYPE_TEXT_PLAIN));
+    template.send("", "a", message("t2", MessageProperties.CONTENT_TYPE_TEXT_PLAIN));
+    template.send("", "a", message("{}", MessageProperties.CONTENT_TYPE_JSON));
+    template.flush();
+
+    Message text = template.receive("a");
+    assertThat(text.getMessageProperties().getContentType())
+        .isEqualTo(MessageProperties.CONTENT_TYPE_TEXT_PLAIN);
+    assertThat(converter.unpack(text)).extracting(PackingRabbitTemplateTest::body)
+        .containsExactly("t1", "t2");
+    Message json = template.receive("a");
+    assertThat(converter.isPacked(json)).isFalse();
+    assertThat(json.getMessageProperties().getContentType())
+        .isEqualTo(MessageProperties.CONTENT_TYPE_JSON);
+  }
+
+  private static Message message(String body, String contentType) {
+    MessageProperties props = new MessageProperties();
+    props.setContentType(contentType);
+    props.setMessageId("id-" + body);
+    return new Message(body.getBytes(StandardCharsets.UTF_8), props);
+  }
+
+  private static String body(Message message) {
+    return new String(message.getBody(), StandardCharsets.UTF_8);
+  }
+}
@@ -0,0 +1,340 @@
+/*
+ * Copyright (C) 2024 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package vip.justlive.rabbit.producer;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatCode;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.amqp.AmqpException;
+import org.springframework.amqp.AmqpResourceNotAvailableException;
+import org.springframework.amqp.core.AmqpMessageReturnedException;
+import org.springframework.amqp.core.Message;
+import org.springframework.amqp.rabbit.batch.SimpleBatchingStrategy;
+import org.springframework.amqp.rabbit.connection.CachingConnectionFactory;
+import org.springframework.amqp.rabbit.connection.CachingConnectionFactory.ConfirmType;
+import org.springframework.amqp.rabbit.connection.CorrelationData;
+import org.springframework.amqp.rabbit.core.RabbitTemplate;
+import org.springframework.beans.factory.support.DefaultListableBeanFactory;
+import org.springframework.core.env.StandardEnvironment;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskScheduler;
+import vip.justlive.rabbit.RabbitMeta;
+import vip.justlive.rabbit.annotation.Rqueue;
+import vip.justlive.rabbit.converter.CustomMessageConverter;
+import vip.justlive.rabbit.loopback.LoopbackBroker;
+import vip.justlive.rabbit.loopback.LoopbackConnectionFactory;
+
+/**
+ * 生产者代理：打包配置冲突、多数据源分片和异步发送
+ *
+ * @author wubo
+ */
+class ProducerProxyTest {
+
+  private static final String PACKING = "packing";
+  private static final String SHARD_A = "shard-a";
+  private static final String SHARD_B = "shard-b";
+  private static final String HASH_QUEUE = "proxy.hash";
+  private static final String LEAST_QUEUE = "proxy.least";
+  private static final String WINDOWED = "windowed";
+  private static final String ASYNC_QUEUE = "proxy.async";
+  private static final String FULL_QUEUE = "proxy.full";
+
+  private final StandardEnvironment environment = new StandardEnvironment();
+  private final DefaultListableBeanFactory beanFactory = new DefaultListableBeanFactory();
+  private final CustomMessageConverter converter = new CustomMessageConverter();
+  private final List<CachingConnectionFactory> factories = new ArrayList<>();
+  private ThreadPoolTaskScheduler scheduler;
+  private ControlledTemplate templateA;
+  private ControlledTemplate templateW;
+  private PublishWindow window;
+
+  @BeforeEach
+  void setUp() {
+    scheduler = new ThreadPoolTaskScheduler();
+    scheduler.initialize();
+    RabbitMeta packing = new RabbitMeta();
+    packing.setConverter(converter);
+    packing.setRabbitTemplate(
+        new PackingRabbitTemplate(new SimpleBatchingStrategy(10, 10000, 100), scheduler));
+    RabbitMeta.regist(PACKING, packing);
+
+    templateA = datasource(SHARD_A, null);
+    datasource(SHARD_B, null);
+    window = new PublishWindow(1, PublishWindow.Overflow.FAIL, 0);
+    templateW = datasource(WINDOWED, window);
+  }
+
+  @AfterEach
+  void tearDown() {
+    scheduler.destroy();
+    factories.forEach(CachingConnectionFactory::destroy);
+  }
+
+  @Test
+  void packingAcceptsDatasourceEncoding() {
+    assertThatCode(() -> new ProducerProxy<>(PackedProducer.class, environment, beanFactory))
+        .doesNotThrowAnyException();
+  }
+
+  @Test
+  void packingRejectsOtherCodec() {
+    assertThatThrownBy(() -> new ProducerProxy<>(CborProducer.class, environment, beanFactory))
+        .isInstanceOf(IllegalArgumentException.class).hasMessageContaining("packing");
+  }
+
+  @Test
+  void packingRejectsMessageCompression() {
+    assertThatThrownBy(
+        () -> new ProducerProxy<>(CompressedProducer.class, environment, beanFactory))
+        .isInstanceOf(IllegalArgumentException.class).hasMessageContaining("packing");
+  }
+
+  @Test
+  void hashShardingKeepsKeyOnOneDatasource() {
+    HashProducer producer = create(HashProducer.class);
+
+    for (int k = 0; k < 20; k++) {
+      String key = "key-" + k;
+      int[] before = counts(HASH_QUEUE);
+      for (int i = 0; i < 3; i++) {
+        producer.send(Map.of("id", key, "seq", Integer.toString(i)));
+      }
+
+      // 分片只取决于key的hash，重启后仍然稳定
+      int expected = Math.floorMod(key.hashCode(), 2);
+      int[] after = counts(HASH_QUEUE);
+      assertThat(after[expected] - before[expected]).isEqualTo(3);
+      assertThat(after[1 - expected]).isEqualTo(before[1 - expected]);
+    }
+    assertThat(counts(HASH_QUEUE)).doesNotContain(0);
+  }
+
+  @Test
+  void leastOutstandingAvoidsBusyDatasource() throws Exception {
+    LeastProducer producer = create(LeastProducer.class);
+    CountDownLatch release = templateA.block();
+    CompletableFuture<CompletableFuture<Void>> first = CompletableFuture.supplyAsync(
+        () -> producer.sendAsync("first"));
+    assertThat(templateA.entered.tryAcquire(5, TimeUnit.SECONDS)).isTrue();
+
+    // 第一条在shard-a上未确认，之后都发往shard-b
+    for (int i = 0; i < 10; i++) {
+      producer.sendAsync("next-" + i).get(5, TimeUnit.SECONDS);
+    }
+    assertThat(counts(LEAST_QUEUE)).containsExactly(0, 10);
+
+    release.countDown();
+    first.get(5, TimeUnit.SECONDS).get(5, TimeUnit.SECONDS);
+    assertThat(counts(LEAST_QUEUE)).containsExactly(1, 10);
+  }
+
+  @Test
+  void sendAsyncCompletesOnAck() throws Exception {
+    AsyncProducer producer = create(AsyncProducer.class);
+
+    producer.sendAsync("acked").get(5, TimeUnit.SECONDS);
+
+    assertThat(LoopbackBroker.of(SHARD_A).messageCount(ASYNC_QUEUE)).isEqualTo(1);
+  }
+
+  @Test
+  void sendAsyncFailsWhenNacked() {
+    FullProducer producer = create(FullProducer.class);
+
+    // 队列长度为0且溢出策略为reject-publish，broker拒绝并nack
+    assertThatThrownBy(() -> producer.sendAsync("nacked").get(5, TimeUnit.SECONDS))
+        .isInstanceOf(ExecutionException.class).cause().isInstanceOf(AmqpException.class)
+        .hasMessageContaining("nacked");
+  }
+
+  @Test
+  void sendAsyncFailsWhenReturned() {
+    ReturnedProducer producer = create(ReturnedProducer.class);
+
+    assertThatThrownBy(() -> producer.sendAsync("returned").get(5, TimeUnit.SECONDS))
+        .isInstanceOf(ExecutionException.class).cause()
+        .isInstanceOf(AmqpMessageReturnedException.class);
+  }
+
+  @Test
+  void sendAsyncFailsFastWhenWindowExhausted() throws Exception {
+    WindowProducer producer = create(WindowProducer.class);
+    CountDownLatch release = templateW.block();
+    CompletableFuture<CompletableFuture<Void>> first = CompletableFuture.supplyAsync(
+        () -> producer.sendAsync("first"));
+    assertThat(templateW.entered.tryAcquire(5, TimeUnit.SECONDS)).isTrue();
+
+    CompletableFuture<Void> rejected = producer.sendAsync("rejected");
+    assertThat(rejected).isCompletedExceptionally();
+    assertThatThrownBy(rejected::join).cause()
+        .isInstanceOf(AmqpResourceNotAvailableException.class);
+
+    release.countDown();
+    first.get(5, TimeUnit.SECONDS).get(5, TimeUnit.SECONDS);
+    producer.sendAsync("after").get(5, TimeUnit.SECONDS);
+    assertThat(window.outstanding()).isZero();
+  }
+
+  @Test
+  void sendAsyncReleasesPermitWhenSendThrows() throws Exception {
+    WindowProducer producer = create(WindowProducer.class);
+    templateW.failure = new AmqpException("send failed");
+
+    CompletableFuture<Void> failed = producer.sendAsync("failed");
+    assertThat(failed).isCompletedExceptionally();
+    assertThatThrownBy(failed::join).cause().hasMessage("send failed");
+    assertThat(window.outstanding()).isZero();
+
+    producer.sendAsync("next").get(5, TimeUnit.SECONDS);
+    assertThat(window.outstanding()).isZero();
+  }
+
+  private ControlledTemplate datasource(String name, PublishWindow publishWindow) {
+    CachingConnectionFactory factory = new CachingConnectionFactory(
+        new LoopbackConnectionFactory(LoopbackBroker.of(name)));
+    factory.setPublisherConfirmType(ConfirmType.CORRELATED);
+    factory.setPublisherReturns(true);
+    factories.add(factory);
+    ControlledTemplate template = new ControlledTemplate(factory);
+    template.setMandatory(true);
+    template.execute(channel -> {
+      for (String queue : List.of(HASH_QUEUE, LEAST_QUEUE, ASYNC_QUEUE)) {
+        channel.queueDeclare(queue, true, false, false, null);
+        channel.queuePurge(queue);
+      }
+      channel.queueDeclare(FULL_QUEUE, true, false, false,
+          Map.of("x-max-length", 0, "x-overflow", "reject-publish"));
+      return null;
+    });
+    RabbitMeta meta = new RabbitMeta();
+    meta.setConverter(converter);
+    meta.setConnectionFactory(factory);
+    meta.setRabbitTemplate(template);
+    meta.setPublishWindow(publishWindow);
+    RabbitMeta.regist(name, meta);
+    return template;
+  }
+
+  private int[] counts(String queue) {
+    return new int[]{LoopbackBroker.of(SHARD_A).messageCount(queue),
+        LoopbackBroker.of(SHARD_B).messageCount(queue)};
+  }
+
+  private <P> P create(Class<P> clazz) {
+    return clazz.cast(Proxy.newProxyInstance(clazz.getClassLoader(), new Class[]{clazz},
+        new ProducerProxy<>(clazz, environment, beanFactory)));
+  }
+
+  /**
+   * 可以阻塞或失败下一次发送的模板
+   */
+  private static final class ControlledTemplate extends RabbitTemplate {
+
+    private final AtomicReference<CountDownLatch> gate = new AtomicReference<>();
+    private final Semaphore entered = new Semaphore(0);
+    private volatile RuntimeException failure;
+
+    private ControlledTemplate(CachingConnectionFactory factory) {
+      super(factory);
+    }
+
+    private CountDownLatch block() {
+      CountDownLatch release = new CountDownLatch(1);
+      gate.set(release);
+      return release;
+    }
+
+    @Override
+    public void send(String exchange, String routingKey, Message message,
+        CorrelationData correlationData) {
+      RuntimeException e = failure;
+      if (e != null) {
+        failure = null;
+        throw e;
+      }
+      CountDownLatch release = gate.getAndSet(null);
+      if (release != null) {
+        entered.release();
+        try {
+          release.await();
+        } catch (InterruptedException ex) {
+          Thread.currentThread().interrupt();
+        }
+      }
+      super.send(exchange, routingKey, message, correlationData);
+    }
+  }
+
+  @Rqueue(queue = HASH_QUEUE, routing = HASH_QUEUE, datasource = SHARD_A + "," + SHARD_B,
+      sharding = "hash", shardField = "id")
+  interface HashProducer extends BaseProducer<Map<String, String>> {
+
+  }
+
+  @Rqueue(queue = LEAST_QUEUE, routing = LEAST_QUEUE, datasource = SHARD_A + "," + SHARD_B,
+      sharding = "least-outstanding")
+  interface LeastProducer extends BaseProducer<String> {
+
+  }
+
+  @Rqueue(queue = ASYNC_QUEUE, routing = ASYNC_QUEUE, datasource = SHARD_A)
+  interface AsyncProducer extends BaseProducer<String> {
+
+  }
+
+  @Rqueue(queue = FULL_QUEUE, routing = FULL_QUEUE, datasource = SHARD_A)
+  interface FullProducer extends BaseProducer<String> {
+
+  }
+
+  @Rqueue(queue = "proxy.missing", routing = "proxy.missing", datasource = SHARD_A)
+  interface ReturnedProducer extends BaseProducer<String> {
+
+  }
+
+  @Rqueue(queue = ASYNC_QUEUE, routing = ASYNC_QUEUE, datasource = WINDOWED)
+  interface WindowProducer extends BaseProducer<String> {
+
+  }
+
+  @Rqueue(queue = "packed", datasource = PACKING, codec = "json")
+  interface PackedProducer extends BaseProducer<String> {
+
+  }
+
+  @Rqueue(queue = "packed.cbor", datasource = PACKING, codec = "cbor")
+  interface CborProducer extends BaseProducer<String> {
+
+  }
+
+  @Rqueue(queue = "packed.gzip", datasource = PACKING, compression = "gzip")
+  interface CompressedProducer extends BaseProducer<String> {
+
+  }
+}
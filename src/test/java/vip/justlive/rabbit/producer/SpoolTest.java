@@ -0,0 +1,348 @@
+/*
+ * Copyright (C) 2024 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package vip.justlive.rabbit.producer;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.awaitility.Awaitility.await;
+
+import com.rabbitmq.client.Channel;
+import com.rabbitmq.client.Connection;
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.math.BigDecimal;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.TestInfo;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.amqp.AmqpResourceNotAvailableException;
+import org.springframework.amqp.core.Message;
+import org.springframework.amqp.core.MessageDeliveryMode;
+import org.springframework.amqp.core.MessageProperties;
+import org.springframework.amqp.rabbit.connection.CachingConnectionFactory;
+import org.springframework.amqp.rabbit.connection.CachingConnectionFactory.ConfirmType;
+import org.springframework.amqp.rabbit.core.RabbitTemplate;
+import org.springframework.amqp.support.converter.MessageConversionException;
+import vip.justlive.rabbit.EasyRabbitProperties;
+import vip.justlive.rabbit.loopback.LoopbackBroker;
+import vip.justlive.rabbit.loopback.LoopbackConnectionFactory;
+
+/**
+ * spool的恢复、重发和记录编码
+ *
+ * @author wubo
+ */
+class SpoolTest {
+
+  private static final int SEGMENT_SIZE = 4096;
+
+  @TempDir
+  Path directory;
+
+  private LoopbackBroker broker;
+  private Connection connection;
+  private CachingConnectionFactory confirming;
+  private CachingConnectionFactory offline;
+  private RabbitTemplate template;
+  private RabbitTemplate unconfirmed;
+
+  @BeforeEach
+  void setUp(TestInfo info) throws Exception {
+    broker = LoopbackBroker.of("spool-" + info.getDisplayName());
+    connection = new LoopbackConnectionFactory(broker).newConnection();
+    Channel channel = connection.createChannel();
+    channel.exchangeDeclare("e", "direct");
+    channel.queueDeclare("q", true, false, false, null);
+    channel.queueBind("q", "e", "r");
+
+    confirming = new CachingConnectionFactory(new LoopbackConnectionFactory(broker));
+    confirming.setPublisherConfirmType(ConfirmType.CORRELATED);
+    template = new RabbitTemplate(confirming);
+    // 另一个没有开启确认的broker，发送的消息一直等不到确认
+    offline = new CachingConnectionFactory(new LoopbackConnectionFactory(
+        LoopbackBroker.of("spool-offline-" + info.getDisplayName())));
+    unconfirmed = new RabbitTemplate(offline);
+  }
+
+  @AfterEach
+  void tearDown() throws Exception {
+    confirming.destroy();
+    offline.destroy();
+    connection.close();
+  }
+
+  @Test
+  void replaysFromConfirmedOffset() {
+    try (Spool spool = Spool.open("s", directory, properties(), template)) {
+      spool.append("e", "r", message("m1"));
+      spool.append("e", "r", message("m2"));
+      await().atMost(Duration.ofSeconds(5)).until(() -> broker.messageCount("q") == 2);
+    }
+    try (Spool spool = Spool.open("s", directory, properties(), unconfirmed)) {
+      spool.append("e", "r", message("m3"));
+    }
+    try (Spool spool = Spool.open("s", directory, properties(), template)) {
+      spool.append("e", "r", message("m4"));
+      await().atMost(Duration.ofSeconds(5)).until(() -> broker.messageCount("q") == 4);
+    }
+
+    assertThat(receiveAll()).containsExactly("m1", "m2", "m3", "m4");
+  }
+
+  @Test
+  void tornTailIsDroppedOnRecovery() throws Exception {
+    try (Spool spool = Spool.open("s", directory, properties(), unconfirmed)) {
+      spool.append("e", "r", message("m1"));
+      spool.append("e", "r", message("m2"));
+      spool.append("e", "r", message("m3"));
+    }
+    // 长度最后写入，写到一半宕机的记录长度为0
+    Path segment = segment(1);
+    putInt(segment, recordAt(segment, 2), 0);
+
+    try (Spool spool = Spool.open("s", directory, properties(), template)) {
+      spool.append("e", "r", message("m4"));
+      await().atMost(Duration.ofSeconds(5)).until(() -> broker.messageCount("q") == 3);
+    }
+
+    assertThat(receiveAll()).containsExactly("m1", "m2", "m4");
+  }
+
+  @Test
+  void recoveryStopsAtCrcMismatch() throws Exception {
+    try (Spool spool = Spool.open("s", directory, properties(), unconfirmed)) {
+      spool.append("e", "r", message("m1"));
+      spool.append("e", "r", message("m2"));
+      spool.append("e", "r", message("m3"));
+    }
+    Path segment = segment(1);
+    int pos = recordAt(segment, 1);
+    int length = getInt(segment, pos);
+    putInt(segment, pos + SpoolSegment.RECORD_HEADER + length - 4,
+        getInt(segment, pos + SpoolSegment.RECORD_HEADER + length - 4) ^ 1);
+
+    try (Spool spool = Spool.open("s", directory, properties(), template)) {
+      spool.append("e", "r", message("m4"));
+      await().atMost(Duration.ofSeconds(5)).until(() -> broker.messageCount("q") == 2);
+    }
+
+    assertThat(receiveAll()).containsExactly("m1", "m4");
+  }
+
+  @Test
+  void undecodableRecordIsQuarantined() throws Exception {
+    Files.createDirectories(directory);
+    SpoolSegment segment = SpoolSegment.create(directory, 1, SEGMENT_SIZE);
+    segment.append(new byte[]{9});
+    segment.append(SpoolCodec.encode("e", "r", message("m1")));
+    segment.force();
+
+    try (Spool spool = Spool.open("s", directory, properties(), template)) {
+      await().atMost(Duration.ofSeconds(5)).until(() -> broker.messageCount("q") == 1);
+    }
+
+    assertThat(receiveAll()).containsExactly("m1");
+    assertThat(directory.resolve(String.format("%020d-%d%s", 1, SpoolSegment.HEADER,
+        Spool.CORRUPT_SUFFIX))).hasBinaryContent(new byte[]{9});
+  }
+
+  @Test
+  void unknownFilesAreSkipped() throws Exception {
+    Files.write(directory.resolve("backup.spool"), new byte[]{1, 2, 3});
+    Files.write(directory.resolve(String.format("%020d%s", 5, SpoolSegment.SUFFIX)),
+        new byte[]{1, 2, 3});
+
+    try (Spool spool = Spool.open("s", directory, properties(), template)) {
+      spool.append("e", "r", message("m1"));
+      await().atMost(Duration.ofSeconds(5)).until(() -> broker.messageCount("q") == 1);
+    }
+
+    assertThat(directory.resolve("backup.spool")).exists();
+    assertThat(segment(6)).exists();
+  }
+
+  @Test
+  void nextSegmentIsPreparedAhead() {
+    String body = "x".repeat(1000);
+    try (Spool spool = Spool.open("s", directory, properties(), template)) {
+      await().atMost(Duration.ofSeconds(5)).until(() -> Files.exists(segment(2)));
+
+      for (int i = 0; i < 10; i++) {
+        spool.append("e", "r", message(body + i));
+      }
+      await().atMost(Duration.ofSeconds(5)).until(() -> broker.messageCount("q") == 10);
+      // 写满后切换到已准备好的段，并继续准备下一个段
+      await().atMost(Duration.ofSeconds(5)).until(() -> Files.exists(segment(5)));
+    }
+
+    List<String> expected = new ArrayList<>();
+    for (int i = 0; i < 10; i++) {
+      expected.add(body + i);
+    }
+    assertThat(receiveAll()).isEqualTo(expected);
+  }
+
+  @Test
+  void returnedRecordIsParked() throws Exception {
+    confirming.setPublisherReturns(true);
+    template.setMandatory(true);
+
+    try (Spool spool = Spool.open("s", directory, properties(), template)) {
+      spool.append("e", "unbound", message("lost"));
+      spool.append("e", "r", message("m1"));
+      await().atMost(Duration.ofSeconds(5)).until(() -> broker.messageCount("q") == 1);
+    }
+
+    assertThat(receiveAll()).containsExactly("m1");
+    Path returned = directory.resolve(String.format("%020d-%d%s", 1, SpoolSegment.HEADER,
+        Spool.RETURNED_SUFFIX));
+    Spool.Entry entry = SpoolCodec.decode(
+        new DataInputStream(new ByteArrayInputStream(Files.readAllBytes(returned))));
+    assertThat(entry.routing()).isEqualTo("unbound");
+    assertThat(entry.message().getBody()).isEqualTo(bytes("lost"));
+  }
+
+  @Test
+  void failsWhenMaxSizeIsReached() {
+    EasyRabbitProperties.SpoolProperties properties = properties();
+    properties.setMaxSize(2L * SEGMENT_SIZE);
+    properties.setOverflow(PublishWindow.Overflow.FAIL);
+    String body = "x".repeat(1000);
+
+    try (Spool spool = Spool.open("s", directory, properties, unconfirmed)) {
+      assertThatThrownBy(() -> {
+        for (int i = 0; i < 10; i++) {
+          spool.append("e", "r", message(body));
+        }
+      }).isInstanceOf(AmqpResourceNotAvailableException.class);
+    }
+  }
+
+  @Test
+  void codecRoundTrip() throws Exception {
+    MessageProperties props = new MessageProperties();
+    props.setContentType(MessageProperties.CONTENT_TYPE_JSON);
+    props.setMessageId("id");
+    props.setUserId("guest");
+    props.setClusterId("cluster");
+    props.setDeliveryMode(MessageDeliveryMode.NON_PERSISTENT);
+    props.setPriority(3);
+    props.setTimestamp(new Date(1000));
+    props.setHeader("string", "x".repeat(70000));
+    props.setHeader("int", 1);
+    props.setHeader("long", 2L);
+    props.setHeader("short", (short) 3);
+    props.setHeader("byte", (byte) 4);
+    props.setHeader("double", 5.5D);
+    props.setHeader("float", 6.5F);
+    props.setHeader("boolean", true);
+    props.setHeader("date", new Date(7000));
+    props.setHeader("decimal", new BigDecimal("8.0900"));
+    props.setHeader("null", null);
+    props.setHeader("list", List.of(1, "a", List.of(2L)));
+    props.setHeader("map", Map.of("k", Map.of("n", 9)));
+    props.setHeader("bytes", new byte[]{1, 2});
+
+    Spool.Entry entry = SpoolCodec.decode(new DataInputStream(new ByteArrayInputStream(
+        SpoolCodec.encode("e", "r", new Message(bytes("body"), props)))));
+
+    assertThat(entry.exchange()).isEqualTo("e");
+    assertThat(entry.routing()).isEqualTo("r");
+    assertThat(entry.message().getBody()).isEqualTo(bytes("body"));
+    MessageProperties decoded = entry.message().getMessageProperties();
+    assertThat(decoded.getContentType()).isEqualTo(MessageProperties.CONTENT_TYPE_JSON);
+    assertThat(decoded.getMessageId()).isEqualTo("id");
+    assertThat(decoded.getUserId()).isEqualTo("guest");
+    assertThat(decoded.getClusterId()).isEqualTo("cluster");
+    assertThat(decoded.getDeliveryMode()).isEqualTo(MessageDeliveryMode.NON_PERSISTENT);
+    assertThat(decoded.getPriority()).isEqualTo(3);
+    assertThat(decoded.getTimestamp()).isEqualTo(new Date(1000));
+    assertThat(decoded.getCorrelationId()).isNull();
+    assertThat(decoded.getHeaders()).usingRecursiveComparison().isEqualTo(props.getHeaders());
+  }
+
+  @Test
+  void codecRejectsUnsupportedHeader() {
+    MessageProperties props = new MessageProperties();
+    props.setHeader("object", new Object());
+    Message message = new Message(bytes("body"), props);
+
+    assertThatThrownBy(() -> SpoolCodec.encode("e", "r", message))
+        .isInstanceOf(MessageConversionException.class);
+  }
+
+  private EasyRabbitProperties.SpoolProperties properties() {
+    EasyRabbitProperties.SpoolProperties properties = new EasyRabbitProperties.SpoolProperties();
+    properties.setSegmentSize(SEGMENT_SIZE);
+    properties.setConfirmTimeout(Duration.ofMillis(100));
+    properties.setRetryInterval(Duration.ofMillis(50));
+    return properties;
+  }
+
+  private List<String> receiveAll() {
+    List<String> bodies = new ArrayList<>();
+    Message message;
+    while ((message = template.receive("q")) != null) {
+      bodies.add(new String(message.getBody(), StandardCharsets.UTF_8));
+    }
+    return bodies;
+  }
+
+  private Path segment(long seq) {
+    return directory.resolve(String.format("%020d%s", seq, SpoolSegment.SUFFIX));
+  }
+
+  private static int recordAt(Path segment, int index) throws Exception {
+    int pos = SpoolSegment.HEADER;
+    for (int i = 0; i < index; i++) {
+      pos += SpoolSegment.RECORD_HEADER + getInt(segment, pos);
+    }
+    return pos;
+  }
+
+  private static int getInt(Path file, int pos) throws Exception {
+    try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+      ByteBuffer buffer = ByteBuffer.allocate(4);
+      channel.read(buffer, pos);
+      return buffer.getInt(0);
+    }
+  }
+
+  private static void putInt(Path file, int pos, int value) throws Exception {
+    try (FileChannel channel = FileChannel.open(file, StandardOpenOption.WRITE)) {
+      channel.write(ByteBuffer.allocate(4).putInt(0, value), pos);
+    }
+  }
+
+  private static Message message(String body) {
+    return new Message(bytes(body), new MessageProperties());
+  }
+
+  private static byte[] bytes(String value) {
+    return value.getBytes(StandardCharsets.UTF_8);
+  }
+}